@@ -0,0 +1,124 @@
+package wurmlogs;
+
+/**
+ * @author Kevin Bechman
+ * Kinds of combat events counted from the _Combat logs.  Each event is counted under a key: the creature
+ * or the weapon involved, or "" if the line names neither.
+ */
+public enum CombatEvent {
+	HIT_TAKEN,  // "Young black wolf claws you pretty hard in the ...", keyed by creature
+	HIT_DEALT,  // "You maul Young pig extremely hard in the ...", keyed by creature
+	PARRY,  // "You safely parry with your large maul.", keyed by weapon
+	MISS,  // "You miss with the short sword.", keyed by weapon
+	EVADE,  // "You barely evade the blow to the left hand."
+	GLANCE;  // "The attack to the head glances off your armour."
+
+	private static final String[] STRENGTHS = { "very lightly", "lightly", "pretty hard", "very hard",
+			"extremely hard", "deadly hard", "hard" };
+
+	/**
+	 * Recognizes a combat event in a log line.  Only looks at the chars of the line, so the indexer can pass a
+	 * view of the raw bytes, and gives the key as a range of the line rather than a String.
+	 * @param text  the line
+	 * @param from  start of the text after the "[HH:MM:SS] " timestamp
+	 * @param to  end of the line
+	 * @param key  receives the start and end in the line of the creature or weapon of the event (an empty range
+	 *             if there is none)
+	 * @return  the event, or null if the line is not one that is counted
+	 */
+	public static CombatEvent parse(CharSequence text, int from, int to, int[] key) {
+		key[0] = key[1] = from;
+		if (startsWith(text, from, to, "You ")) {
+			if (startsWith(text, from, to, "You miss with ")) {
+				weapon(text, from + 14, to, key);
+				return MISS;
+			}
+			int parry = indexOf(text, " parry with ", from, to);
+			if (parry > from && parry < from + 20) {
+				weapon(text, parry + 12, to, key);
+				return PARRY;
+			}
+			if (startsWith(text, from, to, "You barely evade ") || startsWith(text, from, to, "You evade "))
+				return EVADE;
+			// "You <verb> <creature> <strength> in the ..."
+			int verbEnd = indexOf(text, " ", from + 4, to);
+			int target = strengthAt(text, from, to);
+			if (verbEnd > from && target > verbEnd + 1) {
+				key[0] = verbEnd + 1;
+				key[1] = target;
+				return HIT_DEALT;
+			}
+			return null;
+		}
+		if (startsWith(text, from, to, "The attack to ") && indexOf(text, " glances off your armour", from, to) >= 0)
+			return GLANCE;
+		// "<creature> <verb> you <strength> in the ..."
+		int you = indexOf(text, " you ", from, to);
+		if (you > from && !startsWith(text, from, to, "Your ") && strengthAt(text, from, to) == you + 4) {
+			int verb = you - 1;
+			while (verb >= from && text.charAt(verb) != ' ')
+				verb--;
+			if (verb > from && (verb - 9 < from || !startsWith(text, verb - 9, to, " tries to"))) {
+				key[1] = verb;
+				return HIT_TAKEN;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Finds how hard a blow was, e.g. " pretty hard in the "
+	 * @return  index of the space before the strength, or -1 if there is none
+	 */
+	private static int strengthAt(CharSequence text, int from, int to) {
+		int in = indexOf(text, " in the ", from, to);
+		if (in < 0)
+			return -1;
+		for (String strength : STRENGTHS) {
+			int at = in - strength.length() - 1;
+			if (at > from && text.charAt(at) == ' ' && startsWith(text, at + 1, to, strength))
+				return at;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the weapon name after "with the" or "with your", without the final period
+	 */
+	private static void weapon(CharSequence text, int from, int to, int[] key) {
+		if (startsWith(text, from, to, "the "))
+			from += 4;
+		else if (startsWith(text, from, to, "your "))
+			from += 5;
+		int end = to;
+		while (end > from && (text.charAt(end - 1) == '.' || text.charAt(end - 1) == ' '))
+			end--;
+		key[0] = Math.min(from, to);
+		key[1] = Math.max(end, key[0]);
+	}
+
+	/**
+	 * @return  true if the text has the prefix at the given index (false if the index is out of [0, to])
+	 */
+	private static boolean startsWith(CharSequence text, int at, int to, String prefix) {
+		if (at < 0 || at + prefix.length() > to)
+			return false;
+		for (int i = 0; i < prefix.length(); i++) {
+			if (text.charAt(at + i) != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return  the index of the first occurrence of s in [from, to), or -1 if there is none
+	 */
+	private static int indexOf(CharSequence text, String s, int from, int to) {
+		char first = s.charAt(0);
+		for (int i = from; i + s.length() <= to; i++) {
+			if (text.charAt(i) == first && startsWith(text, i, to, s))
+				return i;
+		}
+		return -1;
+	}
+}
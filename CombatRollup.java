@@ -0,0 +1,197 @@
+package wurmlogs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+/**
+ * @author Kevin Bechman
+ * Counts of combat events, by event and by creature or weapon (see CombatEvent).  The indexer keeps one rollup
+ * per file and date, and rollups can be merged, so totals for any range of days (and any set of files) are
+ * added up from the rollups without reading the combat text again.
+ * Keys are stored as ids from the TermDictionary, and the counts in an open-addressing table of primitive
+ * arrays, so a rollup is a few objects however many creatures and weapons it counts.
+ */
+public class CombatRollup {
+	private static final long FREE = -1;  // Key of an unused slot
+
+	private final TermDictionary dict;
+	private long[] keys;  // (event ordinal << 32 | key id) of each slot, or FREE
+	private int[] counts;  // Count of each slot
+	private int size;
+
+	public CombatRollup(TermDictionary dict) {
+		this.dict = dict;
+		keys = new long[16];
+		Arrays.fill(keys, FREE);
+		counts = new int[16];
+		size = 0;
+	}
+
+	/**
+	 * Counts one event
+	 * @param event  the event
+	 * @param key  the creature or weapon of the event ("" for none)
+	 */
+	public void add(CombatEvent event, String key) {
+		add(event, dict.id(key));
+	}
+
+	/**
+	 * Counts one event
+	 * @param event  the event
+	 * @param keyId  id of the creature or weapon of the event in the dictionary
+	 */
+	public void add(CombatEvent event, int keyId) {
+		add(((long) event.ordinal() << 32) | keyId, 1);
+	}
+
+	private void add(long packed, int n) {
+		if (size * 2 >= keys.length)
+			grow();
+		int i = slot(keys, packed);
+		if (keys[i] == FREE) {
+			keys[i] = packed;
+			size++;
+		}
+		counts[i] += n;
+	}
+
+	/**
+	 * @return  the slot holding a key, or the free slot where it would go
+	 */
+	private static int slot(long[] keys, long packed) {
+		int mask = keys.length - 1;
+		int i = (int) ((packed ^ (packed >>> 29)) * 0x9E3779B97F4A7C15L >>> 40) & mask;
+		while (keys[i] != FREE && keys[i] != packed)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldCounts = counts;
+		keys = new long[oldKeys.length * 2];
+		Arrays.fill(keys, FREE);
+		counts = new int[oldKeys.length * 2];
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] != FREE) {
+				int i = slot(keys, oldKeys[j]);
+				keys[i] = oldKeys[j];
+				counts[i] = oldCounts[j];
+			}
+		}
+	}
+
+	/**
+	 * Adds all counts of another rollup to this one
+	 * @param other  the rollup to add (not changed)
+	 */
+	public void merge(CombatRollup other) {
+		for (int j = 0; j < other.keys.length; j++) {
+			if (other.keys[j] != FREE)
+				add(other.keys[j], other.counts[j]);
+		}
+	}
+
+	/**
+	 * @param event  an event
+	 * @return  how many times the event happened, over all keys
+	 */
+	public int total(CombatEvent event) {
+		int total = 0;
+		for (int j = 0; j < keys.length; j++) {
+			if (keys[j] != FREE && (int) (keys[j] >>> 32) == event.ordinal())
+				total += counts[j];
+		}
+		return total;
+	}
+
+	/**
+	 * @param event  an event
+	 * @param key  a creature or weapon
+	 * @return  how many times the event happened with that key
+	 */
+	public int count(CombatEvent event, String key) {
+		int id = dict.find(key);
+		if (id < 0)
+			return 0;
+		int i = slot(keys, ((long) event.ordinal() << 32) | id);
+		return (keys[i] == FREE) ? 0 : counts[i];
+	}
+
+	/**
+	 * @param event  an event
+	 * @return  the count of the event for each creature or weapon, sorted by name
+	 */
+	public TreeMap<String, Integer> byKey(CombatEvent event) {
+		TreeMap<String, Integer> byKey = new TreeMap<>();
+		for (int j = 0; j < keys.length; j++) {
+			if (keys[j] != FREE && (int) (keys[j] >>> 32) == event.ordinal())
+				byKey.put(dict.term((int) keys[j]), counts[j]);
+		}
+		return byKey;
+	}
+
+	/**
+	 * @return  a copy of this rollup
+	 */
+	public CombatRollup copy() {
+		CombatRollup copy = new CombatRollup(dict);
+		copy.keys = keys.clone();
+		copy.counts = counts.clone();
+		copy.size = size;
+		return copy;
+	}
+
+	/**
+	 * Writes the counts in the binary format used by IndexStore
+	 * @param out  the stream to write to
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(size);
+		for (int j = 0; j < keys.length; j++) {
+			if (keys[j] == FREE)
+				continue;
+			out.writeByte((int) (keys[j] >>> 32));
+			out.writeInt((int) keys[j]);
+			out.writeInt(counts[j]);
+		}
+	}
+
+	/**
+	 * Reads counts written with write(), translating the saved key ids to the ids of the current dictionary
+	 * @param in  the stream to read from
+	 * @param dict  the current dictionary
+	 * @param savedTerms  the dictionary the counts were saved with
+	 * @return  the rollup that was read
+	 * @throws IOException  if the data is malformed
+	 */
+	public static CombatRollup read(DataInput in, TermDictionary dict, String[] savedTerms) throws IOException {
+		CombatRollup rollup = new CombatRollup(dict);
+		int n = in.readInt();
+		if (n < 0)
+			throw new IOException("Bad combat count " + n);
+		for (int i=0; i<n; i++) {
+			int event = in.readByte();
+			int saved = in.readInt();
+			int count = in.readInt();
+			if (event < 0 || event >= CombatEvent.values().length || saved < 0 || saved >= savedTerms.length)
+				throw new IOException("Bad combat entry");
+			rollup.add(((long) event << 32) | dict.id(savedTerms[saved]), count);
+		}
+		return rollup;
+	}
+
+	/**
+	 * @return  estimated heap size of the rollup in bytes (a key and a count per slot)
+	 */
+	public long memoryBytes() {
+		return 12L * keys.length + 64;
+	}
+
+	public boolean isEmpty() { return size == 0; }
+}
@@ -0,0 +1,198 @@
+package wurmlogs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @author Kevin Bechman
+ * Combat events parsed out of a _Combat log file, rolled up per Logging date.
+ * The rollups are filled while the file is indexed (files are indexed in parallel, so each file has its own),
+ * and are added together when asked for.
+ *
+ * Lines are recognized on the bytes the LogScanner read them into, through a reused ASCII view of the buffer
+ * (the combat patterns are all ASCII), and the creature or weapon of an event is looked up by its bytes in a
+ * TokenCache, so no String is made for a line unless it names a key not seen before in the file.
+ */
+public class CombatStats {
+	public static final String FILE_PREFIX = "_Combat";
+
+	private final TermDictionary dict;
+	private final TreeMap<Integer, CombatRollup> days;  // Rollup of each packed date
+	private final ByteChars line;  // View of the buffer of the line being parsed
+	private final int[] key;  // Range of the key of the last event in the line
+	private TokenCache keys;  // Ids of the keys seen in this file (made when first needed)
+	private int lastDate;  // Date of the last event counted (-1 if none), whose rollup is lastRollup
+	private CombatRollup lastRollup;
+
+	public CombatStats(TermDictionary dict) {
+		this.dict = dict;
+		days = new TreeMap<>();
+		line = new ByteChars();
+		key = new int[2];
+		lastDate = -1;
+	}
+
+	/**
+	 * Chars of a byte buffer, one for each byte.  Bytes of multi-byte characters show up as chars above 0x7F,
+	 * which match no ASCII pattern.
+	 */
+	private static class ByteChars implements CharSequence {
+		byte[] buf;
+		int length;
+
+		@Override
+		public char charAt(int index) { return (char) (buf[index] & 0xFF); }
+		@Override
+		public int length() { return length; }
+		/**
+		 * @return  the chars of [start, end) as a String, one char per byte as charAt() gives them
+		 */
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			if (start < 0 || end > length || start > end)
+				throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+			return new String(buf, start, end - start, StandardCharsets.ISO_8859_1);
+		}
+
+		@Override
+		public String toString() {
+			return subSequence(0, length).toString();
+		}
+	}
+
+	/**
+	 * @param file  a log file
+	 * @return  true if the file is a _Combat log
+	 */
+	public static boolean isCombatLog(File file) {
+		return file.getName().startsWith(FILE_PREFIX);
+	}
+
+	/**
+	 * Parses a line of the log and counts it if it is a combat event.  Other lines are ignored.
+	 * @param buf  buffer holding the line
+	 * @param from  index of the first byte of the line (which starts with a timestamp)
+	 * @param to  index just past the last byte of the line
+	 * @param dateKey  Logging date of the line
+	 */
+	public void addLine(byte[] buf, int from, int to, int dateKey) {
+		if (to - from <= 11)
+			return;
+		line.buf = buf;
+		line.length = to;
+		CombatEvent event = CombatEvent.parse(line, from + 11, to, key);
+		line.buf = null;
+		if (event == null)
+			return;
+		if (keys == null)
+			keys = new TokenCache(false);
+		int keyId = keys.id(buf, key[0], key[1], dict);  // UTF-8 decoded as before, the first time it is seen
+		if (dateKey != lastDate) {
+			lastRollup = days.get(dateKey);
+			if (lastRollup == null) {
+				lastRollup = new CombatRollup(dict);
+				days.put(dateKey, lastRollup);
+			}
+			lastDate = dateKey;
+		}
+		lastRollup.add(event, keyId);
+	}
+
+	/**
+	 * Adds the rollups of a range of dates to a total
+	 * @param fromKey  first packed date
+	 * @param toKey  last packed date (inclusive)
+	 * @param total  the rollup to add to
+	 */
+	public void addTo(int fromKey, int toKey, CombatRollup total) {
+		for (CombatRollup rollup : days.subMap(fromKey, true, toKey, true).values()) {
+			total.merge(rollup);
+		}
+	}
+
+	/**
+	 * Adds the rollup of each date in a range to the rollup of that date in a map
+	 * @param fromKey  first packed date
+	 * @param toKey  last packed date (inclusive)
+	 * @param totals  rollups by packed date; missing dates are added
+	 */
+	public void addTo(int fromKey, int toKey, TreeMap<Integer, CombatRollup> totals) {
+		for (Map.Entry<Integer, CombatRollup> e : days.subMap(fromKey, true, toKey, true).entrySet()) {
+			CombatRollup total = totals.get(e.getKey());
+			if (total == null) {
+				total = new CombatRollup(dict);
+				totals.put(e.getKey(), total);
+			}
+			total.merge(e.getValue());
+		}
+	}
+
+	/**
+	 * Forgets all events (the file is being indexed again from the start)
+	 */
+	public void clear() {
+		days.clear();
+		lastDate = -1;
+		lastRollup = null;
+	}
+
+	/**
+	 * @return  a copy of these stats that shares no mutable state with them
+	 */
+	public CombatStats copy() {
+		CombatStats copy = new CombatStats(dict);
+		for (Map.Entry<Integer, CombatRollup> e : days.entrySet()) {
+			copy.days.put(e.getKey(), e.getValue().copy());
+		}
+		return copy;
+	}
+
+	/**
+	 * @return  estimated heap size of the rollups in bytes
+	 */
+	public long memoryBytes() {
+		long bytes = 64;
+		for (CombatRollup r : days.values()) {
+			bytes += 56 + r.memoryBytes();  // Tree entry and boxed date, then the rollup
+		}
+		return bytes;
+	}
+
+	/**
+	 * Writes the rollups in the binary format used by IndexStore
+	 * @param out  the stream to write to
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(days.size());
+		for (Map.Entry<Integer, CombatRollup> e : days.entrySet()) {
+			out.writeInt(e.getKey());
+			e.getValue().write(out);
+		}
+	}
+
+	/**
+	 * Reads rollups written with write()
+	 * @param in  the stream to read from
+	 * @param dict  the current dictionary
+	 * @param savedTerms  the dictionary the rollups were saved with
+	 * @return  the stats that were read
+	 * @throws IOException  if the data is malformed
+	 */
+	public static CombatStats read(DataInput in, TermDictionary dict, String[] savedTerms) throws IOException {
+		CombatStats stats = new CombatStats(dict);
+		int n = in.readInt();
+		if (n < 0)
+			throw new IOException("Bad day count " + n);
+		for (int i=0; i<n; i++) {
+			int dateKey = in.readInt();
+			stats.days.put(dateKey, CombatRollup.read(in, dict, savedTerms));
+		}
+		return stats;
+	}
+}
@@ -0,0 +1,302 @@
+package wurmlogs;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * @author Kevin Bechman
+ * Compact index of every date and its LogRefs, kept in sorted primitive arrays.
+ * Dates are packed as yyyymmdd ints and looked up with a binary search, and the LogRefs of all dates are
+ * stored as parallel arrays (struct-of-arrays), grouped by date.  Looking up a date and walking its LogRefs
+ * allocates nothing.
+ *
+ * The LogRefs of the last dates (the tail, from tailSlot on) are kept in arrays of their own, so new segments of
+ * files that are being written to are added by copying only the tail (see withSegments()); the head arrays are
+ * shared by every version of the index made that way.  The end of each file's last segment, which grows with
+ * every line the game writes, is kept in a LiveEnd that readers consult, so it moves without any copy at all.
+ * Apart from those ends, an index is never changed once it is made, so it can be read from any thread.
+ */
+public final class DateIndex implements Serializable {
+	private static final long serialVersionUID = 6216472580196528130L;
+	public static final DateIndex EMPTY = new DateIndex(new int[0], new int[1], 0, new int[0], new long[0], new long[0],
+			new int[0], new long[0], new long[0], new int[0], new LiveEnd[0]);
+
+	private final int[] dates;  // Sorted packed dates
+	private final int[] firstRef;  // LogRefs of dates[i] are at [firstRef[i], firstRef[i + 1]); one longer than dates
+	private final int tailSlot;  // First date of the tail
+	private final int split;  // First LogRef of the tail; the LogRefs before it are in the head arrays
+	private final int[] files;  // File index of each LogRef of the head
+	private final long[] starts;  // Start location of each LogRef of the head
+	private final long[] ends;  // End location of each LogRef of the head
+	private final int[] tailFiles;  // The same for the LogRefs of the tail, from split on
+	private final long[] tailStarts;
+	private final long[] tailEnds;
+	private final int[] lastRef;  // LogRef of the last segment of each file, by file index (-1 if it has none)
+	private final LiveEnd[] live;  // End of the last segment of each file, by file index
+
+	/**
+	 * End of the last segment of a file, which grows as the game appends to the file.  It is shared by every
+	 * version of the index, and stays as it is once the file starts a new segment.
+	 */
+	static final class LiveEnd implements Serializable {
+		private static final long serialVersionUID = -4007415398734101923L;
+		volatile long end;
+
+		LiveEnd(long end) {
+			this.end = end;
+		}
+	}
+
+	private DateIndex(int[] dates, int[] firstRef, int tailSlot, int[] files, long[] starts, long[] ends,
+			int[] tailFiles, long[] tailStarts, long[] tailEnds, int[] lastRef, LiveEnd[] live) {
+		this.dates = dates;
+		this.firstRef = firstRef;
+		this.tailSlot = tailSlot;
+		this.split = firstRef[tailSlot];
+		this.files = files;
+		this.starts = starts;
+		this.ends = ends;
+		this.tailFiles = tailFiles;
+		this.tailStarts = tailStarts;
+		this.tailEnds = tailEnds;
+		this.lastRef = lastRef;
+		this.live = live;
+	}
+
+	/**
+	 * Builds the index from the per-file indexes.  The LogRefs of each date are ordered by file index,
+	 * then by location in the file.  The last date goes in the tail.
+	 * @param indexes  the per-file indexes, in file order
+	 * @return  the new index
+	 */
+	public static DateIndex build(List<FileIndex> indexes) {
+		int total = 0;
+		for (FileIndex index : indexes) {
+			total += index.size();
+		}
+		// Collect the distinct dates
+		int[] all = new int[total];
+		int k = 0;
+		for (FileIndex index : indexes) {
+			for (int j=0; j<index.size(); j++) {
+				all[k++] = index.dateAt(j);
+			}
+		}
+		Arrays.sort(all);
+		int n = 0;
+		for (int i=0; i<total; i++) {
+			if (n == 0 || all[n - 1] != all[i])
+				all[n++] = all[i];
+		}
+		int[] dates = Arrays.copyOf(all, n);
+
+		// Count the LogRefs of each date, then lay them out grouped by date.  Files are visited in order,
+		// so the LogRefs within a date stay in file order.
+		int[] firstRef = new int[n + 1];
+		for (FileIndex index : indexes) {
+			for (int j=0; j<index.size(); j++) {
+				firstRef[Arrays.binarySearch(dates, index.dateAt(j)) + 1]++;
+			}
+		}
+		for (int i=0; i<n; i++) {
+			firstRef[i + 1] += firstRef[i];
+		}
+		int[] next = Arrays.copyOf(firstRef, n);
+		int[] files = new int[total];
+		long[] starts = new long[total];
+		long[] ends = new long[total];
+		int[] lastRef = new int[indexes.size()];
+		Arrays.fill(lastRef, -1);
+		LiveEnd[] live = new LiveEnd[indexes.size()];
+		for (FileIndex index : indexes) {
+			for (int j=0; j<index.size(); j++) {
+				int r = next[Arrays.binarySearch(dates, index.dateAt(j))]++;
+				files[r] = index.fileIndex;
+				starts[r] = index.startAt(j);
+				ends[r] = index.endAt(j);
+			}
+			if (index.size() > 0) {
+				lastRef[index.fileIndex] = next[Arrays.binarySearch(dates, index.dateAt(index.size() - 1))] - 1;
+				live[index.fileIndex] = new LiveEnd(index.endAt(index.size() - 1));
+			}
+		}
+		// The head arrays are used whole; their entries past the split are never read
+		int tailSlot = Math.max(0, n - 1);
+		int split = firstRef[tailSlot];
+		return new DateIndex(dates, firstRef, tailSlot, files, starts, ends, Arrays.copyOfRange(files, split, total),
+				Arrays.copyOfRange(starts, split, total), Arrays.copyOfRange(ends, split, total), lastRef, live);
+	}
+
+	/**
+	 * Moves the end of a file's last segment, when the file has been appended to without starting a new segment.
+	 * Nothing is copied: the new end is seen at once by everyone reading this index.
+	 * @param fileIndex  file of the segment
+	 * @param start  start location of the segment
+	 * @param end  the new end location
+	 * @return  false if the last LogRef of the file in this index does not start there (nothing is changed)
+	 */
+	public boolean growLast(int fileIndex, long start, long end) {
+		if (fileIndex >= lastRef.length || lastRef[fileIndex] < 0 || startAt(lastRef[fileIndex]) != start)
+			return false;
+		live[fileIndex].end = end;
+		return true;
+	}
+
+	/**
+	 * Returns a copy of this index with the new segments of a file added.  Only the tail is copied (and the small
+	 * arrays by date and by file), so this can only be done when every new segment is of a date of the tail or
+	 * later, as new segments of files that are being written to are.
+	 * @param index  the index of the file, holding the new segments at its end
+	 * @param from  the first new segment; the one before it (if any) is the file's last LogRef in this index, and
+	 *              its end in the file index is now final
+	 * @return  the new index, or null if it has to be built again instead
+	 */
+	public DateIndex withSegments(FileIndex index, int from) {
+		int file = index.fileIndex;
+		for (int j = from; j < index.size(); j++) {
+			if (tailSlot > 0 && index.dateAt(j) <= dates[tailSlot - 1])
+				return null;
+		}
+		int ended = (file < lastRef.length) ? lastRef[file] : -1;
+		if ((from > 0) != (ended >= 0) || (ended >= 0 && startAt(ended) != index.startAt(from - 1)))
+			return null;
+		if (ended >= 0) {
+			// The segment is no longer the file's last, so its end is stored with it.  Versions of the index that
+			// still see it as the last segment read its end from the LiveEnd instead, so they are not affected.
+			long end = index.endAt(from - 1);
+			live[file].end = end;
+			if (ended < split)
+				ends[ended] = end;
+			else
+				tailEnds[ended - split] = end;
+		}
+
+		// Gather the LogRefs of the tail and the new segments, and sort them by date and then file
+		int old = tailFiles.length;
+		int m = old + index.size() - from;
+		final int[] d = new int[m];
+		final int[] f = Arrays.copyOf(tailFiles, m);
+		long[] s = Arrays.copyOf(tailStarts, m);
+		long[] e = Arrays.copyOf(tailEnds, m);
+		for (int slot = tailSlot; slot < dates.length; slot++) {
+			Arrays.fill(d, firstRef[slot] - split, firstRef[slot + 1] - split, dates[slot]);
+		}
+		for (int k = old; k < m; k++) {
+			d[k] = index.dateAt(from + k - old);
+			f[k] = file;
+			s[k] = index.startAt(from + k - old);
+			e[k] = index.endAt(from + k - old);
+		}
+		Integer[] order = new Integer[m];
+		for (int k = 0; k < m; k++) {
+			order[k] = k;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {  // Stable, so the segments of a file stay in order
+			public int compare(Integer a, Integer b) {
+				return (d[a] != d[b]) ? Integer.compare(d[a], d[b]) : Integer.compare(f[a], f[b]);
+			}
+		});
+
+		// Lay out the new tail
+		int tailDates = 0;
+		for (int p = 0; p < m; p++) {
+			if (p == 0 || d[order[p]] != d[order[p - 1]])
+				tailDates++;
+		}
+		int[] newDates = Arrays.copyOf(dates, tailSlot + tailDates);
+		int[] newFirstRef = Arrays.copyOf(firstRef, tailSlot + tailDates + 1);
+		int[] newFiles = new int[m];
+		long[] newStarts = new long[m];
+		long[] newEnds = new long[m];
+		int[] moved = new int[m];  // New LogRef of each gathered one
+		int slot = tailSlot;
+		for (int p = 0; p < m; p++) {
+			int k = order[p];
+			if (p > 0 && d[k] != d[order[p - 1]])
+				newFirstRef[++slot] = split + p;
+			newDates[slot] = d[k];
+			newFiles[p] = f[k];
+			newStarts[p] = s[k];
+			newEnds[p] = e[k];
+			moved[k] = split + p;
+		}
+		newFirstRef[newDates.length] = split + m;
+
+		// The last LogRef of each file in the tail has moved, and the file now ends with its last new segment
+		int[] newLastRef = Arrays.copyOf(lastRef, Math.max(lastRef.length, file + 1));
+		LiveEnd[] newLive = Arrays.copyOf(live, newLastRef.length);
+		for (int g = 0; g < newLastRef.length; g++) {
+			if (g >= lastRef.length)
+				newLastRef[g] = -1;
+			else if (lastRef[g] >= split)
+				newLastRef[g] = moved[lastRef[g] - split];
+		}
+		if (m > old) {
+			newLastRef[file] = moved[m - 1];
+			newLive[file] = new LiveEnd(e[m - 1]);
+		}
+		return new DateIndex(newDates, newFirstRef, tailSlot, files, starts, ends, newFiles, newStarts, newEnds,
+				newLastRef, newLive);
+	}
+
+	/**
+	 * Finds the slot of a date in the index
+	 * @param dateKey  packed date (see WTime.toKey())
+	 * @return  the slot of the date, or -1 if the date has no logs
+	 */
+	public int find(int dateKey) {
+		int slot = Arrays.binarySearch(dates, dateKey);
+		return slot < 0 ? -1 : slot;
+	}
+
+	/**
+	 * Finds the closest date before or after the given date
+	 * @param dateKey  packed date to start from (does not need to be in the index)
+	 * @param direction  1 for the next date, -1 for the previous date
+	 * @return  the slot of the adjacent date, or -1 if there is none
+	 */
+	public int adjacent(int dateKey, int direction) {
+		int pos = Arrays.binarySearch(dates, dateKey);
+		int slot;
+		if (pos >= 0)
+			slot = pos + direction;
+		else
+			slot = (direction > 0) ? -pos - 1 : -pos - 2;
+		return (slot >= 0 && slot < dates.length) ? slot : -1;
+	}
+
+	/**
+	 * Gives the first slot whose date is on or after the given date
+	 * @param dateKey  packed date
+	 * @return  the slot (dateCount() if every date is earlier)
+	 */
+	public int ceiling(int dateKey) {
+		int pos = Arrays.binarySearch(dates, dateKey);
+		return pos >= 0 ? pos : -pos - 1;
+	}
+
+	/**
+	 * @return  estimated heap size of the index in bytes
+	 */
+	public long memoryBytes() {
+		return 4L * (dates.length + firstRef.length + files.length + tailFiles.length + lastRef.length)
+				+ 8L * (starts.length + ends.length + tailStarts.length + tailEnds.length) + 24L * live.length + 11 * 16;
+	}
+
+	public int dateCount() { return dates.length; }
+	public int dateAt(int slot) { return dates[slot]; }
+	public int firstRef(int slot) { return firstRef[slot]; }
+	public int endRef(int slot) { return firstRef[slot + 1]; }
+	public int refCount() { return split + tailFiles.length; }
+	public int fileAt(int ref) { return (ref < split) ? files[ref] : tailFiles[ref - split]; }
+	public long startAt(int ref) { return (ref < split) ? starts[ref] : tailStarts[ref - split]; }
+
+	public long endAt(int ref) {
+		int file = fileAt(ref);
+		if (file < lastRef.length && lastRef[file] == ref)
+			return live[file].end;
+		return (ref < split) ? ends[ref] : tailEnds[ref - split];
+	}
+}
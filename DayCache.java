@@ -0,0 +1,136 @@
+package wurmlogs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author Kevin Bechman
+ * Keeps the decoded logs of recently viewed (and prefetched) dates in memory.
+ * Dates are evicted least-recently-used first once the total size of the cached text goes over the byte budget.
+ *
+ * Each entry remembers how many bytes of log files it was read from.  If the LogRefs of the date cover a
+ * different number of bytes when it is looked up again (e.g. a file was appended to), the entry is stale and dropped.
+ */
+public class DayCache {
+	public static final long DEFAULT_BUDGET = 64L << 20;  // 64 MiB
+
+	private static class Entry {
+		final LogPackage logs;
+		final long sourceBytes;  // Total length of the LogRefs the logs were read from
+		final long size;  // Estimated heap size of the logs
+
+		Entry(LogPackage logs, long sourceBytes) {
+			this.logs = logs;
+			this.sourceBytes = sourceBytes;
+			this.size = sizeOf(logs);
+		}
+	}
+
+	private final LinkedHashMap<Integer, Entry> map;  // Keyed by packed date, in access order
+	private long budget;  // Max total size of cached logs in bytes
+	private long used;  // Current total size of cached logs in bytes
+	private long hits, misses;
+
+	public DayCache(long budget) {
+		map = new LinkedHashMap<>(16, 0.75f, true);
+		this.budget = budget;
+		used = 0;
+	}
+
+	/**
+	 * Gets the cached logs for a date
+	 * @param date  the date to look up
+	 * @param sourceBytes  total length of the date's LogRefs right now
+	 * @return  the cached logs, or null if they are not cached or are out of date
+	 */
+	public synchronized LogPackage get(WTime date, long sourceBytes) {
+		Entry e = map.get(date.toKey());
+		if (e == null) {
+			misses++;
+			return null;
+		}
+		if (e.sourceBytes != sourceBytes) {
+			remove(date.toKey());
+			misses++;
+			return null;
+		}
+		hits++;
+		return e.logs;
+	}
+
+	/**
+	 * Checks for a date without counting it as a use
+	 * @param date  the date to look for
+	 * @return  true if logs for the date are cached
+	 */
+	public synchronized boolean contains(WTime date) {
+		return map.containsKey(date.toKey());
+	}
+
+	/**
+	 * Adds logs to the cache, evicting the least recently used dates if needed.
+	 * Logs that are bigger than the whole budget are not cached.
+	 * @param date  the date of the logs
+	 * @param logs  the logs
+	 * @param sourceBytes  total length of the LogRefs the logs were read from
+	 */
+	public synchronized void put(WTime date, LogPackage logs, long sourceBytes) {
+		Entry e = new Entry(logs, sourceBytes);
+		remove(date.toKey());
+		if (e.size > budget)
+			return;
+		map.put(date.toKey(), e);
+		used += e.size;
+		evict();
+	}
+
+	/**
+	 * Sets a new byte budget, evicting dates if the cache is now over it
+	 * @param budget  max total size of cached logs in bytes
+	 */
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		evict();
+	}
+
+	public synchronized void clear() {
+		map.clear();
+		used = 0;
+	}
+
+	private void remove(int key) {
+		Entry old = map.remove(key);
+		if (old != null)
+			used -= old.size;
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<Integer, Entry>> it = map.entrySet().iterator();
+		while (used > budget && it.hasNext()) {
+			used -= it.next().getValue().size;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Estimates the heap size of the text in a LogPackage (2 bytes per char, or the line index of mapped text,
+	 * plus a little per tab)
+	 * @param logs  the logs to measure
+	 * @return  estimated size in bytes
+	 */
+	public static long sizeOf(LogPackage logs) {
+		long size = 0;
+		for (int i = 0; i < logs.logTexts.length; i++) {
+			CharSequence text = logs.logTexts[i];
+			size += ((text instanceof MappedLogText) ? ((MappedLogText) text).memoryBytes() : 2L * text.length())
+					+ 2L * logs.logTitles[i].length() + 64;
+		}
+		return size;
+	}
+
+	public synchronized long getUsedBytes() { return used; }
+	public synchronized long getHits() { return hits; }
+	public synchronized long getMisses() { return misses; }
+	public synchronized int size() { return map.size(); }
+}
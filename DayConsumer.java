@@ -0,0 +1,14 @@
+package wurmlogs;
+
+/**
+ * @author Kevin Bechman
+ * Receives the logs of a range of dates from Engine.getLogsForRange(), one day at a time
+ */
+public interface DayConsumer {
+	/**
+	 * Called for each date in the range that has logs, in date order
+	 * @param date  the date
+	 * @param logs  the logs of that date
+	 */
+	void dayLoaded(WTime date, LogPackage logs);
+}
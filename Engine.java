@@ -1,239 +1,1150 @@
-package wurmlogs;
-
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.Arrays;
-
-import javax.swing.SwingWorker;
-
-/**
- * @author Kevin Bechman
- * 
- * Class for controlling all background aspects of the log viewer, such as indexing and acquiring the files.
- */
-public class Engine {
-	/**
-	 * Background thread in charge of indexing the files once a main directory is specified
-	 */
-	private class Indexer extends SwingWorker<Void, String> {
-		@Override
-		protected Void doInBackground() {
-			try {
-				logTracker.processDates(logFiles);
-			} catch (Exception e) {
-				System.out.println("Error indexing log files.");
-				e.printStackTrace();
-			}
-			return null;
-		}
-		
-		@Override
-		protected void done() {
-			System.out.println("Indexing files complete!");
-			doneIndexing();
-		}
-	}
-	
-	private File mainDir;  // The main directory containing the log files
-	private File[] logFiles;  // File objects pointing to the log files
-	private WTime searchDate;  // Date currently set to be displayed
-	
-	private WurmLogsMain wlm;  // Reference to GUI class
-	private LogTracker logTracker;
-	private Indexer indexer;  // SwingWorker used for indexing the log files
-	
-	private boolean isReadyForIndexing;  // If a main directory has been loaded, this will switch to true
-	private boolean isDoneIndexing;  // Set to true when the Indexer finishes its task 
-	
-	public Engine(WurmLogsMain w) {
-		wlm = w;
-		logTracker = new LogTracker();
-		isReadyForIndexing = false;
-		isDoneIndexing = false;
-		indexer = new Indexer();
-	}
-	
-	/**
-	 * Assigns the mainDir File object based on the given pathname
-	 * @param pathname  String pathname of what is to be made the main directory
-	 */
-	public void setMainDir(String pathname) {
-		File file = new File(pathname);
-		if (!file.exists() || !file.isDirectory()) {
-			System.out.println("Directory at specified pathname does not exist.");
-			return;
-		}
-		mainDir = file;
-		isReadyForIndexing = true;  // May not need this if all the methods occur in this order
-		filterLogFiles();
-	}
-	
-	/**
-	 * Sets a new WTime date object, given the search date string
-	 * @param searchDateStr  string in format YYYY-MM-DD, representing the date to search for
-	 */
-	public void setSearchDate(String searchDateStr) {
-		if (searchDateStr.length() != 10) {
-			System.out.println("Please fill in a proper date with format YYYY-MM-DD");
-			return;
-		}
-		searchDate = new WTime(Integer.parseInt(searchDateStr.substring(0, 4)),
-			Integer.parseInt(searchDateStr.substring(5, 7)), Integer.parseInt(searchDateStr.substring(8, 10)));
-	}
-	
-	/**
-	 * For each file, test that it is a .txt file, and then that it begins with "Logging"
-	 * If both conditions are met, it is a log file and is retained.
-	 * Otherwise, it is ignored.
-	 * @param mainDirectory  the file object representing the main logs directory
-	 */
-	private void filterLogFiles() {
-		File[] files = mainDir.listFiles();
-		File[] keepers = new File[files.length];
-		int k = 0;	// Counter for index of keeper array
-		for (File f : files) {
-			String s = f.getName();
-			// If the file is a text file, continue
-			if (s.substring(s.length() - 3, s.length()).equals("txt")) {
-				try {
-					RandomAccessFile in = new RandomAccessFile(f, "r");
-					s = in.readLine();	// Read the first line
-					in.close();
-				} catch (Exception e) {
-					s = null;
-				}
-				// If the first line starts with "Logging", it is a log file and will be retained
-				if (s != null && s.length() > 7 && s.substring(0, 7).equals("Logging")) {
-					keepers[k] = f;
-					k++;
-				}
-			}
-		}
-		// Re-assign the logFiles array with new length and references only to the actual log files
-		logFiles = Arrays.copyOf(keepers, k);
-	}
-	
-	/**
-	 * Iterates through the LogRefList for the date given by the user, and stores the results in global
-	 * arrays to be displayed in the UI
-	 * @return  LogPackage containing the log text and titles for the tabs
-	 * @throws IOException
-	 * @throws FileNotFoundException
-	 */
-	public LogPackage getLogsForDate() throws IOException, FileNotFoundException {
-		double startTime = System.nanoTime();
-		System.out.println("Search for: " + searchDate + "...");
-		int k = 0; // counter for files to be kept
-		
-		// New arrays 
-		String[] logTexts = new String[logFiles.length];
-		String[] logTitles = new String[logFiles.length];
-		
-		// Acquire the LRL associated with the searchDate from the hashmap
-		LogRefList refList = logTracker.get(searchDate);
-		if (refList == null) {
-			System.out.println("No logs of this date found.");
-		}
-		
-		// For each LogRef, scan through the file starting from the given file pointer
-		// location
-		for (int i = 0; refList != null && i < refList.size(); i++) {
-			String logStr = ""; // Reset logStr to build next log's text
-			LogRef ref = refList.get(i);
-			File file = logFiles[ref.fileIndex];
-			RandomAccessFile fileIn = new RandomAccessFile(file, "r");
-			fileIn.seek(ref.loc); // Find position in file where date first occurs
-			System.out.println("Reading [" + file.getName() + "]...");
-
-			// Start searching from starting point, recording everything until a Logging
-			// date diff than current one is found
-			String line = fileIn.readLine();
-			while (line != null) {
-				if (line.length() >= 26 && line.substring(0, 7).equals("Logging")) {
-					// Line contains Logging date, so store it to a date
-					WTime loginDate = new WTime(Integer.parseInt(line.substring(16, 20)),
-							Integer.parseInt(line.substring(21, 23)), Integer.parseInt(line.substring(24, 26)));
-					if (loginDate.equals(searchDate)) {
-						// Logging was within same date, so continue recording
-						logStr += line;
-						logStr += "\n";
-					} else
-						break; // Otherwise, exit the loop and stop recording this file; all relevant logs from
-								// this file are recorded
-				} else {
-					// If not a Logging date, record the line
-					logStr += line;
-					logStr += "\n";
-				}
-
-				line = fileIn.readLine(); // Read in next line
-			}
-			logTexts[k] = logStr;
-			logTitles[k] = titleToTab(logFiles[ref.fileIndex].getName());
-			k++;
-			fileIn.close();
-		}
-		// Update the arrays to reflect the correct length needed
-		logTexts = Arrays.copyOf(logTexts, k);
-		logTitles = Arrays.copyOf(logTitles, k);
-		
-		System.out.println("Scanning files for date took " + 
-						   (System.nanoTime() - startTime) / 1000000000 + " seconds.");
-		
-		// Create a LogPackage and return it
-		return new LogPackage(logTexts, logTitles);
-	}
-	
-	/**
-	 * Starts Engine processes (assuming the prerequisites to do so are fulfilled)
-	 */
-	public void startIndexing() {
-		if (!isReadyForIndexing) {
-			System.out.println("Cannot index files, no main directory selected.");
-			return;
-		}
-		isDoneIndexing = false;
-		indexer.execute();  // Start indexing log files
-		System.out.println("File indexing has commenced.");
-	}
-	
-	public void doneIndexing() {
-		wlm.readyForViewing();
-	}
-	
-	/**
-	 * Retrieves LogRefList from the LogTracker's hashmap based on the provided WTime object
-	 * @param date  the date whose LRL will be returned
-	 * @return  the LRL associated with the given date
-	 */
-	public LogRefList getLRL(WTime date) {
-		return logTracker.get(date);
-	}
-	
-	/**
-	 * Given a file name, takes away the date, file name ending, and any additional
-	 * unneeded characters. e.g. Given "Village.2012-12.txt", returns "Village"
-	 * @param fileName name of file to convert
-	 * @return converted String
-	 */
-	private String titleToTab(String fileName) {
-		String retStr = fileName;
-		// Get rid of leading underscore, if present
-		if (retStr.charAt(0) == '_') {
-			retStr = retStr.substring(1, retStr.length());
-		}
-		// Delete leading "PM__" for PM tabs
-		if (retStr.substring(0, 4).equals("PM__")) {
-			retStr = retStr.substring(4, retStr.length());
-		}
-		// Remove last 12 characters from the file name (1 period, 7-char date, another
-		// period, and 4 char ".txt")
-		retStr = retStr.substring(0, retStr.length() - 12);
-		return retStr;
-	}
-	
-	public boolean isDoneIndexing() { return isDoneIndexing; }
-	public boolean isReadyForIndexing() { return isReadyForIndexing; }
-}
+package wurmlogs;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+/**
+ * @author Kevin Bechman
+ * 
+ * Class for controlling all background aspects of the log viewer, such as indexing and acquiring the files.
+ */
+public class Engine {
+	public static final long DEFAULT_MAP_THRESHOLD = 64 << 10;  // Tabs this big are mapped rather than decoded
+	private static final int SEARCH_BUFFER = 1 << 14;  // Read buffer per file for the lines a search checks, which are often far apart
+	
+	/**
+	 * Background thread in charge of indexing the files once a main directory is specified
+	 */
+	private class Indexer extends SwingWorker<Void, String> {
+		@Override
+		protected Void doInBackground() {
+			try {
+				logTracker.processDates(logFiles, indexStore());
+			} catch (Exception e) {
+				System.out.println("Error indexing log files.");
+				e.printStackTrace();
+			}
+			return null;
+		}
+		
+		@Override
+		protected void done() {
+			System.out.println("Indexing files complete!");
+			doneIndexing();
+		}
+	}
+	
+	private File mainDir;  // The main directory containing the log files
+	private volatile File[] logFiles;  // File objects pointing to the log files (replaced, never changed, when files are added)
+	private HashMap<String, Integer> fileIds;  // Index in logFiles of each file, by file name
+	private WTime searchDate;  // Date currently set to be displayed
+	private volatile WTime viewDate;  // Date of the logs last handed to the GUI
+	
+	private EngineListener listener;  // Receives indexing and live update notifications (the GUI; may be null)
+	private LogTracker logTracker;
+	private Indexer indexer;  // SwingWorker used for indexing the log files
+	private DayQuery currentQuery;  // SwingWorker reading the logs of the last date requested by the GUI
+	private DayCache dayCache;  // Recently viewed and prefetched days
+	private EngineStats stats;  // Indexing and query metrics, published through JMX
+	private ExecutorService prefetcher;  // Single background thread reading the days next to the one viewed (may be shared)
+	private boolean ownsPrefetcher;  // Whether the prefetcher is the Engine's own, to be shut down by close()
+	private LogWatcher watcher;  // Watches the main directory for appended lines once indexing is done
+	private boolean liveUpdates;  // Whether to start the LogWatcher after indexing
+	
+	private int fromMonth, toMonth;  // Month partitions (yyyymm) that are indexed, see setMonthWindow()
+	private volatile long mapThreshold;  // Tabs of at least this many bytes are mapped rather than decoded, see readDay()
+	
+	private boolean isReadyForIndexing;  // If a main directory has been loaded, this will switch to true
+	private boolean isDoneIndexing;  // Set to true when the Indexer finishes its task 
+	
+	/**
+	 * @param listener  receives indexing and live update notifications, or null when running without a GUI
+	 */
+	public Engine(EngineListener listener) {
+		this(listener, DayCache.DEFAULT_BUDGET, null);
+	}
+	
+	/**
+	 * Makes an Engine that may share its prefetching thread with other Engines (see LogLibrary)
+	 * @param listener  receives indexing and live update notifications, or null when running without a GUI
+	 * @param cacheBudget  how much memory the cache of decoded days may use
+	 * @param prefetcher  thread reading the days next to the one viewed, or null for a thread of its own
+	 */
+	Engine(EngineListener listener, long cacheBudget, ExecutorService prefetcher) {
+		this.listener = listener;
+		logTracker = new LogTracker();
+		isReadyForIndexing = false;
+		isDoneIndexing = false;
+		liveUpdates = true;
+		fromMonth = 0;
+		toMonth = Integer.MAX_VALUE;
+		mapThreshold = DEFAULT_MAP_THRESHOLD;
+		dayCache = new DayCache(cacheBudget);
+		stats = new EngineStats(dayCache, logTracker);
+		logTracker.setStats(stats);
+		stats.register();
+		ownsPrefetcher = (prefetcher == null);
+		this.prefetcher = ownsPrefetcher ? newPrefetcher() : prefetcher;
+	}
+	
+	/**
+	 * @return  a single daemon thread for prefetching days
+	 */
+	static ExecutorService newPrefetcher() {
+		return Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Prefetcher");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	/**
+	 * Assigns the mainDir File object based on the given pathname
+	 * @param pathname  String pathname of what is to be made the main directory
+	 */
+	public void setMainDir(String pathname) {
+		File file = new File(pathname);
+		if (!file.exists() || !file.isDirectory()) {
+			System.out.println("Directory at specified pathname does not exist.");
+			return;
+		}
+		mainDir = file;
+		isReadyForIndexing = true;  // May not need this if all the methods occur in this order
+		filterLogFiles();
+	}
+	
+	/**
+	 * Sets a new WTime date object, given the search date string
+	 * @param searchDateStr  string in format YYYY-MM-DD, representing the date to search for
+	 */
+	public void setSearchDate(String searchDateStr) {
+		if (searchDateStr.length() != 10) {
+			System.out.println("Please fill in a proper date with format YYYY-MM-DD");
+			return;
+		}
+		searchDate = new WTime(Integer.parseInt(searchDateStr.substring(0, 4)),
+			Integer.parseInt(searchDateStr.substring(5, 7)), Integer.parseInt(searchDateStr.substring(8, 10)));
+	}
+	
+	/**
+	 * Finds the log files of the main directory from their names (see LogCatalog), keeping only the month
+	 * partitions of the month window
+	 */
+	private void filterLogFiles() {
+		long startTime = System.nanoTime();
+		LogCatalog catalog = LogCatalog.scan(mainDir);
+		logFiles = catalog.getFiles(fromMonth, toMonth);
+		fileIds = new HashMap<>();
+		for (int i = 0; i < logFiles.length; i++) {
+			fileIds.put(logFiles[i].getName(), i);
+		}
+		System.out.println("Found " + catalog + " in " + (System.nanoTime() - startTime) / 1000000 + " ms"
+				+ (logFiles.length < catalog.size() ? ", using " + logFiles.length + " in the month window." : "."));
+	}
+	
+	/**
+	 * @return  the saved index of the main directory, read-only while a month window is set
+	 */
+	private IndexStore indexStore() {
+		IndexStore store = new IndexStore(IndexStore.indexFileFor(mainDir));
+		store.setReadOnly(hasMonthWindow());
+		return store;
+	}
+	
+	/**
+	 * Limits the logs that are indexed (and so can be read) to the month partitions of a range of dates, so a query
+	 * over a few days of a big archive only indexes those months.  While a window is set, the saved index is used
+	 * but not rewritten, since it would lose the files outside the window.
+	 * Takes effect when the main directory is next set, or right away if it already is.
+	 * @param from  first date to be read, or null for no limit
+	 * @param to  last date to be read, or null for no limit
+	 */
+	public void setMonthWindow(WTime from, WTime to) {
+		fromMonth = (from == null) ? 0 : from.year * 100 + from.month;
+		toMonth = (to == null) ? Integer.MAX_VALUE : to.year * 100 + to.month;
+		if (mainDir != null)
+			filterLogFiles();
+	}
+	
+	/**
+	 * @return  true if a month window is set
+	 */
+	private boolean hasMonthWindow() {
+		return fromMonth != 0 || toMonth != Integer.MAX_VALUE;
+	}
+	
+	/**
+	 * @param name  name of a log file
+	 * @return  true if the file is of a month in the month window (or its month is not known)
+	 */
+	private boolean inMonthWindow(String name) {
+		int month = LogCatalog.monthOf(name);
+		return month == LogCatalog.NO_MONTH || (month >= fromMonth && month <= toMonth);
+	}
+	
+	/**
+	 * Background thread that reads the logs of one date for the GUI.
+	 * Each tab is published as soon as it has been read, and the GUI only ever receives finished tabs on the EDT.
+	 */
+	private class DayQuery extends SwingWorker<LogPackage, Object[]> {
+		private final WTime date;
+		private final LogQueryListener listener;
+		private final boolean timeline;  // Whether to merge all tabs into one timeline
+		
+		DayQuery(WTime date, LogQueryListener listener, boolean timeline) {
+			this.date = date;
+			this.listener = listener;
+			this.timeline = timeline;
+		}
+		
+		@Override
+		protected LogPackage doInBackground() throws IOException {
+			if (timeline) {
+				LogPackage p = getTimelineForDate(date);
+				for (int i = 0; i < p.logTitles.length; i++) {
+					tabRead(p.logTitles[i], p.logTexts[i]);
+				}
+				return p;
+			}
+			LogPackage p = readLogs(date, this);
+			if (!isCancelled())
+				prefetchAround(date);
+			return p;
+		}
+		
+		void tabRead(String title, CharSequence text) {
+			publish(new Object[] { title, text });
+		}
+		
+		@Override
+		protected void process(List<Object[]> tabs) {
+			if (isCancelled())
+				return;
+			for (Object[] tab : tabs) {
+				listener.tabLoaded((String) tab[0], (CharSequence) tab[1]);
+			}
+		}
+		
+		@Override
+		protected void done() {
+			if (isCancelled())
+				return;
+			try {
+				listener.queryDone(get());
+			} catch (InterruptedException | ExecutionException e) {
+				System.out.println("Error reading logs for " + date + ".");
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Iterates through the LogRefList for the date given by the user, and stores the results in global
+	 * arrays to be displayed in the UI
+	 * @return  LogPackage containing the log text and titles for the tabs
+	 * @throws IOException
+	 * @throws FileNotFoundException
+	 */
+	public LogPackage getLogsForDate() throws IOException, FileNotFoundException {
+		return getLogsForDate(searchDate);
+	}
+	
+	/**
+	 * Same as getLogsForDate(), for the given date instead of the search date
+	 * @param date  the date to read the logs of
+	 * @return  LogPackage containing the log text and titles for the tabs
+	 * @throws IOException
+	 */
+	public LogPackage getLogsForDate(WTime date) throws IOException {
+		viewDate = date;
+		return readLogs(date, null);
+	}
+	
+	/**
+	 * Reads the logs for a date in the background, without blocking the calling (event dispatch) thread.
+	 * A query that is still running is cancelled when a new one is started.
+	 * The listener is called on the EDT, for each tab as soon as it is read and once more when all are done.
+	 * @param date  the date to read the logs of
+	 * @param listener  receives the results
+	 * @return  Future for the complete LogPackage
+	 */
+	public Future<LogPackage> queryLogsForDate(WTime date, LogQueryListener listener) {
+		return startQuery(new DayQuery(date, listener, false));
+	}
+	
+	/**
+	 * Same as queryLogsForDate(), but merges the logs of all channels into a single timeline tab
+	 * @param date  the date to read the logs of
+	 * @param listener  receives the results
+	 * @return  Future for the LogPackage holding the timeline
+	 */
+	public Future<LogPackage> queryTimelineForDate(WTime date, LogQueryListener listener) {
+		return startQuery(new DayQuery(date, listener, true));
+	}
+	
+	/**
+	 * Starts a query for the GUI, cancelling the one that is still running.
+	 * The viewed date is set here, on the calling (event dispatch) thread, rather than by the worker, so a
+	 * cancelled query that is still running can not set it back to its own date.
+	 */
+	private Future<LogPackage> startQuery(DayQuery query) {
+		if (currentQuery != null)
+			currentQuery.cancel(false);  // Stops at the next tab; the GUI ignores anything it still publishes
+		viewDate = query.date;
+		currentQuery = query;
+		currentQuery.execute();
+		return currentQuery;
+	}
+	
+	/**
+	 * Reads the logs of all files for the given date for a caller, and counts it as a DAY query in the stats
+	 * @param date  the date to read the logs of
+	 * @param query  background query to publish each tab to and check for cancellation (null if there is none)
+	 * @return  LogPackage containing the log text and titles for the tabs (partial if the query was cancelled)
+	 * @throws IOException
+	 */
+	private LogPackage readLogs(WTime date, DayQuery query) throws IOException {
+		double startTime = System.nanoTime();
+		System.out.println("Search for: " + date + "...");
+		LogPackage p = loadDay(date, query, true);
+		stats.queryDone(EngineStats.Query.DAY, (long) (System.nanoTime() - startTime));
+		return p;
+	}
+	
+	/**
+	 * Reads the logs of all files for the given date, from the cache if they are there, and caches them
+	 * @param date  the date to read the logs of
+	 * @param query  background query to publish each tab to and check for cancellation (null if there is none)
+	 * @param verbose  whether to print progress and count the cache lookup; false for prefetching, which the user
+	 *                 did not ask for and which only runs for dates that are not cached
+	 * @return  LogPackage containing the log text and titles for the tabs (partial if the query was cancelled)
+	 * @throws IOException
+	 */
+	private LogPackage loadDay(WTime date, DayQuery query, boolean verbose) throws IOException {
+		double startTime = System.nanoTime();
+		
+		// Find the range of LogRefs of the date in the index (the same index is used for the whole query).
+		// The file list is read after the index, so it always covers every file the index refers to.
+		DateIndex index = logTracker.getIndex();
+		File[] logFiles = this.logFiles;
+		int slot = index.find(date.toKey());
+		int from = 0, to = 0;
+		if (slot < 0) {
+			if (verbose)
+				System.out.println("No logs of this date found.");
+		} else {
+			from = index.firstRef(slot);
+			to = index.endRef(slot);
+		}
+		
+		// Use the cached logs if the date's LogRefs still cover the same bytes as when they were read
+		long sourceBytes = 0;
+		for (int r = from; r < to; r++) {
+			sourceBytes += index.endAt(r) - index.startAt(r);
+		}
+		LogPackage cached = verbose ? dayCache.get(date, sourceBytes) : null;
+		if (cached != null) {
+			System.out.println("Found logs for " + date + " in cache.");
+			for (int i = 0; query != null && i < cached.logTitles.length; i++) {
+				query.tabRead(cached.logTitles[i], cached.logTexts[i]);
+			}
+			return cached;
+		}
+		
+		// Read the tabs, opening each file once
+		LogInput[] inputs = new LogInput[logFiles.length];
+		LogPackage p;
+		try {
+			p = readDay(index, from, to, logFiles, inputs, new RangeReader(), query, verbose);
+		} finally {
+			closeInputs(inputs);
+		}
+		
+		if (verbose)
+			System.out.println("Scanning files for date took " + 
+							   (System.nanoTime() - startTime) / 1000000000 + " seconds.");
+		
+		// Cache the logs (unless they are incomplete) and return them
+		if (query == null || !query.isCancelled())
+			dayCache.put(date, p, sourceBytes);
+		return p;
+	}
+	
+	/**
+	 * Reads the tabs for one date from the given range of LogRefs of the index.
+	 * For each file, the byte range of every LogRef is decoded straight into one builder for the tab, or for a tab
+	 * of at least mapThreshold bytes of a plain log of a past month, mapped (see MappedLogText), so its text is not
+	 * on the heap (LogTab shows a mapped tab as a list of lines, whatever its size, so the GUI does not copy it either).
+	 * The LogRefs are ordered by file, so all segments of one file are next to each other.
+	 * @param index  the date index
+	 * @param from  first LogRef of the date
+	 * @param to  LogRef just past the last one of the date
+	 * @param logFiles  the log files
+	 * @param inputs  open log files by file index; missing ones are opened and stored here
+	 * @param reader  RangeReader used to decode the text
+	 * @param query  background query to publish each tab to and check for cancellation (null if there is none)
+	 * @param verbose  whether to print the name of each file read
+	 * @return  LogPackage containing the log text and titles for the tabs
+	 * @throws IOException
+	 */
+	private LogPackage readDay(DateIndex index, int from, int to, File[] logFiles, LogInput[] inputs,
+			RangeReader reader, DayQuery query, boolean verbose) throws IOException {
+		int k = 0; // counter for files to be kept
+		int liveMonth = liveMonth();
+		CharSequence[] logTexts = new CharSequence[to - from];
+		String[] logTitles = new String[to - from];
+		for (int r = from; r < to; r++) {
+			if (query != null && query.isCancelled())
+				break;
+			int fileIndex = index.fileAt(r);
+			File file = logFiles[fileIndex];
+			if (verbose)
+				System.out.println("Reading [" + file.getName() + "]...");
+			// Later sessions of the same date in this file go in the same tab
+			int last = r;
+			long totalBytes = index.endAt(r) - index.startAt(r);
+			while (last + 1 < to && index.fileAt(last + 1) == fileIndex) {
+				last++;
+				totalBytes += index.endAt(last) - index.startAt(last);
+			}
+			if (inputs[fileIndex] == null)
+				inputs[fileIndex] = LogInput.open(file);
+			// Files still written to are never mapped: a truncated mapping fails on access, and on Windows a mapped
+			// file cannot be deleted or replaced while the tab is open
+			CharSequence text = (totalBytes >= mapThreshold && !isLive(file, liveMonth))
+					? mapTab(index, r, last, inputs[fileIndex]) : null;
+			if (text == null) {
+				// UTF-8 never gives more chars than bytes, so the builder is sized once and never grows
+				StringBuilder logStr = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8, totalBytes + (last - r) + 1));
+				for (int s = r; s <= last; s++) {
+					reader.append(inputs[fileIndex], index.startAt(s), index.endAt(s), logStr);
+				}
+				text = logStr;
+			}
+			r = last;
+			logTexts[k] = text;
+			logTitles[k] = titleToTab(file.getName());
+			if (query != null)
+				query.tabRead(logTitles[k], logTexts[k]);
+			k++;
+		}
+		// Update the arrays to reflect the correct length needed
+		logTexts = Arrays.copyOf(logTexts, k);
+		logTitles = Arrays.copyOf(logTitles, k);
+		return new LogPackage(logTexts, logTitles);
+	}
+	
+	/**
+	 * Maps the byte ranges of a run of LogRefs of one file
+	 * @return  the text of the ranges, or null if the file cannot be mapped
+	 */
+	private static MappedLogText mapTab(DateIndex index, int first, int last, LogInput input) throws IOException {
+		ByteBuffer[] regions = new ByteBuffer[last - first + 1];
+		for (int s = first; s <= last; s++) {
+			regions[s - first] = input.map(index.startAt(s), index.endAt(s) - index.startAt(s));
+			if (regions[s - first] == null)
+				return null;
+		}
+		return new MappedLogText(regions);
+	}
+	
+	/**
+	 * Sets the size from which a tab is mapped from its log file rather than decoded onto the heap (only files of
+	 * months before the last one are mapped, see readDay())
+	 * @param bytes  the size of a tab in bytes (Long.MAX_VALUE to never map)
+	 */
+	public void setMapThreshold(long bytes) {
+		mapThreshold = bytes;
+		dayCache.clear();
+	}
+	
+	/**
+	 * Streams the logs of every date in a range to the consumer, one day at a time and in date order.
+	 * Each file is opened only once for the whole range, and since a file's days are stored in order,
+	 * it is read front to back in one pass.  A file is closed as soon as its last day in the range has been read.
+	 * Only one day of text is held in memory at a time.
+	 * @param from  first date of the range
+	 * @param to  last date of the range (inclusive)
+	 * @param consumer  receives the logs of each date that has any
+	 * @throws IOException
+	 */
+	public void getLogsForRange(WTime from, WTime to, DayConsumer consumer) throws IOException {
+		double startTime = System.nanoTime();
+		System.out.println("Search for: " + from + " to " + to + "...");
+		DateIndex index = logTracker.getIndex();
+		File[] logFiles = this.logFiles;
+		int firstSlot = index.ceiling(from.toKey());
+		int endSlot = index.ceiling(to.toKey() + 1);
+		if (firstSlot >= endSlot) {
+			System.out.println("No logs in this range found.");
+			return;
+		}
+		
+		// Count the LogRefs of each file in the range, so every file can be closed after its last one
+		int[] remaining = new int[logFiles.length];
+		for (int r = index.firstRef(firstSlot); r < index.firstRef(endSlot); r++) {
+			remaining[index.fileAt(r)]++;
+		}
+		
+		LogInput[] inputs = new LogInput[logFiles.length];
+		RangeReader reader = new RangeReader();
+		int days = 0;
+		try {
+			for (int slot = firstSlot; slot < endSlot; slot++) {
+				int start = index.firstRef(slot), end = index.endRef(slot);
+				LogPackage p = readDay(index, start, end, logFiles, inputs, reader, null, true);
+				for (int r = start; r < end; r++) {
+					int f = index.fileAt(r);
+					if (--remaining[f] == 0 && inputs[f] != null) {
+						inputs[f].close();
+						inputs[f] = null;
+					}
+				}
+				consumer.dayLoaded(WTime.fromKey(index.dateAt(slot)), p);
+				days++;
+			}
+		} finally {
+			closeInputs(inputs);
+		}
+		stats.queryDone(EngineStats.Query.RANGE, (long) (System.nanoTime() - startTime));
+		System.out.println("Reading " + days + " days took " + 
+						   (System.nanoTime() - startTime) / 1000000000 + " seconds.");
+	}
+	
+	/**
+	 * Copies the logs of every date in a range to a channel as they are in the files, without decoding them, so
+	 * the text is never held in memory (for serving logs to many readers at once).  Each tab of each date starts
+	 * with a "=== YYYY-MM-DD title ===" line.  Line terminators are left as they are in the files.
+	 * @param from  first date of the range
+	 * @param to  last date of the range (inclusive)
+	 * @param out  receives the UTF-8 bytes
+	 * @return  the number of log bytes copied (not counting the headings)
+	 * @throws IOException
+	 */
+	public long transferLogs(WTime from, WTime to, WritableByteChannel out) throws IOException {
+		double startTime = System.nanoTime();
+		DateIndex index = logTracker.getIndex();
+		File[] logFiles = this.logFiles;
+		int firstSlot = index.ceiling(from.toKey());
+		int endSlot = index.ceiling(to.toKey() + 1);
+		if (firstSlot >= endSlot)
+			return 0;
+		
+		// Count the LogRefs of each file in the range, so every file can be closed after its last one
+		int[] remaining = new int[logFiles.length];
+		for (int r = index.firstRef(firstSlot); r < index.firstRef(endSlot); r++) {
+			remaining[index.fileAt(r)]++;
+		}
+		
+		LogInput[] inputs = new LogInput[logFiles.length];
+		long bytes = 0;
+		try {
+			for (int slot = firstSlot; slot < endSlot; slot++) {
+				int date = index.dateAt(slot);
+				int start = index.firstRef(slot), end = index.endRef(slot);
+				for (int r = start; r < end; r++) {
+					int f = index.fileAt(r);
+					if (r == start || index.fileAt(r - 1) != f) {  // Later sessions of the file go in the same tab
+						ByteBuffer heading = ByteBuffer.wrap(String.format("=== %04d-%02d-%02d %s ===\n", date / 10000,
+								date / 100 % 100, date % 100, titleToTab(logFiles[f].getName())).getBytes(StandardCharsets.UTF_8));
+						while (heading.hasRemaining())
+							out.write(heading);
+					}
+					if (inputs[f] == null)
+						inputs[f] = LogInput.open(logFiles[f]);
+					bytes += inputs[f].transferTo(index.startAt(r), index.endAt(r) - index.startAt(r), out);
+					if (--remaining[f] == 0) {
+						inputs[f].close();
+						inputs[f] = null;
+					}
+				}
+			}
+		} finally {
+			closeInputs(inputs);
+		}
+		stats.queryDone(firstSlot + 1 == endSlot ? EngineStats.Query.DAY : EngineStats.Query.RANGE,
+				(long) (System.nanoTime() - startTime));
+		System.out.println("Copying " + bytes + " bytes of logs took " + 
+						   (System.nanoTime() - startTime) / 1000000000 + " seconds.");
+		return bytes;
+	}
+	
+	/**
+	 * Gives the recorded history of a skill from the _Skills logs.  The history comes from the index,
+	 * so no log text is read.
+	 * @param skill  name of the skill, as written in the logs (e.g. "Firemaking")
+	 * @return  the changes of the skill in time order
+	 */
+	public SkillHistory getSkillHistory(String skill) {
+		return logTracker.skillHistory(skill);
+	}
+	
+	/**
+	 * @return  the names of all skills found in the _Skills logs, sorted
+	 */
+	public String[] getSkillNames() {
+		return logTracker.skillNames();
+	}
+	
+	/**
+	 * Adds up the combat events of a range of dates (hits taken per creature, parries per weapon, ...).
+	 * The totals come from the daily rollups made while indexing, so no combat text is read.
+	 * @param from  first date
+	 * @param to  last date (inclusive)
+	 * @return  the total counts
+	 */
+	public CombatRollup getCombatTotals(WTime from, WTime to) {
+		return logTracker.combatTotals(from, to);
+	}
+	
+	/**
+	 * Gives the combat events of each date in a range, from the daily rollups made while indexing
+	 * @param from  first date
+	 * @param to  last date (inclusive)
+	 * @return  the counts of each date that has combat events, by packed date
+	 */
+	public TreeMap<Integer, CombatRollup> getCombatByDay(WTime from, WTime to) {
+		return logTracker.combatByDay(from, to);
+	}
+	
+	/**
+	 * Merges the logs of every channel for a date into one timeline tab (see Timeline)
+	 * @param date  the date to read the logs of
+	 * @return  LogPackage with a single tab holding the merged lines (no tabs if the date has no logs)
+	 * @throws IOException
+	 */
+	public LogPackage getTimelineForDate(WTime date) throws IOException {
+		StringBuilder text = new StringBuilder();
+		if (writeTimeline(date, date, text) == 0)
+			return new LogPackage(new CharSequence[0], new String[0]);
+		return new LogPackage(new CharSequence[] { text }, new String[] { Timeline.TAB_TITLE });
+	}
+	
+	/**
+	 * Writes the merged timeline of every date in a range, one date after the other.  Each date starts with a
+	 * "Logging started YYYY-MM-DD" line.  The lines are streamed to the output as they are merged, so memory use
+	 * does not depend on the size of the logs.
+	 * @param from  first date of the range
+	 * @param to  last date of the range (inclusive)
+	 * @param out  receives the merged lines
+	 * @return  the number of log lines written
+	 * @throws IOException
+	 */
+	public long writeTimeline(WTime from, WTime to, Appendable out) throws IOException {
+		double startTime = System.nanoTime();
+		DateIndex index = logTracker.getIndex();
+		File[] logFiles = this.logFiles;
+		int endSlot = index.ceiling(to.toKey() + 1);
+		long lines = 0;
+		for (int slot = index.ceiling(from.toKey()); slot < endSlot; slot++) {
+			int date = index.dateAt(slot);
+			out.append(String.format("Logging started %04d-%02d-%02d\n", date / 10000, date / 100 % 100, date % 100));
+			Timeline timeline = new Timeline();
+			int end = index.endRef(slot);
+			for (int r = index.firstRef(slot); r < end; ) {
+				// All segments of one file for the date are read by the same cursor
+				int fileIndex = index.fileAt(r);
+				int last = r;
+				while (last < end && index.fileAt(last) == fileIndex)
+					last++;
+				LogRef[] ranges = new LogRef[last - r];
+				for (int i = 0; i < ranges.length; i++, r++) {
+					ranges[i] = new LogRef(fileIndex, index.startAt(r), index.endAt(r));
+				}
+				File file = logFiles[fileIndex];
+				timeline.addChannel(titleToTab(file.getName()), file, ranges);
+			}
+			lines += timeline.writeTo(out);
+		}
+		stats.queryDone(EngineStats.Query.TIMELINE, (long) (System.nanoTime() - startTime));
+		System.out.println("Merging " + lines + " lines into timeline took " + 
+						   (System.nanoTime() - startTime) / 1000000000 + " seconds.");
+		return lines;
+	}
+	
+	/**
+	 * Reads only the lines of a date that fall in a time window, e.g. 21:30 to 21:45.
+	 * The time checkpoints of the index are used to find where the window starts and ends in each segment,
+	 * so only those bytes are read, however long the day is.
+	 * Lines without a timestamp go with the line before them.
+	 * @param date  the date to read the logs of
+	 * @param from  start of the window in seconds since midnight
+	 * @param to  end of the window (inclusive) in seconds since midnight
+	 * @return  LogPackage containing the lines of the window and titles for the tabs (tabs without lines are left out)
+	 * @throws IOException
+	 */
+	public LogPackage getLogsForTime(WTime date, int from, int to) throws IOException {
+		double startTime = System.nanoTime();
+		System.out.println("Search for: " + date + " " + formatTime(from) + "-" + formatTime(to) + "...");
+		DateIndex index = logTracker.getIndex();
+		File[] logFiles = this.logFiles;
+		int slot = index.find(date.toKey());
+		if (slot < 0) {
+			System.out.println("No logs of this date found.");
+			return new LogPackage(new CharSequence[0], new String[0]);
+		}
+		int first = index.firstRef(slot), last = index.endRef(slot);
+		CharSequence[] logTexts = new CharSequence[last - first];
+		String[] logTitles = new String[last - first];
+		int k = 0;
+		long bytesRead = 0;
+		for (int r = first; r < last; r++) {
+			int fileIndex = index.fileAt(r);
+			StringBuilder logStr = new StringBuilder();
+			// Later sessions of the same date in this file go in the same tab
+			for (; r < last && index.fileAt(r) == fileIndex; r++) {
+				for (LogRef window : logTracker.timeWindow(new LogRef(fileIndex, index.startAt(r), index.endAt(r)), from, to)) {
+					bytesRead += window.length();
+					if (window.length() > 0)
+						appendTimeWindow(logFiles[fileIndex], window, from, to, logStr);
+				}
+			}
+			r--;
+			if (logStr.length() > 0) {
+				logTexts[k] = logStr;
+				logTitles[k] = titleToTab(logFiles[fileIndex].getName());
+				k++;
+			}
+		}
+		stats.queryDone(EngineStats.Query.TIME_WINDOW, (long) (System.nanoTime() - startTime));
+		System.out.println("Reading " + bytesRead + " bytes for time window took " + 
+						   (System.nanoTime() - startTime) / 1000000000 + " seconds.");
+		return new LogPackage(Arrays.copyOf(logTexts, k), Arrays.copyOf(logTitles, k));
+	}
+	
+	/**
+	 * Appends the lines of a byte range that fall in a time window
+	 */
+	private static void appendTimeWindow(File file, LogRef range, int from, int to, StringBuilder out) throws IOException {
+		LogScanner scanner = new LogScanner(file, range.loc);
+		try {
+			boolean inWindow = false;
+			while (scanner.nextLine() && scanner.lineStart() < range.end) {
+				int time = scanner.lineTime();
+				if (time >= 0)
+					inWindow = time >= from && time <= to;
+				else if (scanner.loggingDate() >= 0)
+					inWindow = false;
+				if (inWindow) {
+					scanner.appendLine(out);
+					out.append('\n');
+				}
+			}
+		} finally {
+			scanner.close();
+		}
+	}
+	
+	/**
+	 * @return  the time formatted as HH:MM:SS
+	 */
+	private static String formatTime(int seconds) {
+		return String.format("%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+	}
+	
+	/**
+	 * Searches all logs for lines matching a query.  The query is a list of words and "quoted phrases";
+	 * a line matches if it contains every word and every phrase (case is ignored).
+	 * Only the lines whose search index entries hold all the terms are read, each file through one scanner, and
+	 * their bytes are checked for the phrases; a String is only made for a matching line.
+	 * @param query  the words and phrases to look for
+	 * @param maxHits  stop after this many matching lines
+	 * @return  the matching lines, by date and then by file
+	 * @throws IOException
+	 */
+	public List<SearchHit> search(String query, int maxHits) throws IOException {
+		double startTime = System.nanoTime();
+		// Split the query into phrases (a bare word is a phrase of one term)
+		List<List<String>> phrases = new ArrayList<>();
+		List<String> allTerms = new ArrayList<>();
+		String[] parts = query.split("\"", -1);
+		for (int i = 0; i < parts.length; i++) {
+			if (i % 2 == 1) {  // Inside quotes
+				List<String> phrase = TermIndex.tokens(parts[i]);
+				if (!phrase.isEmpty())
+					phrases.add(phrase);
+				allTerms.addAll(phrase);
+			} else {
+				for (String term : TermIndex.tokens(parts[i])) {
+					phrases.add(Arrays.asList(term));
+					allTerms.add(term);
+				}
+			}
+		}
+		List<SearchHit> hits = new ArrayList<>();
+		if (allTerms.isEmpty())
+			return hits;
+		
+		// The lines are found after the index is read, so they cover every LogRef of it
+		DateIndex index = logTracker.getIndex();
+		File[] logFiles = this.logFiles;
+		long[][] lines = logTracker.findLines(allTerms);
+		TermIndex.LineMatcher matcher = new TermIndex.LineMatcher(phrases);
+		LogScanner[] scanners = new LogScanner[logFiles.length];
+		try {
+			for (int slot = 0; slot < index.dateCount() && hits.size() < maxHits; slot++) {
+				for (int r = index.firstRef(slot); r < index.endRef(slot) && hits.size() < maxHits; r++) {
+					int f = index.fileAt(r);
+					long[] candidates = lines[f];
+					long end = index.endAt(r);
+					for (int i = firstAtOrAfter(candidates, index.startAt(r)); i < candidates.length && candidates[i] < end
+							&& hits.size() < maxHits; i++) {
+						LogScanner scanner = scanners[f];
+						if (scanner == null)
+							scanner = scanners[f] = new LogScanner(logFiles[f], candidates[i], SEARCH_BUFFER);
+						else
+							scanner.seek(candidates[i]);
+						if (!scanner.nextLine())
+							break;
+						if (matcher.matches(scanner.lineBuffer(), scanner.lineFrom(), scanner.lineTo()))
+							hits.add(new SearchHit(WTime.fromKey(index.dateAt(slot)), titleToTab(logFiles[f].getName()), f,
+									scanner.lineStart(), scanner.lineString()));
+					}
+				}
+			}
+		} finally {
+			for (LogScanner scanner : scanners) {
+				if (scanner != null)
+					scanner.close();
+			}
+		}
+		stats.queryDone(EngineStats.Query.SEARCH, (long) (System.nanoTime() - startTime));
+		System.out.println("Search for \"" + query + "\" found " + hits.size() + " lines in " + 
+						   (System.nanoTime() - startTime) / 1000000000 + " seconds.");
+		return hits;
+	}
+	
+	/**
+	 * @return  the index of the first location in a sorted array that is at or after the given one
+	 */
+	private static int firstAtOrAfter(long[] locations, long location) {
+		int lo = 0, hi = locations.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (locations[mid] < location)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+	
+	/**
+	 * Closes every open log file in the array
+	 * @param inputs  log files by file index (null for files that were not opened)
+	 * @throws IOException
+	 */
+	private static void closeInputs(LogInput[] inputs) throws IOException {
+		for (int i = 0; i < inputs.length; i++) {
+			if (inputs[i] != null) {
+				inputs[i].close();
+				inputs[i] = null;
+			}
+		}
+	}
+	
+	/**
+	 * Reads the logs of the indexed dates just before and after the given date into the cache, in the background,
+	 * so moving to the previous or next day is instant.  Prefetching is not counted in the query stats.
+	 * @param date  the date being viewed
+	 */
+	private void prefetchAround(WTime date) {
+		for (int direction : new int[] { 1, -1 }) {
+			final WTime next = logTracker.adjacentDate(date, direction);
+			if (next == null || dayCache.contains(next))
+				continue;
+			try {
+				prefetcher.execute(new Runnable() {
+					public void run() {
+						if (dayCache.contains(next))
+							return;
+						try {
+							loadDay(next, null, false);
+						} catch (IOException e) {
+							System.out.println("Error prefetching logs for " + next + ": " + e.getMessage());
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				return;  // The Engine was closed, or its shared prefetcher was shut down with its LogLibrary
+			}
+		}
+	}
+	
+	/**
+	 * Finds the closest indexed date before or after the given date
+	 * @param date  the date to start from
+	 * @param direction  1 for the next date, -1 for the previous date
+	 * @return  the adjacent date, or null if there is none
+	 */
+	public WTime adjacentDate(WTime date, int direction) {
+		return logTracker.adjacentDate(date, direction);
+	}
+	
+	/**
+	 * @return  every date that has logs, in order
+	 */
+	public List<WTime> getDates() {
+		DateIndex index = logTracker.getIndex();
+		List<WTime> dates = new ArrayList<>(index.dateCount());
+		for (int slot = 0; slot < index.dateCount(); slot++) {
+			dates.add(WTime.fromKey(index.dateAt(slot)));
+		}
+		return dates;
+	}
+	
+	/**
+	 * Sets how much memory the cache of decoded days may use
+	 * @param bytes  the cache budget in bytes
+	 */
+	public void setCacheBudget(long bytes) {
+		dayCache.setBudget(bytes);
+	}
+	
+	/**
+	 * Starts Engine processes (assuming the prerequisites to do so are fulfilled)
+	 */
+	public void startIndexing() {
+		if (!isReadyForIndexing) {
+			System.out.println("Cannot index files, no main directory selected.");
+			return;
+		}
+		isDoneIndexing = false;
+		stopWatching();
+		dayCache.clear();
+		indexer = new Indexer();  // A SwingWorker only runs once, so each indexing run needs a new one
+		indexer.execute();  // Start indexing log files
+		System.out.println("File indexing has commenced.");
+	}
+	
+	/**
+	 * Indexes the log files on the calling thread and waits until done, without a GUI (for tools and benchmarks)
+	 * @param useSavedIndex  whether to load and save the index file next to the main directory
+	 * @throws Exception
+	 */
+	public void indexNow(boolean useSavedIndex) throws Exception {
+		if (!isReadyForIndexing) {
+			System.out.println("Cannot index files, no main directory selected.");
+			return;
+		}
+		dayCache.clear();
+		logTracker.processDates(logFiles, useSavedIndex ? indexStore() : null);
+		isDoneIndexing = true;
+	}
+	
+	/**
+	 * Sets how many threads are used to index the log files
+	 * @param threads  number of indexing threads
+	 */
+	public void setIndexingThreads(int threads) {
+		logTracker.setParallelism(threads);
+	}
+	
+	public void doneIndexing() {
+		isDoneIndexing = true;
+		if (liveUpdates)
+			startWatching();
+		if (listener != null)
+			listener.readyForViewing();
+	}
+	
+	/**
+	 * Starts watching the main directory for lines appended by the game (live updates)
+	 */
+	public synchronized void startWatching() {
+		if (watcher != null && watcher.isRunning())
+			return;
+		watcher = new LogWatcher(this, mainDir, LogWatcher.DEFAULT_POLL_SECONDS);
+		try {
+			watcher.start();
+			System.out.println("Watching " + mainDir + " for new log lines.");
+		} catch (IOException e) {
+			System.out.println("Could not watch directory for changes: " + e.getMessage());
+			watcher = null;
+		}
+	}
+	
+	/**
+	 * Stops watching the main directory, if it is being watched
+	 */
+	public synchronized void stopWatching() {
+		if (watcher != null) {
+			watcher.stop();
+			watcher = null;
+		}
+	}
+	
+	/**
+	 * Releases what keeps the Engine alive outside of its users: removes its metrics from JMX and stops the metrics
+	 * dump, the LogWatcher and the Engine's own prefetching thread (a prefetcher shared through a LogLibrary is
+	 * shut down by the library).  The Engine should not be queried afterwards.
+	 */
+	public void close() {
+		stopWatching();
+		stats.stopDump();
+		stats.unregister();
+		if (ownsPrefetcher)
+			prefetcher.shutdown();
+		dayCache.clear();
+	}
+	
+	/**
+	 * Called by the LogWatcher when a file in the main directory was modified or created.
+	 * Indexes only the appended part of the file, and passes any appended lines of the
+	 * currently displayed date on to the GUI.
+	 * @param file  the file that changed
+	 * @throws IOException
+	 */
+	public synchronized void fileChanged(File file) throws IOException {
+		if (!file.isFile())
+			return;
+		Integer id = fileIds.get(file.getName());
+		if (id == null) {
+			if (!inMonthWindow(file.getName()) || !LogCatalog.isLogFile(file))
+				return;
+			// New log file (e.g. first log of a new month): add it to the end of the file list and index it.
+			// The file list is updated first, so it is never behind the index.
+			id = logFiles.length;
+			File[] newFiles = Arrays.copyOf(logFiles, id + 1);
+			newFiles[id] = file;
+			logFiles = newFiles;
+			fileIds.put(file.getName(), id);
+			logTracker.addFile(file);
+			System.out.println("Added new log file [" + file.getName() + "]");
+			return;
+		}
+		if (logTracker.isFresh(id, file))
+			return;
+		WTime shown = viewDate;
+		StringBuilder appended = new StringBuilder();
+		int newSegments = logTracker.updateFile(id, file, shown, appended);
+		if (newSegments > 0)
+			System.out.println("Found " + newSegments + " new session(s) in [" + file.getName() + "]");
+		if (appended.length() > 0 && listener != null) {
+			final String title = titleToTab(file.getName());
+			final String text = appended.toString();
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					if (shown.equals(viewDate))  // Only if the user has not moved on to another date meanwhile
+						listener.appendLogs(title, text);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Checks the known log files for changes, in case the watch service missed some.
+	 * Logs of months before the previous one are done being written to, so only the partitions of this month and
+	 * the last (and files whose month is not known) are checked, unless the whole directory is rescanned.
+	 * @param rescanDir  look at every file of the directory, including log files that are not known yet
+	 * @throws IOException
+	 */
+	public void checkForChanges(boolean rescanDir) throws IOException {
+		File[] files = rescanDir ? mainDir.listFiles() : logFiles;
+		int liveMonth = liveMonth();
+		for (File f : files) {
+			if (rescanDir || isLive(f, liveMonth))
+				fileChanged(f);
+		}
+	}
+	
+	/**
+	 * @return  the first month (yyyymm) whose partitions may still be written to: the previous one
+	 */
+	private static int liveMonth() {
+		YearMonth last = YearMonth.now().minusMonths(1);
+		return last.getYear() * 100 + last.getMonthValue();
+	}
+	
+	/**
+	 * @param file  a log file
+	 * @param liveMonth  the first month that may still be written to, see liveMonth()
+	 * @return  true if the game may still append to the file (or truncate it): a partition of this month or the
+	 *          last, or a file whose month is not known
+	 */
+	private static boolean isLive(File file, int liveMonth) {
+		int month = LogCatalog.monthOf(file.getName());
+		return month == LogCatalog.NO_MONTH || month >= liveMonth;
+	}
+	
+	/**
+	 * Sets whether the main directory is watched for new log lines after indexing
+	 * @param live  true to watch for changes
+	 */
+	public void setLiveUpdates(boolean live) {
+		liveUpdates = live;
+		if (!live)
+			stopWatching();
+	}
+	
+	/**
+	 * Retrieves LogRefList from the LogTracker's hashmap based on the provided WTime object
+	 * @param date  the date whose LRL will be returned
+	 * @return  the LRL associated with the given date
+	 */
+	public LogRefList getLRL(WTime date) {
+		return logTracker.get(date);
+	}
+	
+	/**
+	 * Given a file name, takes away the date, file name ending, and any additional
+	 * unneeded characters. e.g. Given "Village.2012-12.txt", returns "Village"
+	 * Names without a month (files recognized by their Logging header) only lose the ending.
+	 * @param fileName name of file to convert
+	 * @return converted String
+	 */
+	private String titleToTab(String fileName) {
+		String retStr = fileName;
+		// Remove last 12 characters from the file name (1 period, 7-char date, another
+		// period, and 4 char ".txt"), or just the ending if there is no date
+		if (LogCatalog.monthOf(retStr) != LogCatalog.NO_MONTH) {
+			retStr = retStr.substring(0, retStr.length() - 12);
+		} else if (retStr.lastIndexOf('.') > 0) {
+			retStr = retStr.substring(0, retStr.lastIndexOf('.'));
+		}
+		// Get rid of leading underscore, if present
+		if (retStr.startsWith("_")) {
+			retStr = retStr.substring(1, retStr.length());
+		}
+		// Delete leading "PM__" for PM tabs
+		if (retStr.startsWith("PM__")) {
+			retStr = retStr.substring(4, retStr.length());
+		}
+		return retStr;
+	}
+	
+	/**
+	 * Starts appending the metrics to a file periodically
+	 * @param file  the file to append to
+	 * @param periodSeconds  seconds between reports
+	 */
+	public void startMetricsDump(File file, long periodSeconds) {
+		stats.startDump(file, periodSeconds);
+	}
+	
+	public EngineStats getStats() { return stats; }
+	public WTime getSearchDate() { return searchDate; }
+	public boolean isDoneIndexing() { return isDoneIndexing; }
+	public boolean isReadyForIndexing() { return isReadyForIndexing; }
+}
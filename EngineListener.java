@@ -0,0 +1,21 @@
+package wurmlogs;
+
+/**
+ * @author Kevin Bechman
+ * Receives the notifications of an Engine, so the Engine does not depend on the GUI.
+ * Both methods are called on the event dispatch thread.
+ */
+public interface EngineListener {
+	/**
+	 * Called once indexing started with Engine.startIndexing() is done, and logs can be read
+	 */
+	void readyForViewing();
+	
+	/**
+	 * Called when lines of the date last read with Engine.getLogsForDate() or queryLogsForDate() have been
+	 * appended to a log file (live updates)
+	 * @param tabName  title of the tab the lines belong to
+	 * @param text  the new lines
+	 */
+	void appendLogs(String tabName, String text);
+}
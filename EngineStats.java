@@ -0,0 +1,308 @@
+package wurmlogs;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * @author Kevin Bechman
+ * Metrics of an Engine: how long each file took to index, query latencies, cache hit rates and the size of
+ * the index in memory.  They are published as a JMX MBean, and can also be appended to a file periodically.
+ *
+ * Nothing is recorded per line: the indexer counts lines in a plain field of the FileIndex, and the time and
+ * size of each file are recorded once the file is done, so measuring costs nothing on the line loop.
+ */
+public class EngineStats implements EngineStatsMBean {
+	public static final int SLOWEST_FILES = 10;  // Number of files listed by getSlowestFiles()
+	private static final AtomicInteger instances = new AtomicInteger();
+
+	/**
+	 * Kinds of queries whose latency is recorded
+	 */
+	public enum Query { DAY, RANGE, TIME_WINDOW, TIMELINE, SEARCH }
+
+	/**
+	 * How the last indexing of one file went
+	 */
+	private static class FileStat {
+		final String name;
+		final long bytes, lines, nanos;
+
+		FileStat(String name, long bytes, long lines, long nanos) {
+			this.name = name;
+			this.bytes = bytes;
+			this.lines = lines;
+			this.nanos = nanos;
+		}
+	}
+
+	private final DayCache cache;
+	private final LogTracker tracker;
+	private final LatencyHistogram[] queries;  // By Query ordinal
+	private final HashMap<String, FileStat> files;  // Last indexing of each file, by file name
+	private long indexRuns, indexedFiles, indexedBytes, indexedLines;
+	private long fileNanos;  // Time spent indexing files, summed over all threads
+	private long lastIndexNanos;  // Wall time of the last indexing run
+	private ObjectName name;  // Name under which this is registered with JMX (null if not registered)
+	private ScheduledExecutorService dumper;  // Appends the report to a file periodically (null if not running)
+
+	public EngineStats(DayCache cache, LogTracker tracker) {
+		this.cache = cache;
+		this.tracker = tracker;
+		queries = new LatencyHistogram[Query.values().length];
+		for (int i = 0; i < queries.length; i++) {
+			queries[i] = new LatencyHistogram();
+		}
+		files = new HashMap<>();
+	}
+
+	/**
+	 * Records that a file was (re-)indexed.  Called by the indexing threads, once per file.
+	 * @param fileName  name of the file
+	 * @param bytes  number of bytes read
+	 * @param lines  number of lines read
+	 * @param nanos  time taken
+	 */
+	public synchronized void fileIndexed(String fileName, long bytes, long lines, long nanos) {
+		files.put(fileName, new FileStat(fileName, bytes, lines, nanos));
+		indexedFiles++;
+		indexedBytes += bytes;
+		indexedLines += lines;
+		fileNanos += nanos;
+	}
+
+	/**
+	 * Records that an indexing run is done
+	 * @param nanos  wall time of the run
+	 */
+	public synchronized void indexingDone(long nanos) {
+		indexRuns++;
+		lastIndexNanos = nanos;
+	}
+
+	/**
+	 * Records the latency of a query
+	 * @param query  kind of query
+	 * @param nanos  time taken
+	 */
+	public void queryDone(Query query, long nanos) {
+		queries[query.ordinal()].record(nanos);
+	}
+
+	/**
+	 * @param query  kind of query
+	 * @return  the latencies of that kind of query
+	 */
+	public LatencyHistogram getLatencies(Query query) {
+		return queries[query.ordinal()];
+	}
+
+	@Override
+	public synchronized long getIndexRuns() { return indexRuns; }
+	@Override
+	public synchronized double getLastIndexingSeconds() { return lastIndexNanos / 1e9; }
+	@Override
+	public synchronized long getIndexedFiles() { return indexedFiles; }
+	@Override
+	public synchronized long getIndexedBytes() { return indexedBytes; }
+	@Override
+	public synchronized long getIndexedLines() { return indexedLines; }
+
+	/**
+	 * @return  indexing speed of one thread, over all files indexed so far
+	 */
+	@Override
+	public synchronized double getIndexMegabytesPerSecond() {
+		return (fileNanos == 0) ? 0 : indexedBytes / 1048576.0 / (fileNanos / 1e9);
+	}
+
+	@Override
+	public synchronized double getIndexLinesPerSecond() {
+		return (fileNanos == 0) ? 0 : indexedLines / (fileNanos / 1e9);
+	}
+
+	/**
+	 * @return  the files that took longest the last time they were indexed, slowest first
+	 */
+	@Override
+	public synchronized String[] getSlowestFiles() {
+		ArrayList<FileStat> list = new ArrayList<>(files.values());
+		Collections.sort(list, new Comparator<FileStat>() {
+			@Override
+			public int compare(FileStat a, FileStat b) {
+				return Long.compare(b.nanos, a.nanos);
+			}
+		});
+		String[] ret = new String[Math.min(SLOWEST_FILES, list.size())];
+		for (int i = 0; i < ret.length; i++) {
+			FileStat f = list.get(i);
+			double seconds = Math.max(f.nanos, 1) / 1e9;
+			ret[i] = String.format("%s: %.1f ms, %d KB, %d lines (%.1f MB/s, %.0f lines/s)", f.name, f.nanos / 1e6,
+					f.bytes >> 10, f.lines, f.bytes / 1048576.0 / seconds, f.lines / seconds);
+		}
+		return ret;
+	}
+
+	@Override
+	public long getQueryCount() {
+		long n = 0;
+		for (LatencyHistogram h : queries) {
+			n += h.getCount();
+		}
+		return n;
+	}
+
+	@Override
+	public String[] getQueryLatencies() {
+		Query[] kinds = Query.values();
+		String[] ret = new String[kinds.length];
+		for (int i = 0; i < kinds.length; i++) {
+			ret[i] = kinds[i] + ": " + queries[i].summary();
+		}
+		return ret;
+	}
+
+	@Override
+	public long getCacheHits() { return cache.getHits(); }
+	@Override
+	public long getCacheMisses() { return cache.getMisses(); }
+	@Override
+	public long getCacheUsedBytes() { return cache.getUsedBytes(); }
+
+	@Override
+	public double getCacheHitRate() {
+		long hits = cache.getHits(), total = hits + cache.getMisses();
+		return (total == 0) ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public long getIndexMemoryBytes() { return tracker.memoryBytes(); }
+	@Override
+	public int getDictionaryTerms() { return tracker.dictionarySize(); }
+
+	@Override
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Indexing: %d runs, last took %.2f s; %d files, %d MB, %d lines (%.1f MB/s, %.0f lines/s per thread)%n",
+				getIndexRuns(), getLastIndexingSeconds(), getIndexedFiles(), getIndexedBytes() >> 20, getIndexedLines(),
+				getIndexMegabytesPerSecond(), getIndexLinesPerSecond()));
+		sb.append("Slowest files:").append(System.lineSeparator());
+		for (String s : getSlowestFiles()) {
+			sb.append("  ").append(s).append(System.lineSeparator());
+		}
+		sb.append("Queries:").append(System.lineSeparator());
+		for (String s : getQueryLatencies()) {
+			sb.append("  ").append(s).append(System.lineSeparator());
+		}
+		sb.append(String.format("Cache: %d hits, %d misses (%.1f%% hit rate), %d KB used%n", getCacheHits(),
+				getCacheMisses(), 100 * getCacheHitRate(), getCacheUsedBytes() >> 10));
+		sb.append(String.format("Index: %d KB in memory, %d dictionary terms%n", getIndexMemoryBytes() >> 10,
+				getDictionaryTerms()));
+		return sb.toString();
+	}
+
+	@Override
+	public synchronized void reset() {
+		files.clear();
+		indexRuns = 0;
+		indexedFiles = 0;
+		indexedBytes = 0;
+		indexedLines = 0;
+		fileNanos = 0;
+		lastIndexNanos = 0;
+		for (LatencyHistogram h : queries) {
+			h.clear();
+		}
+	}
+
+	/**
+	 * Registers this with the platform MBean server, as "wurmlogs:type=EngineStats,instance=N"
+	 */
+	public synchronized void register() {
+		if (name != null)
+			return;
+		try {
+			ObjectName n = new ObjectName("wurmlogs:type=EngineStats,instance=" + instances.incrementAndGet());
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, n);
+			name = n;
+		} catch (JMException e) {
+			System.out.println("Could not register metrics with JMX: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Removes this from the platform MBean server, if it was registered
+	 */
+	public synchronized void unregister() {
+		if (name == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+			System.out.println("Could not unregister metrics from JMX: " + e.getMessage());
+		}
+		name = null;
+	}
+
+	/**
+	 * Starts appending the report to a file periodically, replacing any earlier dump
+	 * @param file  the file to append to
+	 * @param periodSeconds  seconds between reports
+	 */
+	public synchronized void startDump(final File file, long periodSeconds) {
+		stopDump();
+		dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Metrics dump");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		dumper.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				try {
+					dumpTo(file);
+				} catch (IOException e) {
+					System.out.println("Could not write metrics to " + file + ": " + e.getMessage());
+				}
+			}
+		}, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stops the periodic dump, if it is running
+	 */
+	public synchronized void stopDump() {
+		if (dumper != null) {
+			dumper.shutdownNow();
+			dumper = null;
+		}
+	}
+
+	/**
+	 * Appends the report to a file, under a timestamp
+	 * @param file  the file to append to
+	 * @throws IOException
+	 */
+	public void dumpTo(File file) throws IOException {
+		String text = "=== " + LocalDateTime.now().withNano(0) + System.lineSeparator() + report();
+		try (Writer out = new FileWriter(file, true)) {
+			out.write(text);
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package wurmlogs;
+
+/**
+ * @author Kevin Bechman
+ * Management interface of EngineStats, as seen through JMX (e.g. in JConsole under "wurmlogs")
+ */
+public interface EngineStatsMBean {
+	long getIndexRuns();
+	double getLastIndexingSeconds();
+	long getIndexedFiles();
+	long getIndexedBytes();
+	long getIndexedLines();
+	double getIndexMegabytesPerSecond();
+	double getIndexLinesPerSecond();
+	String[] getSlowestFiles();
+
+	long getQueryCount();
+	String[] getQueryLatencies();
+
+	long getCacheHits();
+	long getCacheMisses();
+	double getCacheHitRate();
+	long getCacheUsedBytes();
+
+	long getIndexMemoryBytes();
+	int getDictionaryTerms();
+
+	/**
+	 * @return  all of the above as text
+	 */
+	String report();
+
+	/**
+	 * Forgets the indexing and query counts (the cache keeps its own counts)
+	 */
+	void reset();
+}
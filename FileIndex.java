@@ -0,0 +1,482 @@
+package wurmlogs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * @author Kevin Bechman
+ * Partial index result for a single log file: the segments of the file that belong to each Logging date.
+ * A segment is the byte range from a Logging line up to the next Logging line of a different date
+ * (consecutive sessions of the same day are one segment), so a day that was logged in several separate
+ * sessions of a file has several segments.  Files are indexed into these independently (and in parallel),
+ * then merged into the LogTracker in file order.
+ *
+ * The index also remembers how far into the file it has read, so a file that is still being written to
+ * can be brought up to date by scanning only the bytes appended since.  The lines are tokenized into the
+ * file's TermIndex as they are scanned, so searching needs no extra pass over the file.
+ *
+ * Inside the segments, a sparse table of time checkpoints is kept: the location of a line and its
+ * "[HH:MM:SS]" time, every CHECKPOINT_LINES lines or CHECKPOINT_SECONDS of log time.  A time window of a
+ * long day can then be read without reading the whole segment.
+ * For _Skills logs, the skill changes are parsed out of the lines into SkillColumns at the same time, and for
+ * _Combat logs the combat events are counted into CombatStats.
+ */
+public class FileIndex {
+	public static final int CHECKPOINT_LINES = 128;
+	public static final int CHECKPOINT_SECONDS = 300;
+	private static final int DAY_SECONDS = 24 * 60 * 60;
+	private static final int PREFIX_CHECK = 4096;  // Bytes at each end of the indexed part that are checksummed
+
+	public final int fileIndex;  // Index of file in main file list
+	private long length;  // Size of the file when it was indexed
+	private long lastModified;  // Modification time of the file when it was indexed
+	private long indexedLength;  // Offset just past the last complete line that has been indexed
+	private long prefixCheck;  // Checksum of the ends of the indexed part, see prefixCheck()
+	private int lastDate;  // Date of the last complete Logging line read (-1 if none yet)
+	private int[] dates;  // Packed yyyymmdd date of each segment, in file order
+	private long[] starts;  // Location of the first Logging line of each segment
+	private long[] ends;  // Location just past the last line of each segment
+	private int size;
+	private TermIndex terms;  // Search index of the segments (null if the file is not indexed for search)
+	private SkillColumns skills;  // Skill changes in the file (null if it is not a _Skills log)
+	private CombatStats combat;  // Combat events in the file (null if it is not a _Combat log)
+	private long[] checkOffsets;  // Location of the line of each time checkpoint, in file order
+	private int[] checkTimes;  // Time of each checkpoint (seconds since midnight of the segment's date, see update())
+	private int checkCount;
+	private int lastTime;  // Latest time seen in the last segment (-1 if none yet)
+	private int linesSinceCheck;  // Lines read since the last checkpoint
+	private long linesRead;  // Lines read by the last update() (for metrics)
+	private int restarts;  // Times the file was indexed again from the start, since the index was made or loaded
+
+	public FileIndex(int fileIndex, long length, long lastModified) {
+		this.fileIndex = fileIndex;
+		this.length = length;
+		this.lastModified = lastModified;
+		indexedLength = 0;
+		lastDate = -1;
+		dates = new int[16];
+		starts = new long[16];
+		ends = new long[16];
+		size = 0;
+		checkOffsets = new long[16];
+		checkTimes = new int[16];
+		checkCount = 0;
+		lastTime = -1;
+		linesSinceCheck = 0;
+	}
+
+	/**
+	 * Scans a log file for its date segments
+	 * @param file  the log file to scan
+	 * @param fileIndex  index of the file in the main file list
+	 * @param dict  dictionary for the search terms, or null to skip building the search index
+	 * @return  the partial index for this file
+	 * @throws IOException
+	 */
+	public static FileIndex scan(File file, int fileIndex, TermDictionary dict) throws IOException {
+		FileIndex index = empty(fileIndex, dict, file);
+		index.update(file, -1, null);
+		return index;
+	}
+
+	/**
+	 * Creates the index of a file that has not been read yet
+	 * @param fileIndex  index of the file in the main file list
+	 * @param dict  dictionary for the search terms and skill names, or null to skip building the search index
+	 * @param file  the log file (its name tells whether to parse skill changes or combat events)
+	 * @return  the empty index
+	 */
+	public static FileIndex empty(int fileIndex, TermDictionary dict, File file) {
+		FileIndex index = new FileIndex(fileIndex, 0, 0);
+		if (dict != null) {
+			index.terms = new TermIndex(dict);
+			if (SkillColumns.isSkillsLog(file))
+				index.skills = new SkillColumns(dict);
+			if (CombatStats.isCombatLog(file))
+				index.combat = new CombatStats(dict);
+		}
+		return index;
+	}
+
+	/**
+	 * Scans the part of the file that was appended since it was last indexed.
+	 * A last line without a line terminator is assumed to still be in the middle of being written, so it is
+	 * read again on the next update.  If the file has become shorter, or the part already indexed has changed
+	 * (a log rewritten under the same name), it is indexed again from the start.
+	 *
+	 * Checkpoint times never go down within a segment (a checkpoint has the latest time read so far), and a
+	 * session that runs past midnight goes on counting from 24:00, so the checkpoints of a segment are sorted.
+	 * @param file  the log file on disk
+	 * @param watchDate  packed date whose appended lines should be collected, or -1 for none
+	 * @param appended  receives the appended lines that fall under watchDate (may be null)
+	 * @return  the number of segments that were added to this index
+	 * @throws IOException
+	 */
+	public int update(File file, int watchDate, StringBuilder appended) throws IOException {
+		// Size and time are taken before reading, so a file that changes while being read is seen as stale later
+		long newLength = LogInput.contentLength(file);
+		long newModified = file.lastModified();
+		if (newLength < indexedLength || (indexedLength > 0 && prefixCheck(file, indexedLength) != prefixCheck))
+			clear();  // File was replaced or truncated
+		int before = size;
+		linesRead = 0;
+		LogScanner scanner = new LogScanner(file, indexedLength);
+		try {
+			int current = lastDate;
+			while (scanner.nextLine()) {
+				// A line without a terminator is still being written (it may yet become a Logging line), so only
+				// complete lines change the index
+				if (scanner.nextLineStart() == scanner.lineEnd())
+					break;
+				linesRead++;
+				int dateKey = scanner.loggingDate();
+				if (dateKey >= 0 && (size == 0 || dates[size - 1] != dateKey)) {
+					add(dateKey, scanner.lineStart());
+					lastTime = -1;
+				}
+				if (size > 0)
+					ends[size - 1] = scanner.nextLineStart();  // Current segment runs at least up to here
+				if (dateKey >= 0)
+					current = dateKey;
+				else if (size > 0) {
+					if (terms != null)
+						terms.addLine(scanner.lineBuffer(), scanner.lineFrom(), scanner.lineTo(), scanner.lineStart());
+					int time = addTime(scanner.lineTime(), scanner.lineStart());
+					if (skills != null && time >= 0)
+						skills.addLine(scanner.lineBuffer(), scanner.lineFrom(), scanner.lineTo(), dates[size - 1], time);
+					if (combat != null && time >= 0)
+						combat.addLine(scanner.lineBuffer(), scanner.lineFrom(), scanner.lineTo(), dates[size - 1]);
+				}
+				if (appended != null && current == watchDate) {
+					scanner.appendLine(appended);
+					appended.append('\n');
+				}
+				indexedLength = scanner.nextLineStart();
+			}
+			lastDate = current;
+		} finally {
+			scanner.close();
+			if (terms != null)
+				terms.flush();
+		}
+		length = newLength;
+		lastModified = newModified;
+		prefixCheck = prefixCheck(file, indexedLength);
+		return size - before;
+	}
+
+	/**
+	 * Forgets everything that was indexed, so the file is read again from the start
+	 */
+	private void clear() {
+		restarts++;
+		size = 0;
+		indexedLength = 0;
+		lastDate = -1;
+		checkCount = 0;
+		lastTime = -1;
+		linesSinceCheck = 0;
+		if (terms != null)
+			terms.clear();
+		if (skills != null)
+			skills.clear();
+		if (combat != null)
+			combat.clear();
+	}
+
+	/**
+	 * Checksums the first and last PREFIX_CHECK bytes of the indexed part of a log file.  A log only ever grows,
+	 * so this stays the same as long as the file is the one that was indexed, whatever is appended to it.
+	 * @param file  the log file
+	 * @param length  length of the indexed part
+	 * @return  the CRC32 of the bytes, or 0 if nothing is indexed yet
+	 * @throws IOException
+	 */
+	static long prefixCheck(File file, long length) throws IOException {
+		if (length == 0)
+			return 0;
+		CRC32 crc = new CRC32();
+		try (LogInput in = LogInput.open(file)) {
+			checksum(in, 0, Math.min(length, PREFIX_CHECK), crc);
+			if (length > PREFIX_CHECK)
+				checksum(in, Math.max(PREFIX_CHECK, length - PREFIX_CHECK), length, crc);
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Adds the bytes [from, to) of a log to a checksum
+	 */
+	private static void checksum(LogInput in, long from, long to, CRC32 crc) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate((int) (to - from));
+		while (buf.hasRemaining()) {
+			if (in.read(buf, from + buf.position()) < 0)
+				break;  // The file is shorter, so the checksum will not match
+		}
+		buf.flip();
+		crc.update(buf.array(), 0, buf.limit());
+	}
+
+	/**
+	 * Starts a new segment for the given date
+	 */
+	private void add(int dateKey, long start) {
+		if (size == dates.length) {
+			dates = Arrays.copyOf(dates, size * 2);
+			starts = Arrays.copyOf(starts, size * 2);
+			ends = Arrays.copyOf(ends, size * 2);
+		}
+		dates[size] = dateKey;
+		starts[size] = start;
+		ends[size] = start;
+		size++;
+	}
+
+	/**
+	 * Records the time of a line, adding a checkpoint if one is due
+	 * @param time  time of the line in seconds since midnight, or -1 if it has none
+	 * @param location  location of the line in the file
+	 * @return  the time of the line counted from midnight of the segment's date (past 24:00 after midnight),
+	 *          or -1 if it has none
+	 */
+	private int addTime(int time, long location) {
+		linesSinceCheck++;
+		if (time < 0)
+			return -1;
+		if (lastTime >= 0) {
+			time += lastTime / DAY_SECONDS * DAY_SECONDS;
+			if (time < lastTime - DAY_SECONDS / 2)  // Went past midnight
+				time += DAY_SECONDS;
+		}
+		boolean due = lastTime < 0 || linesSinceCheck > CHECKPOINT_LINES
+				|| time >= checkTimes[checkCount - 1] + CHECKPOINT_SECONDS;
+		lastTime = Math.max(lastTime, time);
+		if (!due)
+			return time;
+		if (checkCount == checkOffsets.length) {
+			checkOffsets = Arrays.copyOf(checkOffsets, checkCount * 2);
+			checkTimes = Arrays.copyOf(checkTimes, checkCount * 2);
+		}
+		checkOffsets[checkCount] = location;
+		checkTimes[checkCount] = lastTime;
+		checkCount++;
+		linesSinceCheck = 0;
+		return time;
+	}
+
+	/**
+	 * Narrows a segment down to the parts that can hold the lines of a time window, using the checkpoints.
+	 * Each range starts at the last checkpoint before the window and ends at the first checkpoint after it,
+	 * so the lines in it still have to be checked against the window.  If the segment runs past midnight,
+	 * the window is looked up again after midnight, which can give a second range.
+	 * @param start  location of the segment
+	 * @param end  location just past the end of the segment
+	 * @param from  start of the window in seconds since midnight
+	 * @param to  end of the window (inclusive) in seconds since midnight
+	 * @return  the narrowed byte ranges, in file order
+	 */
+	public LogRef[] timeWindow(long start, long end, int from, int to) {
+		LogRef sameDay = window(start, end, from, to);
+		LogRef nextDay = window(start, end, from + DAY_SECONDS, to + DAY_SECONDS);
+		if (nextDay.length() == 0)
+			return new LogRef[] { sameDay };
+		if (sameDay.length() == 0 || nextDay.loc <= sameDay.end)
+			return new LogRef[] { new LogRef(fileIndex, sameDay.length() == 0 ? nextDay.loc : sameDay.loc,
+					Math.max(sameDay.end, nextDay.end)) };
+		return new LogRef[] { sameDay, nextDay };
+	}
+
+	/**
+	 * Narrows a segment down to the part where the checkpoint times can be in [from, to]
+	 */
+	private LogRef window(long start, long end, int from, int to) {
+		int first = firstCheckpoint(start, 0, checkCount);
+		int last = firstCheckpoint(end, first, checkCount);
+		// A line later than the last checkpoint by CHECKPOINT_SECONDS would have been a checkpoint itself
+		if (last > first && from >= checkTimes[last - 1] + CHECKPOINT_SECONDS)
+			return new LogRef(fileIndex, end, end);
+		// Last checkpoint earlier than the window: every line before it is earlier too
+		int lo = first, hi = last;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (checkTimes[mid] < from)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		long rangeStart = (lo > first) ? checkOffsets[lo - 1] : start;
+		// First checkpoint later than the window
+		hi = last;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (checkTimes[mid] <= to)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		long rangeEnd = (lo < last) ? checkOffsets[lo] : end;
+		return new LogRef(fileIndex, rangeStart, Math.max(rangeStart, rangeEnd));
+	}
+
+	/**
+	 * @return  the first checkpoint in [lo, hi) at or after the location (hi if there is none)
+	 */
+	private int firstCheckpoint(long location, int lo, int hi) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (checkOffsets[mid] < location)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Checks whether this index still describes the given file, i.e. the file has not changed since it was indexed
+	 * @param file  the log file on disk
+	 * @return  true if the size (of the text, for an archive) and modification time are unchanged
+	 */
+	public boolean isFresh(File file) {
+		return file.lastModified() == lastModified && LogInput.contentLength(file) == length;
+	}
+
+	/**
+	 * Returns a copy of this index assigned to a different position in the main file list
+	 * @param newFileIndex  index of the file in the current main file list
+	 * @return  the reassigned copy (shares no mutable state with this one)
+	 */
+	public FileIndex withFileIndex(int newFileIndex) {
+		FileIndex copy = new FileIndex(newFileIndex, length, lastModified);
+		copy.indexedLength = indexedLength;
+		copy.prefixCheck = prefixCheck;
+		copy.lastDate = lastDate;
+		copy.dates = Arrays.copyOf(dates, Math.max(size, 1));
+		copy.starts = Arrays.copyOf(starts, Math.max(size, 1));
+		copy.ends = Arrays.copyOf(ends, Math.max(size, 1));
+		copy.size = size;
+		copy.checkOffsets = Arrays.copyOf(checkOffsets, Math.max(checkCount, 1));
+		copy.checkTimes = Arrays.copyOf(checkTimes, Math.max(checkCount, 1));
+		copy.checkCount = checkCount;
+		copy.lastTime = lastTime;
+		copy.linesSinceCheck = linesSinceCheck;
+		copy.terms = (terms == null) ? null : terms.copy();
+		copy.skills = (skills == null) ? null : skills.copy();
+		copy.combat = (combat == null) ? null : combat.copy();
+		return copy;
+	}
+
+	/**
+	 * Writes this index in the binary format used by IndexStore
+	 * @param out  the stream to write to
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(length);
+		out.writeLong(lastModified);
+		out.writeLong(indexedLength);
+		out.writeLong(prefixCheck);
+		out.writeInt(lastDate);
+		out.writeInt(size);
+		for (int i=0; i<size; i++) {
+			out.writeInt(dates[i]);
+			out.writeLong(starts[i]);
+			out.writeLong(ends[i]);
+		}
+		out.writeInt(lastTime);
+		out.writeInt(linesSinceCheck);
+		out.writeInt(checkCount);
+		for (int i=0; i<checkCount; i++) {
+			out.writeLong(checkOffsets[i]);
+			out.writeInt(checkTimes[i]);
+		}
+		out.writeBoolean(terms != null);
+		if (terms != null)
+			terms.write(out);
+		out.writeBoolean(skills != null);
+		if (skills != null)
+			skills.write(out);
+		out.writeBoolean(combat != null);
+		if (combat != null)
+			combat.write(out);
+	}
+
+	/**
+	 * Reads an index previously written with write()
+	 * @param in  the stream to read from
+	 * @param fileIndex  index of the file in the current main file list
+	 * @param dict  the current term dictionary
+	 * @param savedTerms  the term dictionary the index was saved with
+	 * @return  the index that was read
+	 * @throws IOException  if the data is malformed
+	 */
+	public static FileIndex read(DataInput in, int fileIndex, TermDictionary dict, String[] savedTerms) throws IOException {
+		FileIndex index = new FileIndex(fileIndex, in.readLong(), in.readLong());
+		index.indexedLength = in.readLong();
+		index.prefixCheck = in.readLong();
+		index.lastDate = in.readInt();
+		int count = in.readInt();
+		if (count < 0 || index.indexedLength < 0 || index.indexedLength > index.length)
+			throw new IOException("Bad file entry");
+		for (int i=0; i<count; i++) {
+			int dateKey = in.readInt();
+			long start = in.readLong();
+			long end = in.readLong();
+			if (start < 0 || end < start || end > index.length)
+				throw new IOException("Bad segment " + start + "-" + end);
+			index.add(dateKey, start);
+			index.ends[i] = end;
+		}
+		index.lastTime = in.readInt();
+		index.linesSinceCheck = in.readInt();
+		int checks = in.readInt();
+		if (checks < 0)
+			throw new IOException("Bad checkpoint count " + checks);
+		index.checkOffsets = new long[Math.max(checks, 1)];
+		index.checkTimes = new int[Math.max(checks, 1)];
+		for (int i=0; i<checks; i++) {
+			index.checkOffsets[i] = in.readLong();
+			index.checkTimes[i] = in.readInt();
+			if (index.checkOffsets[i] < 0 || index.checkOffsets[i] > index.length)
+				throw new IOException("Bad checkpoint " + index.checkOffsets[i]);
+		}
+		index.checkCount = checks;
+		if (in.readBoolean())
+			index.terms = TermIndex.read(in, dict, savedTerms);
+		if (in.readBoolean())
+			index.skills = SkillColumns.read(in, dict, savedTerms);
+		if (in.readBoolean())
+			index.combat = CombatStats.read(in, dict, savedTerms);
+		return index;
+	}
+
+	/**
+	 * @return  estimated heap size of the index in bytes, including its search index, skills and combat stats
+	 */
+	public long memoryBytes() {
+		long bytes = 4L * dates.length + 8L * (starts.length + ends.length + checkOffsets.length) + 4L * checkTimes.length + 96;
+		if (terms != null)
+			bytes += terms.memoryBytes();
+		if (skills != null)
+			bytes += skills.memoryBytes();
+		if (combat != null)
+			bytes += combat.memoryBytes();
+		return bytes;
+	}
+
+	public int size() { return size; }
+	public long getLinesRead() { return linesRead; }
+	public int getRestarts() { return restarts; }
+	public int dateAt(int i) { return dates[i]; }
+	public long startAt(int i) { return starts[i]; }
+	public long endAt(int i) { return ends[i]; }
+	public long getIndexedLength() { return indexedLength; }
+	public TermIndex getTerms() { return terms; }
+	public SkillColumns getSkills() { return skills; }
+	public CombatStats getCombat() { return combat; }
+}
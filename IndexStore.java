@@ -0,0 +1,161 @@
+package wurmlogs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * @author Kevin Bechman
+ * Saves and loads the per-file indexes in a compact binary file, so the log directory does not have to be
+ * re-indexed every time the program is opened.
+ *
+ * Format: magic, version, the terms of the search dictionary, file count, then for each file its name followed
+ * by its FileIndex data.
+ * The file ends with a CRC32 of everything before it, which is checked before anything is parsed, so a damaged
+ * index is detected and rebuilt, and a damaged count is never used to size an array.
+ */
+public class IndexStore {
+	public static final int MAGIC = 0x574C4958;  // "WLIX"
+	public static final int VERSION = 9;
+	public static final String EXTENSION = ".wlidx";
+
+	private final File file;  // Location of the saved index
+	private boolean readOnly;  // Whether the index is only loaded, never saved
+
+	public IndexStore(File file) {
+		this.file = file;
+		readOnly = false;
+	}
+
+	/**
+	 * Gives the location of the index for a log directory, which is kept next to the directory itself
+	 * (e.g. "logs" gets "logs.wlidx").  Falls back to inside the directory if it has no parent.
+	 * @param logDir  the log directory
+	 * @return  the index file for that directory
+	 */
+	public static File indexFileFor(File logDir) {
+		File absolute = logDir.getAbsoluteFile();
+		File parent = absolute.getParentFile();
+		if (parent == null)
+			return new File(absolute, "wurmlogs" + EXTENSION);
+		return new File(parent, absolute.getName() + EXTENSION);
+	}
+
+	/**
+	 * Loads the saved per-file indexes, keyed by file name.
+	 * A missing, corrupt or outdated index file gives an empty map, which causes a full re-index.
+	 * @param dict  dictionary the saved search terms are added to
+	 * @return  the saved indexes (file index of each is -1 until it is matched to the current file list)
+	 */
+	public HashMap<String, FileIndex> load(TermDictionary dict) {
+		HashMap<String, FileIndex> indexes = new HashMap<>();
+		if (!file.isFile())
+			return indexes;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+			long stored = checksum(file);
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				System.out.println("Saved index is from another version, rebuilding.");
+				return indexes;
+			}
+			int termCount = in.readInt();
+			if (termCount < 0)
+				throw new IOException("Bad term count " + termCount);
+			String[] savedTerms = new String[termCount];
+			for (int i=0; i<termCount; i++) {
+				savedTerms[i] = in.readUTF();
+			}
+			int count = in.readInt();
+			for (int i=0; i<count; i++) {
+				String name = in.readUTF();
+				indexes.put(name, FileIndex.read(in, -1, dict, savedTerms));
+			}
+			if (in.readLong() != stored || in.read() != -1)
+				throw new IOException("Bad length");
+		} catch (IOException e) {
+			System.out.println("Saved index is corrupt (" + e.getMessage() + "), rebuilding.");
+			indexes.clear();
+		}
+		return indexes;
+	}
+
+	/**
+	 * Checks the CRC32 at the end of a saved index against the rest of the file
+	 * @param file  the saved index
+	 * @return  the checksum
+	 * @throws IOException  if the file is too short or the checksum does not match
+	 */
+	private static long checksum(File file) throws IOException {
+		long length = file.length();
+		if (length < 16)
+			throw new IOException("File too short");
+		CRC32 crc = new CRC32();
+		try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+				new BufferedInputStream(new FileInputStream(file), 1 << 16), crc))) {
+			byte[] buf = new byte[1 << 16];
+			long left = length - 8;
+			while (left > 0) {
+				int n = (int) Math.min(buf.length, left);
+				in.readFully(buf, 0, n);
+				left -= n;
+			}
+			long expected = crc.getValue();
+			long stored = in.readLong();
+			if (stored != expected)
+				throw new IOException("Checksum mismatch");
+			return stored;
+		}
+	}
+
+	/**
+	 * Writes the per-file indexes to disk.  The data is written to a temporary file first and then moved
+	 * into place, so an interrupted save never leaves a half-written index behind.
+	 * @param logFiles  the log files, in main file list order
+	 * @param indexes  the index of each file (same order as logFiles)
+	 * @param dict  dictionary of the search terms the indexes refer to
+	 * @throws IOException
+	 */
+	public void save(File[] logFiles, FileIndex[] indexes, TermDictionary dict) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		CRC32 crc = new CRC32();
+		try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16), crc))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			int termCount = dict.size();
+			out.writeInt(termCount);
+			for (int i=0; i<termCount; i++) {
+				out.writeUTF(dict.term(i));
+			}
+			out.writeInt(logFiles.length);
+			for (int i=0; i<logFiles.length; i++) {
+				out.writeUTF(logFiles[i].getName());
+				indexes[i].write(out);
+			}
+			out.flush();
+			out.writeLong(crc.getValue());
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Sets whether the index is only loaded, e.g. when just part of the directory is indexed
+	 * @param readOnly  true to never save
+	 */
+	public void setReadOnly(boolean readOnly) {
+		this.readOnly = readOnly;
+	}
+
+	public boolean isReadOnly() { return readOnly; }
+	public File getFile() { return file; }
+}
@@ -0,0 +1,72 @@
+package wurmlogs;
+
+/**
+ * @author Kevin Bechman
+ * Counts how long operations took in power-of-two buckets of microseconds (bucket i holds times from 2^i up to
+ * 2^(i+1) microseconds), so any number of operations takes the same small, fixed amount of memory.
+ * Percentiles are estimated from the buckets, so they are accurate to within a factor of two.
+ */
+public class LatencyHistogram {
+	private static final int BUCKETS = 40;
+
+	private final long[] counts;
+	private long count;
+	private long totalNanos;
+	private long maxNanos;
+
+	public LatencyHistogram() {
+		counts = new long[BUCKETS];
+	}
+
+	/**
+	 * Records one operation
+	 * @param nanos  how long the operation took
+	 */
+	public synchronized void record(long nanos) {
+		long micros = Math.max(1, nanos / 1000);
+		int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+		counts[bucket]++;
+		count++;
+		totalNanos += nanos;
+		maxNanos = Math.max(maxNanos, nanos);
+	}
+
+	/**
+	 * @param fraction  fraction of the operations, e.g. 0.99
+	 * @return  estimated time in milliseconds that the given fraction of the operations took at most
+	 */
+	public synchronized double percentileMillis(double fraction) {
+		if (count == 0)
+			return 0;
+		long rank = (long) Math.ceil(fraction * count);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min((1L << (i + 1)) / 1000.0, maxNanos / 1e6);
+		}
+		return maxNanos / 1e6;
+	}
+
+	/**
+	 * Forgets all recorded operations
+	 */
+	public synchronized void clear() {
+		java.util.Arrays.fill(counts, 0);
+		count = 0;
+		totalNanos = 0;
+		maxNanos = 0;
+	}
+
+	/**
+	 * @return  count, mean, median, 90th and 99th percentile and maximum, e.g. "12 ops, mean 3.1 ms, ..."
+	 */
+	public synchronized String summary() {
+		return String.format("%d ops, mean %.2f ms, p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms", count,
+				getMeanMillis(), percentileMillis(0.5), percentileMillis(0.9), percentileMillis(0.99), maxNanos / 1e6);
+	}
+
+	public synchronized long getCount() { return count; }
+	public synchronized double getMeanMillis() { return (count == 0) ? 0 : totalNanos / 1e6 / count; }
+	public synchronized double getMaxMillis() { return maxNanos / 1e6; }
+}
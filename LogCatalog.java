@@ -0,0 +1,200 @@
+package wurmlogs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.TreeMap;
+
+/**
+ * @author Kevin Bechman
+ * The log files of a directory, found from their names and grouped into month partitions.
+ * Wurm names its logs after the channel and month, e.g. "_Combat.2012-01.txt" or "Village.2012-12.txt", and every
+ * date in such a file is of that month.  Files named like that are taken as logs without being opened, so a
+ * directory of thousands of logs is listed in milliseconds; only files with other names are opened to check that
+ * they start with a "Logging" line.
+ * Queries and indexing of a limited range of dates only need the partitions of the months in that range.
+ */
+public class LogCatalog {
+	public static final int NO_MONTH = -1;  // Month of a file whose name does not tell it
+	private static final int SUFFIX_LENGTH = 12;  // Length of ".YYYY-MM.txt"
+
+	private final File[] files;  // Every log file, in directory order
+	private final int[] months;  // Month of each file packed as yyyymm, or NO_MONTH
+	private final TreeMap<Integer, ArrayList<File>> partitions;  // Files of each month
+	private final int opened;  // Number of files that had to be opened
+
+	private LogCatalog(File[] files, int[] months, int opened) {
+		this.files = files;
+		this.months = months;
+		this.opened = opened;
+		partitions = new TreeMap<>();
+		for (int i = 0; i < files.length; i++) {
+			ArrayList<File> partition = partitions.get(months[i]);
+			if (partition == null) {
+				partition = new ArrayList<>();
+				partitions.put(months[i], partition);
+			}
+			partition.add(files[i]);
+		}
+	}
+
+	/**
+	 * Lists the log files of a directory
+	 * @param dir  the directory
+	 * @return  the catalog of its logs
+	 */
+	public static LogCatalog scan(File dir) {
+		String[] names = dir.list();
+		if (names == null)
+			names = new String[0];
+		HashSet<String> nameSet = new HashSet<>(Arrays.asList(names));
+		File[] files = new File[names.length];
+		int[] months = new int[names.length];
+		int k = 0, opened = 0;
+		for (String name : names) {
+			if (!hasLogExtension(name) || isReplacedArchive(name, nameSet))
+				continue;
+			File f = new File(dir, name);
+			int month = monthOf(name);
+			if (month == NO_MONTH) {
+				opened++;
+				if (!startsWithLogging(f))
+					continue;
+			}
+			files[k] = f;
+			months[k] = month;
+			k++;
+		}
+		return new LogCatalog(Arrays.copyOf(files, k), Arrays.copyOf(months, k), opened);
+	}
+
+	/**
+	 * Tells whether a single file is a log, by the same rules as scan()
+	 * @param f  the file
+	 * @return  true if it is a log file
+	 */
+	public static boolean isLogFile(File f) {
+		String name = f.getName();
+		if (!hasLogExtension(name) || !f.isFile())
+			return false;
+		if (WlzArchive.isArchive(f) && new File(f.getParentFile(), baseName(name) + ".txt").exists())
+			return false;
+		return monthOf(name) != NO_MONTH || startsWithLogging(f);
+	}
+
+	/**
+	 * Reads the month from the name of a log file
+	 * @param fileName  name of the file, e.g. "_Combat.2012-01.txt"
+	 * @return  the month packed as yyyymm (e.g. 201201), or NO_MONTH if the name does not end in ".YYYY-MM.txt"
+	 *          (or ".wlz") after a channel name
+	 */
+	public static int monthOf(String fileName) {
+		int n = fileName.length();
+		if (n <= SUFFIX_LENGTH || !hasLogExtension(fileName))
+			return NO_MONTH;
+		int at = n - SUFFIX_LENGTH;  // Index of the "." before the month
+		if (fileName.charAt(at) != '.' || fileName.charAt(at + 5) != '-')
+			return NO_MONTH;
+		int month = 0;
+		for (int i = at + 1; i < at + 8; i++) {
+			if (i == at + 5)
+				continue;
+			char c = fileName.charAt(i);
+			if (c < '0' || c > '9')
+				return NO_MONTH;
+			month = month * 10 + (c - '0');
+		}
+		return (month % 100 >= 1 && month % 100 <= 12) ? month : NO_MONTH;
+	}
+
+	/**
+	 * @return  true if the name ends in ".txt" or ".wlz"
+	 */
+	private static boolean hasLogExtension(String name) {
+		return name.endsWith(".txt") || name.endsWith(WlzArchive.EXTENSION);
+	}
+
+	/**
+	 * @return  the name without its 4-character extension
+	 */
+	private static String baseName(String name) {
+		return name.substring(0, name.length() - 4);
+	}
+
+	/**
+	 * @return  true if the name is of an archive whose plain log is also in the directory (so it is left out,
+	 *          and no date is counted twice)
+	 */
+	private static boolean isReplacedArchive(String name, HashSet<String> names) {
+		return name.endsWith(WlzArchive.EXTENSION) && names.contains(baseName(name) + ".txt");
+	}
+
+	/**
+	 * @return  true if the first line of the file starts with "Logging"
+	 */
+	private static boolean startsWithLogging(File f) {
+		String s;
+		try {
+			LogScanner in = new LogScanner(f, 0, 256);
+			s = in.nextLine() ? in.lineString() : null;	// Read the first line
+			in.close();
+		} catch (Exception e) {
+			s = null;
+		}
+		return s != null && s.startsWith("Logging");
+	}
+
+	/**
+	 * @return  every log file, in directory order
+	 */
+	public File[] getFiles() {
+		return files.clone();
+	}
+
+	/**
+	 * Gives the files of the partitions of a range of months, and the files whose month is not known
+	 * @param fromMonth  first month (yyyymm)
+	 * @param toMonth  last month (inclusive)
+	 * @return  the files, in directory order
+	 */
+	public File[] getFiles(int fromMonth, int toMonth) {
+		File[] ret = new File[files.length];
+		int k = 0;
+		for (int i = 0; i < files.length; i++) {
+			if (months[i] == NO_MONTH || (months[i] >= fromMonth && months[i] <= toMonth))
+				ret[k++] = files[i];
+		}
+		return Arrays.copyOf(ret, k);
+	}
+
+	/**
+	 * @param month  a month (yyyymm), or NO_MONTH
+	 * @return  the files of that month's partition (empty if there are none)
+	 */
+	public File[] getPartition(int month) {
+		ArrayList<File> partition = partitions.get(month);
+		return (partition == null) ? new File[0] : partition.toArray(new File[partition.size()]);
+	}
+
+	/**
+	 * @return  the months that have logs, in order (not counting files whose month is not known)
+	 */
+	public int[] getMonths() {
+		int[] ret = new int[partitions.size()];
+		int k = 0;
+		for (int month : partitions.keySet()) {
+			if (month != NO_MONTH)
+				ret[k++] = month;
+		}
+		return Arrays.copyOf(ret, k);
+	}
+
+	public int size() { return files.length; }
+	public int getOpenedCount() { return opened; }
+
+	@Override
+	public String toString() {
+		return files.length + " log files in " + getMonths().length + " months (" + opened + " opened to check)";
+	}
+}
@@ -0,0 +1,191 @@
+package wurmlogs;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * @author Kevin Bechman
+ * Writes a synthetic log directory with the same structure as real Wurm logs, for benchmarking:
+ * monthly _Combat, _Skills and _Deaths files, "Logging started YYYY-MM-DD" session headers and "[HH:MM:SS]" lines,
+ * in roughly the proportions of the example logs (combat is by far the biggest).
+ * Small archives are spread over a few months; big ones are spread over at most MAX_MONTHS months, with more
+ * lines per day (like a heavy player's logs) so the dates stay realistic.
+ * The same seed always gives the same logs.
+ *
+ * Usage: LogGenerator <output directory> <size in MB> [seed]
+ */
+public class LogGenerator {
+	public static final int MAX_MONTHS = 120;
+	private static final long MONTH_BYTES = 4L << 20;  // Approximate size of a month of logs at normal density
+	private static final String[] AGES = { "Young", "Adolescent", "Mature", "Aged", "Old" };
+	private static final String[] TRAITS = { "", "starving ", "fat ", "diseased ", "alert ", "champion " };
+	private static final String[] CREATURES = { "black wolf", "huge spider", "brown bear", "mountain lion",
+			"large rat", "crocodile", "scorpion", "troll", "wild cat", "lava fiend", "pig", "anaconda" };
+	private static final String[] ATTACKS = { "claws", "bites", "mauls", "kicks", "hits" };
+	private static final String[] HITS = { "maul", "pierce", "cut", "hit", "crush" };
+	private static final String[] STRENGTHS = { "very lightly", "lightly", "pretty hard", "hard", "very hard",
+			"extremely hard", "deadly hard" };
+	private static final String[] PARTS = { "head", "chest", "stomach", "left thigh", "right thigh", "left hand",
+			"right underarm", "lower back", "calf of the left foreleg", "right paw" };
+	private static final String[] WEAPONS = { "maul", "large maul", "small maul", "short sword", "longsword" };
+	private static final String[] PARRIES = { "safely", "easily", "barely", "skillfully" };
+	private static final String[] SKILLS = { "Mining", "Pickaxe", "Carpentry", "Woodcutting", "Fighting", "Body strength",
+			"Mauls", "Shield bashing", "Blacksmithing", "Miscellaneous items", "Digging", "Farming" };
+	private static final String[] PLAYERS = { "Haydn", "Kellyt", "Borken", "Niners", "Barrech", "Encrtia", "Moirai" };
+
+	private final File dir;
+	private final Random random;
+	private final float[] skillValues;
+	private int scale;  // Lines per day relative to normal density
+
+	public LogGenerator(File dir, long seed) {
+		this.dir = dir;
+		random = new Random(seed);
+		skillValues = new float[SKILLS.length];
+	}
+
+	/**
+	 * Writes logs month by month, starting at 2011-11, until the directory holds at least the given size
+	 * @param targetBytes  approximate size of the logs to write
+	 * @return  the number of bytes written
+	 * @throws IOException
+	 */
+	public long generate(long targetBytes) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create " + dir);
+		long months = Math.max(1, Math.min(MAX_MONTHS, targetBytes / MONTH_BYTES));
+		scale = (int) Math.max(1, targetBytes / (months * MONTH_BYTES));
+		long written = 0;
+		int year = 2011, month = 11;
+		while (written < targetBytes) {
+			written += writeMonth(year, month, targetBytes - written);
+			if (++month > 12) {
+				month = 1;
+				year++;
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Writes the three files of one month
+	 * @return  the number of bytes written
+	 */
+	private long writeMonth(int year, int month, long maxBytes) throws IOException {
+		String suffix = String.format(".%04d-%02d.txt", year, month);
+		CountingWriter combat = open("_Combat" + suffix);
+		CountingWriter skills = open("_Skills" + suffix);
+		CountingWriter deaths = open("_Deaths" + suffix);
+		try {
+			int days = java.time.YearMonth.of(year, month).lengthOfMonth();
+			for (int day = 1; day <= days && combat.count + skills.count + deaths.count < maxBytes; day++) {
+				if (random.nextInt(10) == 0)
+					continue;  // Not every day is played
+				String header = String.format("Logging started %04d-%02d-%02d", year, month, day);
+				int sessions = 1 + random.nextInt(3);
+				int time = 8 * 3600 + random.nextInt(3600);
+				for (int s = 0; s < sessions; s++) {
+					combat.line(header);
+					skills.line(header);
+					deaths.line(header);
+					int lines = (200 + random.nextInt(1500)) * scale;
+					for (int i = 0; i < lines; i++) {
+						if (scale == 1 || random.nextInt(scale) == 0)
+							time = Math.min(86399, time + random.nextInt(4));
+						combat.line(stamp(time) + combatLine());
+						if (random.nextInt(60) == 0)
+							skills.line(stamp(time) + skillLine());
+						if (random.nextInt(400) == 0)
+							deaths.line(stamp(time) + PLAYERS[random.nextInt(PLAYERS.length)] + " slain by "
+									+ PLAYERS[random.nextInt(PLAYERS.length)]);
+					}
+					time = Math.min(86000, time + random.nextInt(7200));
+				}
+			}
+		} finally {
+			combat.close();
+			skills.close();
+			deaths.close();
+		}
+		return combat.count + skills.count + deaths.count;
+	}
+
+	private String combatLine() {
+		String creature = AGES[random.nextInt(AGES.length)] + " " + TRAITS[random.nextInt(TRAITS.length)]
+				+ CREATURES[random.nextInt(CREATURES.length)];
+		switch (random.nextInt(8)) {
+			case 0: return creature + " " + ATTACKS[random.nextInt(ATTACKS.length)] + " you "
+					+ STRENGTHS[random.nextInt(STRENGTHS.length)] + " in the " + PARTS[random.nextInt(PARTS.length)] + " and harms it.";
+			case 1: return "You " + HITS[random.nextInt(HITS.length)] + " " + creature + " "
+					+ STRENGTHS[random.nextInt(STRENGTHS.length)] + " in the " + PARTS[random.nextInt(PARTS.length)] + " and hurt it.";
+			case 2: return "You " + PARRIES[random.nextInt(PARRIES.length)] + " parry with your " + WEAPONS[random.nextInt(WEAPONS.length)] + ".";
+			case 3: return "You miss with the " + WEAPONS[random.nextInt(WEAPONS.length)] + ".";
+			case 4: return "The attack to the " + PARTS[random.nextInt(PARTS.length)] + " glances off your armour.";
+			case 5: return "You barely evade the blow to the " + PARTS[random.nextInt(PARTS.length)] + ".";
+			case 6: return creature + " tries to " + HITS[random.nextInt(HITS.length)] + " you.";
+			default: return "You try to " + HITS[random.nextInt(HITS.length)] + " a " + creature + ".";
+		}
+	}
+
+	private String skillLine() {
+		int s = random.nextInt(SKILLS.length);
+		boolean up = random.nextInt(10) != 0;
+		skillValues[s] = Math.max(1, skillValues[s] + (up ? 1 : -1));
+		return SKILLS[s] + (up ? " increased  to " : " decreased  to ") + (int) skillValues[s];
+	}
+
+	private static String stamp(int time) {
+		int h = time / 3600, m = time / 60 % 60, sec = time % 60;
+		return new String(new char[] { '[', (char) ('0' + h / 10), (char) ('0' + h % 10), ':', (char) ('0' + m / 10),
+				(char) ('0' + m % 10), ':', (char) ('0' + sec / 10), (char) ('0' + sec % 10), ']', ' ' });
+	}
+
+	private CountingWriter open(String name) throws IOException {
+		return new CountingWriter(new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(new File(dir, name)), StandardCharsets.UTF_8), 1 << 16));
+	}
+
+	/**
+	 * Writes CRLF-terminated lines (like the game does) and counts the bytes written
+	 */
+	private static class CountingWriter {
+		final Writer out;
+		long count;
+
+		CountingWriter(Writer out) {
+			this.out = out;
+		}
+
+		void line(String s) throws IOException {
+			out.write(s);
+			out.write("\r\n");
+			count += s.length() + 2;  // Only ASCII is written
+		}
+
+		void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * @param args  output directory, size in MB, and optionally the random seed
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: LogGenerator <output directory> <size in MB> [seed]");
+			return;
+		}
+		long target = Long.parseLong(args[1]) << 20;
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : 1;
+		long startTime = System.nanoTime();
+		long written = new LogGenerator(new File(args[0]), seed).generate(target);
+		System.out.println("Wrote " + (written >> 20) + " MB of logs to " + args[0] + " in "
+				+ (System.nanoTime() - startTime) / 1000000000.0 + " seconds.");
+	}
+}
@@ -0,0 +1,74 @@
+package wurmlogs;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * @author Kevin Bechman
+ * Random access to the text of a log file, which is either a plain .txt file or a compressed .wlz archive
+ * (see WlzArchive).  Positions are always offsets into the uncompressed text, so the LogRefs, checkpoints and
+ * other offsets of the index mean the same thing for both kinds of file.
+ */
+public interface LogInput extends Closeable {
+	/**
+	 * Reads bytes of the text into the buffer, starting at the given position.  The buffer's position is advanced.
+	 * @param dst  the buffer to read into
+	 * @param position  offset in the text of the first byte to read
+	 * @return  the number of bytes read (possibly 0), or -1 if the position is at or past the end of the text
+	 * @throws IOException
+	 */
+	int read(ByteBuffer dst, long position) throws IOException;
+
+	/**
+	 * Copies a range of the text to a channel, as directly as the kind of file allows
+	 * @param position  offset in the text of the first byte to copy
+	 * @param count  number of bytes to copy
+	 * @param target  the channel to copy to
+	 * @return  the number of bytes copied (less than count only at the end of the text)
+	 * @throws IOException
+	 */
+	long transferTo(long position, long count, WritableByteChannel target) throws IOException;
+
+	/**
+	 * Maps a range of the text into memory, if the kind of file allows it
+	 * @param position  offset in the text of the first byte
+	 * @param count  number of bytes (cut short at the end of the text)
+	 * @return  a read-only buffer of the range, or null if the file cannot be mapped (e.g. it is compressed)
+	 * @throws IOException
+	 */
+	default ByteBuffer map(long position, long count) throws IOException {
+		return null;
+	}
+
+	/**
+	 * @return  the length of the (uncompressed) text
+	 * @throws IOException
+	 */
+	long size() throws IOException;
+
+	/**
+	 * Opens a log file for reading
+	 * @param file  a .txt log or a .wlz archive
+	 * @return  the input
+	 * @throws IOException
+	 */
+	static LogInput open(File file) throws IOException {
+		if (WlzArchive.isArchive(file))
+			return WlzArchive.open(file);
+		return new PlainLogInput(file);
+	}
+
+	/**
+	 * Gives the length of the text of a log file without reading it (for archives only the trailer is read)
+	 * @param file  a .txt log or a .wlz archive
+	 * @return  the length of the (uncompressed) text, or 0 if the file cannot be read
+	 */
+	static long contentLength(File file) {
+		if (WlzArchive.isArchive(file))
+			return WlzArchive.contentLength(file);
+		return file.length();
+	}
+}
@@ -0,0 +1,248 @@
+package wurmlogs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * @author Kevin Bechman
+ * The log directories of several characters, each registered under its own name (namespace) and queried
+ * together: the same day for several characters at once, or a search across all of them.
+ *
+ * Each directory keeps its own Engine, index and saved index, so a log is identified by the namespace and the
+ * file's index within that namespace; the LogRefs and date indexes stay as compact as for a single directory.
+ * The directories are indexed concurrently, with the total number of indexing threads limited to ioThreads
+ * so that many directories on one disk do not all compete for it at once.  Queries over several characters run
+ * on the same pool.
+ *
+ * The Engines share one cache budget, split evenly between them, and one thread that prefetches the days next to
+ * the one viewed, so registering more characters does not add memory or threads.
+ */
+public class LogLibrary {
+	private final LinkedHashMap<String, Engine> engines;  // By namespace, in registration order
+	private final int ioThreads;
+	private final ExecutorService pool;
+	private final ExecutorService prefetcher;  // Shared by every Engine
+	private long cacheBudget;  // Cache budget of all Engines together
+
+	/**
+	 * @param ioThreads  the most files that are read at once, across all directories
+	 */
+	public LogLibrary(int ioThreads) {
+		engines = new LinkedHashMap<>();
+		this.ioThreads = Math.max(1, ioThreads);
+		pool = Executors.newFixedThreadPool(this.ioThreads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "LogLibrary");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		prefetcher = Engine.newPrefetcher();
+		cacheBudget = DayCache.DEFAULT_BUDGET;
+	}
+
+	/**
+	 * Registers the log directory of a character
+	 * @param namespace  name of the character (must be unique)
+	 * @param dir  the character's log directory
+	 * @throws IllegalArgumentException  if the name is taken or the directory does not exist
+	 */
+	public synchronized void register(String namespace, File dir) {
+		if (engines.containsKey(namespace))
+			throw new IllegalArgumentException("Namespace " + namespace + " is already registered");
+		if (!dir.isDirectory())
+			throw new IllegalArgumentException("No such directory: " + dir);
+		Engine engine = new Engine(null, 0, prefetcher);
+		engine.setLiveUpdates(false);
+		engine.setMainDir(dir.getPath());
+		engines.put(namespace, engine);
+		splitCacheBudget();
+	}
+
+	/**
+	 * Sets how much memory the caches of decoded days may use, all Engines together
+	 * @param bytes  the total cache budget in bytes
+	 */
+	public synchronized void setCacheBudget(long bytes) {
+		cacheBudget = bytes;
+		splitCacheBudget();
+	}
+
+	/**
+	 * Gives every Engine an equal share of the cache budget
+	 */
+	private void splitCacheBudget() {
+		for (Engine engine : engines.values()) {
+			engine.setCacheBudget(cacheBudget / engines.size());
+		}
+	}
+
+	/**
+	 * Limits every directory to the month partitions of a range of dates (see Engine.setMonthWindow())
+	 * @param from  first date to be read, or null for no limit
+	 * @param to  last date to be read, or null for no limit
+	 */
+	public synchronized void setMonthWindow(WTime from, WTime to) {
+		for (Engine engine : engines.values()) {
+			engine.setMonthWindow(from, to);
+		}
+	}
+
+	/**
+	 * Indexes every directory and waits until all are done.  Up to ioThreads directories are indexed at once,
+	 * sharing ioThreads indexing threads between them.
+	 * @param useSavedIndex  whether to load and save the index file of each directory
+	 * @throws Exception  the first error of any directory
+	 */
+	public void indexAll(final boolean useSavedIndex) throws Exception {
+		List<Callable<String>> tasks = new ArrayList<>();
+		synchronized (this) {
+			int perDir = Math.max(1, ioThreads / Math.max(1, Math.min(ioThreads, engines.size())));
+			for (final Engine engine : engines.values()) {
+				engine.setIndexingThreads(perDir);
+				tasks.add(new Callable<String>() {
+					public String call() throws Exception {
+						engine.indexNow(useSavedIndex);
+						return null;
+					}
+				});
+			}
+		}
+		waitFor(pool.invokeAll(tasks));
+	}
+
+	/**
+	 * Reads the logs of one date for several characters at once
+	 * @param date  the date
+	 * @param namespaces  the characters, or none for all of them
+	 * @return  the logs of each character that has any for the date, in the order asked for
+	 * @throws Exception
+	 */
+	public LinkedHashMap<String, LogPackage> getLogsForDate(final WTime date, String... namespaces) throws Exception {
+		List<String> names = resolve(namespaces);
+		List<Callable<LogPackage>> tasks = new ArrayList<>();
+		for (String name : names) {
+			final Engine engine = getEngine(name);
+			tasks.add(new Callable<LogPackage>() {
+				public LogPackage call() throws IOException {
+					return engine.getLogsForDate(date);
+				}
+			});
+		}
+		List<LogPackage> results = waitFor(pool.invokeAll(tasks));
+		LinkedHashMap<String, LogPackage> ret = new LinkedHashMap<>();
+		for (int i = 0; i < names.size(); i++) {
+			if (results.get(i).logTitles.length > 0)
+				ret.put(names.get(i), results.get(i));
+		}
+		return ret;
+	}
+
+	/**
+	 * Searches the logs of every character
+	 * @param query  the query (see Engine.search())
+	 * @param maxHits  the most lines to return for each character
+	 * @return  the lines found for each character that has any, in registration order
+	 * @throws Exception
+	 */
+	public LinkedHashMap<String, List<SearchHit>> search(final String query, final int maxHits) throws Exception {
+		List<String> names = resolve();
+		List<Callable<List<SearchHit>>> tasks = new ArrayList<>();
+		for (String name : names) {
+			final Engine engine = getEngine(name);
+			tasks.add(new Callable<List<SearchHit>>() {
+				public List<SearchHit> call() throws IOException {
+					return engine.search(query, maxHits);
+				}
+			});
+		}
+		List<List<SearchHit>> results = waitFor(pool.invokeAll(tasks));
+		LinkedHashMap<String, List<SearchHit>> ret = new LinkedHashMap<>();
+		for (int i = 0; i < names.size(); i++) {
+			if (!results.get(i).isEmpty())
+				ret.put(names.get(i), results.get(i));
+		}
+		return ret;
+	}
+
+	/**
+	 * @return  every date that has logs for any character, in order
+	 */
+	public synchronized List<WTime> getDates() {
+		TreeSet<WTime> dates = new TreeSet<>();
+		for (Engine engine : engines.values()) {
+			dates.addAll(engine.getDates());
+		}
+		return new ArrayList<>(dates);
+	}
+
+	/**
+	 * @param namespace  name of a character
+	 * @return  the Engine of the character's directory
+	 * @throws IllegalArgumentException  if the name is not registered
+	 */
+	public synchronized Engine getEngine(String namespace) {
+		Engine engine = engines.get(namespace);
+		if (engine == null)
+			throw new IllegalArgumentException("Unknown namespace " + namespace);
+		return engine;
+	}
+
+	public synchronized List<String> getNamespaces() {
+		return Collections.unmodifiableList(new ArrayList<>(engines.keySet()));
+	}
+
+	/**
+	 * @return  the given names (checked), or all names if none are given
+	 */
+	private synchronized List<String> resolve(String... namespaces) {
+		if (namespaces.length == 0)
+			return new ArrayList<>(engines.keySet());
+		List<String> names = new ArrayList<>();
+		for (String name : namespaces) {
+			getEngine(name);
+			names.add(name);
+		}
+		return names;
+	}
+
+	/**
+	 * Waits for tasks and unwraps their results
+	 * @throws Exception  the error of the first task that failed
+	 */
+	private static <T> List<T> waitFor(List<Future<T>> futures) throws Exception {
+		List<T> results = new ArrayList<>(futures.size());
+		for (Future<T> f : futures) {
+			try {
+				results.add(f.get());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception)
+					throw (Exception) e.getCause();
+				throw e;
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Stops the threads of the library and closes its Engines (see Engine.close())
+	 */
+	public synchronized void shutdown() {
+		pool.shutdown();
+		prefetcher.shutdown();
+		for (Engine engine : engines.values()) {
+			engine.close();
+		}
+	}
+}
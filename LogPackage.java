@@ -1,15 +1,16 @@
-package wurmlogs;
-
-/**
- * @author Kevin Bechman
- * Used to pass the log text to be displayed on the tabs from the Engine to the GUI class
- */
-public class LogPackage {
-	public final String[] logTexts;
-	public final String[] logTitles;
-	
-	public LogPackage(String[] logTexts, String[] logTitles) {
-		this.logTexts = logTexts;
-		this.logTitles = logTitles;
-	}
-}
+package wurmlogs;
+
+/**
+ * @author Kevin Bechman
+ * Used to pass the log text to be displayed on the tabs from the Engine to the GUI class
+ * The texts are the buffers the Engine decoded the logs into, so no extra copy of them is made.
+ */
+public class LogPackage {
+	public final CharSequence[] logTexts;
+	public final String[] logTitles;
+	
+	public LogPackage(CharSequence[] logTexts, String[] logTitles) {
+		this.logTexts = logTexts;
+		this.logTitles = logTitles;
+	}
+}
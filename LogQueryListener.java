@@ -0,0 +1,21 @@
+package wurmlogs;
+
+/**
+ * @author Kevin Bechman
+ * Receives the results of a background query made through Engine.queryLogsForDate().
+ * Both methods are called on the event dispatch thread.
+ */
+public interface LogQueryListener {
+	/**
+	 * Called as soon as the logs of one file have been read
+	 * @param title  title of the tab for the log
+	 * @param text  the log text
+	 */
+	void tabLoaded(String title, CharSequence text);
+	
+	/**
+	 * Called once all logs for the date have been read (not called if the query was cancelled)
+	 * @param p  LogPackage containing every tab that was loaded
+	 */
+	void queryDone(LogPackage p);
+}
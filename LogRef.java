@@ -1,32 +1,48 @@
-package wurmlogs;
-
-/**
- * @author Kevin Bechman
- * Class used to define references for the starting location of a given date's logs in a particular file
- */
-public class LogRef {
-	public final int fileIndex;  // Index of file in main file list
-	public final long loc;   // Location of where the date starts in this file
-	
-	public LogRef(int i, long l) {
-		fileIndex = i;
-		loc = l;
-	}
-	
-	@Override
-	public boolean equals(Object o) {
-		if (o == null)
-			return false;
-		if (!this.getClass().equals(o.getClass()))
-			return false;
-		LogRef lr = (LogRef) o;
-		if (this.fileIndex == lr.fileIndex)	// LogRef equality ONLY considers the FileIndex - loc is not significant
-			return true;
-		return false;
-	}
-	
-	@Override
-	public String toString() {
-		return "[" + fileIndex + ", " + loc + "]";
-	}
-}
+package wurmlogs;
+
+/**
+ * @author Kevin Bechman
+ * Class used to define references for the byte range of a given date's logs in a particular file
+ */
+public class LogRef {
+	public final int fileIndex;  // Index of file in main file list
+	public final long loc;   // Location of where the date starts in this file
+	public final long end;   // Location just past the last byte of the date's logs in this segment of the file
+	
+	public LogRef(int i, long l, long e) {
+		fileIndex = i;
+		loc = l;
+		end = e;
+	}
+	
+	/**
+	 * @return  number of bytes covered by this reference
+	 */
+	public long length() {
+		return end - loc;
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (o == null)
+			return false;
+		if (!this.getClass().equals(o.getClass()))
+			return false;
+		LogRef lr = (LogRef) o;
+		// LogRef equality considers the file and the start of the segment - end is not significant, since
+		// the segment may still grow when the file is appended to
+		if (this.fileIndex == lr.fileIndex && this.loc == lr.loc)
+			return true;
+		return false;
+	}
+	
+	@Override
+	public int hashCode() {
+		return fileIndex * 31 + Long.hashCode(loc);
+	}
+	
+	@Override
+	public String toString() {
+		return "[" + fileIndex + ", " + loc + "-" + end + "]";
+	}
+}
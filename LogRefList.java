@@ -1,48 +1,57 @@
-package wurmlogs;
-
-import java.util.ArrayList;
-
-/**
- * @author Kevin Bechman
- * Contains a list of LogRef objects (stored in an ArrayList) that were found for the given date
- */
-public class LogRefList {
-	private ArrayList<LogRef> list;
-	public final WTime date;
-	public LogRefList(WTime d) {
-		list = new ArrayList<>();
-		date = d;
-	}
-	
-	@Override
-	public boolean equals(Object o) {
-		if (o == null)
-			return false;
-		if (!this.getClass().equals(o.getClass()))
-			return false;
-		LogRefList lrl = (LogRefList) o;
-		if (lrl.date.equals(this.date))	// Equality check
-			return true;
-		return false;
-	}
-	
-	// ***** Methods to access/change the inner ArrayList ***** //
-	public void add(LogRef ref) {
-		list.add(ref);
-	}
-	
-	public LogRef get(int i) {
-		return new LogRef(list.get(i).fileIndex, list.get(i).loc);
-	}
-	
-	public boolean contains(LogRef ref) {
-		return list.contains(ref);
-	}
-	
-	public int size() { return list.size(); }
-	
-	@Override
-	public String toString() {
-		return "For date: "+date+ " : " +list.toString();
-	}
-}
+package wurmlogs;
+
+/**
+ * @author Kevin Bechman
+ * Contains the LogRefs that were found for the given date.
+ * This is a read-only view of one date in a DateIndex; the primitive accessors do not allocate anything.
+ */
+public class LogRefList {
+	private final DateIndex index;
+	private final int from, to;  // Range of the date's LogRefs in the index
+	public final WTime date;
+	
+	public LogRefList(WTime d, DateIndex index, int slot) {
+		date = d;
+		this.index = index;
+		from = index.firstRef(slot);
+		to = index.endRef(slot);
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (o == null)
+			return false;
+		if (!this.getClass().equals(o.getClass()))
+			return false;
+		LogRefList lrl = (LogRefList) o;
+		if (lrl.date.equals(this.date))	// Equality check
+			return true;
+		return false;
+	}
+	
+	@Override
+	public int hashCode() {
+		return date.hashCode();
+	}
+	
+	// ***** Methods to access the LogRefs ***** //
+	public LogRef get(int i) {
+		return new LogRef(fileIndex(i), loc(i), end(i));
+	}
+	
+	public int fileIndex(int i) { return index.fileAt(from + i); }
+	public long loc(int i) { return index.startAt(from + i); }
+	public long end(int i) { return index.endAt(from + i); }
+	public long length(int i) { return end(i) - loc(i); }
+	
+	public int size() { return to - from; }
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("For date: " + date + " : [");
+		for (int i = 0; i < size(); i++) {
+			sb.append(i > 0 ? ", " : "").append(get(i));
+		}
+		return sb.append("]").toString();
+	}
+}
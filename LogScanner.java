@@ -0,0 +1,229 @@
+package wurmlogs;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.YearMonth;
+
+/**
+ * @author Kevin Bechman
+ * Reads a log file (plain or archived, see LogInput) line by line through one large reusable buffer.
+ * Keeps track of the exact byte offset of every line (for use in LogRefs) and recognizes
+ * "Logging started YYYY-MM-DD" headers straight from the bytes, so no String is built unless asked for.
+ */
+public class LogScanner implements Closeable {
+	public static final int BUFFER_SIZE = 1 << 18;  // Initial buffer size (grows if a single line is longer)
+
+	private static final byte[] LOGGING = { 'L', 'o', 'g', 'g', 'i', 'n', 'g' };
+	private static final int HEADER_LENGTH = 26;  // Length of "Logging started YYYY-MM-DD"
+
+	private LogInput input;
+	private long readPos;  // Position in the text of the next byte to read into the buffer
+	private byte[] bytes;  // Reusable read buffer
+	private long bufPos;  // File position of bytes[0]
+	private int limit;  // Number of valid bytes in the buffer
+	private int lineStart, lineEnd;  // Buffer indexes of the current line (terminator excluded)
+	private int next;  // Buffer index where the next line starts
+	private boolean eof;
+
+	public LogScanner(File file) throws IOException {
+		this(file, 0);
+	}
+
+	/**
+	 * Opens the file and positions the scanner at the given byte offset
+	 * @param file  the log file to read
+	 * @param start  byte offset to start reading from (should be the start of a line)
+	 * @throws IOException
+	 */
+	public LogScanner(File file, long start) throws IOException {
+		this(file, start, BUFFER_SIZE);
+	}
+
+	/**
+	 * Opens the file and positions the scanner at the given byte offset
+	 * @param file  the log file to read
+	 * @param start  byte offset to start reading from (should be the start of a line)
+	 * @param bufferSize  initial size of the read buffer (smaller when many files are read at once)
+	 * @throws IOException
+	 */
+	public LogScanner(File file, long start, int bufferSize) throws IOException {
+		input = LogInput.open(file);
+		readPos = start;
+		bytes = new byte[bufferSize];
+		bufPos = start;
+		limit = lineStart = lineEnd = next = 0;
+		eof = false;
+	}
+
+	/**
+	 * Advances to the next line of the file.  Handles "\n", "\r\n" and "\r" terminators,
+	 * the same as RandomAccessFile.readLine()
+	 * @return  false if the end of the file has been reached
+	 * @throws IOException
+	 */
+	public boolean nextLine() throws IOException {
+		int scan = next;
+		while (true) {
+			for (int i = scan; i < limit; i++) {
+				byte b = bytes[i];
+				if (b == '\n' || b == '\r') {
+					if (b == '\r' && i + 1 == limit && !eof) {
+						scan = i;  // Need the following byte to know whether this is "\r\n"
+						break;
+					}
+					lineStart = next;
+					lineEnd = i;
+					next = (b == '\r' && i + 1 < limit && bytes[i + 1] == '\n') ? i + 2 : i + 1;
+					return true;
+				}
+				scan = i + 1;
+			}
+			if (eof) {
+				if (next < limit) {  // Last line of the file has no terminator
+					lineStart = next;
+					lineEnd = limit;
+					next = limit;
+					return true;
+				}
+				return false;
+			}
+			scan = fill(scan);
+		}
+	}
+
+	/**
+	 * Moves the unread part of the buffer to the front and reads more of the file behind it
+	 * @param scan  buffer index the line search had reached
+	 * @return  the same scan index after the buffer has been compacted
+	 * @throws IOException
+	 */
+	private int fill(int scan) throws IOException {
+		if (next > 0) {
+			System.arraycopy(bytes, next, bytes, 0, limit - next);
+			bufPos += next;
+			limit -= next;
+			scan -= next;
+			next = 0;
+		}
+		if (limit == bytes.length) {  // A single line fills the whole buffer, so make it bigger
+			byte[] bigger = new byte[bytes.length * 2];
+			System.arraycopy(bytes, 0, bigger, 0, limit);
+			bytes = bigger;
+		}
+		int n = input.read(ByteBuffer.wrap(bytes, limit, bytes.length - limit), readPos);
+		if (n < 0) {
+			eof = true;
+		} else {
+			limit += n;
+			readPos += n;
+		}
+		return scan;
+	}
+
+	/**
+	 * Moves the scanner to another line of the file, keeping its buffer.  If the line is in the part of the file
+	 * that is already in the buffer, nothing is read; the next call to nextLine() gives that line.
+	 * @param position  byte offset of the start of a line
+	 */
+	public void seek(long position) {
+		if (position >= bufPos && position <= bufPos + limit) {
+			next = (int) (position - bufPos);
+		} else {
+			readPos = position;
+			bufPos = position;
+			limit = lineStart = lineEnd = next = 0;
+			eof = false;
+		}
+	}
+
+	/**
+	 * Checks whether the current line is a "Logging started YYYY-MM-DD" header with a valid date
+	 * @return  the date packed as yyyymmdd (see WTime.toKey()), or -1 if the line is not a header
+	 */
+	public int loggingDate() {
+		if (lineEnd - lineStart < HEADER_LENGTH)
+			return -1;
+		for (int i = 0; i < LOGGING.length; i++) {
+			if (bytes[lineStart + i] != LOGGING[i])
+				return -1;
+		}
+		int year = digits(lineStart + 16, 4);
+		int month = digits(lineStart + 21, 2);
+		int day = digits(lineStart + 24, 2);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > YearMonth.of(year, month).lengthOfMonth())
+			return -1;  // Not a date (e.g. a damaged header), so the line is read as an ordinary one
+		return year * 10000 + month * 100 + day;
+	}
+
+	/**
+	 * Reads the "[HH:MM:SS]" timestamp at the start of the current line
+	 * @return  the time as seconds since midnight, or -1 if the line does not start with a timestamp
+	 */
+	public int lineTime() {
+		if (lineEnd - lineStart < 10 || bytes[lineStart] != '[' || bytes[lineStart + 3] != ':'
+				|| bytes[lineStart + 6] != ':' || bytes[lineStart + 9] != ']')
+			return -1;
+		int h = digits(lineStart + 1, 2);
+		int m = digits(lineStart + 4, 2);
+		int s = digits(lineStart + 7, 2);
+		if (h < 0 || m < 0 || s < 0)
+			return -1;
+		return h * 3600 + m * 60 + s;
+	}
+
+	/**
+	 * Parses a run of ASCII digits from the buffer
+	 * @return  the value, or -1 if a non-digit was found
+	 */
+	private int digits(int from, int count) {
+		int val = 0;
+		for (int i = from; i < from + count; i++) {
+			int d = bytes[i] - '0';
+			if (d < 0 || d > 9)
+				return -1;
+			val = val * 10 + d;
+		}
+		return val;
+	}
+
+	/**
+	 * @return  the current line decoded as UTF-8
+	 */
+	public String lineString() {
+		return new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Appends the current line (decoded as UTF-8) to the builder without creating an intermediate String
+	 * for plain ASCII lines
+	 * @param sb  the builder to append to
+	 */
+	public void appendLine(StringBuilder sb) {
+		for (int i = lineStart; i < lineEnd; i++) {
+			byte b = bytes[i];
+			if (b < 0) {  // Multi-byte character, decode the rest of the line properly
+				sb.append(new String(bytes, i, lineEnd - i, StandardCharsets.UTF_8));
+				return;
+			}
+			sb.append((char) b);
+		}
+	}
+
+	// Raw access to the current line's bytes, for tokenizing without decoding
+	byte[] lineBuffer() { return bytes; }
+	int lineFrom() { return lineStart; }
+	int lineTo() { return lineEnd; }
+
+	public long lineStart() { return bufPos + lineStart; }
+	public long lineEnd() { return bufPos + lineEnd; }
+	public long nextLineStart() { return bufPos + next; }
+	public int lineLength() { return lineEnd - lineStart; }
+
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+}
@@ -0,0 +1,217 @@
+package wurmlogs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author Kevin Bechman
+ * Small HTTP server that lets several people browse one log archive through a single shared Engine, so the
+ * archive is indexed once.  All requests are GET and all responses are UTF-8 text:
+ *   /dates                        every date that has logs, one per line
+ *   /day/YYYY-MM-DD               the logs of a date, tab by tab
+ *   /range?from=...&to=...        the logs of every date in a range, tab by tab
+ *   /timeline?from=...&to=...     the logs of a range merged into one timeline per date
+ *   /search?q=...[&max=...]       the lines matching a query
+ *   /stats                        the Engine's metrics
+ *
+ * Logs are sent with chunked encoding, copied straight from the file regions of the index to the connection
+ * (the timeline through one small buffer per channel), so a response never holds a whole day in memory and
+ * many concurrent readers do not multiply the heap used.  The index is a DateIndex that is replaced
+ * (or whose live ends move) when files grow, so requests read it without locking.
+ * Requests are handled by a fixed pool of threads; a request waiting for a slow client only holds its thread.
+ */
+public class LogServer {
+	public static final int DEFAULT_PORT = 8080;
+	public static final int DEFAULT_THREADS = 16;
+	private static final String TEXT = "text/plain; charset=utf-8";
+
+	private final Engine engine;
+	private final HttpServer server;
+	private final ExecutorService pool;
+
+	/**
+	 * Creates the server; it does not accept connections until start() is called
+	 * @param engine  the Engine to serve, already indexed
+	 * @param address  address and port to listen on
+	 * @param threads  number of request threads
+	 * @throws IOException  if the address cannot be bound
+	 */
+	public LogServer(Engine engine, InetSocketAddress address, int threads) throws IOException {
+		this.engine = engine;
+		server = HttpServer.create(address, 0);
+		final AtomicInteger count = new AtomicInteger();
+		pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "LogServer-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		server.setExecutor(pool);
+		server.createContext("/dates", new Handler() {
+			void handle(HttpExchange ex, HashMap<String, String> params) throws IOException {
+				Writer out = startText(ex);
+				for (WTime date : LogServer.this.engine.getDates()) {
+					out.write(String.format("%04d-%02d-%02d\n", date.year, date.month, date.day));
+				}
+				out.close();
+			}
+		});
+		server.createContext("/day/", new Handler() {
+			void handle(HttpExchange ex, HashMap<String, String> params) throws IOException {
+				WTime date = WurmLogsCli.parseDate(ex.getRequestURI().getPath().substring("/day/".length()));
+				transfer(ex, date, date);
+			}
+		});
+		server.createContext("/range", new Handler() {
+			void handle(HttpExchange ex, HashMap<String, String> params) throws IOException {
+				transfer(ex, WurmLogsCli.parseDate(param(params, "from")), WurmLogsCli.parseDate(param(params, "to")));
+			}
+		});
+		server.createContext("/timeline", new Handler() {
+			void handle(HttpExchange ex, HashMap<String, String> params) throws IOException {
+				WTime from = WurmLogsCli.parseDate(param(params, "from"));
+				WTime to = WurmLogsCli.parseDate(param(params, "to"));
+				Writer out = startText(ex);
+				LogServer.this.engine.writeTimeline(from, to, out);
+				out.close();
+			}
+		});
+		server.createContext("/search", new Handler() {
+			void handle(HttpExchange ex, HashMap<String, String> params) throws IOException {
+				String query = param(params, "q");
+				int max = params.containsKey("max") ? Integer.parseInt(params.get("max")) : WurmLogsCli.DEFAULT_MAX_HITS;
+				List<SearchHit> hits = LogServer.this.engine.search(query, max);
+				Writer out = startText(ex);
+				for (SearchHit hit : hits) {
+					out.write(String.format("%04d-%02d-%02d [%s] %s\n", hit.date.year, hit.date.month, hit.date.day,
+							hit.channel, hit.line));
+				}
+				out.close();
+			}
+		});
+		server.createContext("/stats", new Handler() {
+			void handle(HttpExchange ex, HashMap<String, String> params) throws IOException {
+				Writer out = startText(ex);
+				out.write(LogServer.this.engine.getStats().report());
+				out.close();
+			}
+		});
+	}
+
+	/**
+	 * Handles GET requests of one path, answering bad requests with 400 and failures with 500
+	 */
+	private static abstract class Handler implements HttpHandler {
+		abstract void handle(HttpExchange ex, HashMap<String, String> params) throws IOException;
+
+		@Override
+		public void handle(HttpExchange ex) throws IOException {
+			try {
+				if (!ex.getRequestMethod().equals("GET")) {
+					sendError(ex, 405, "Only GET is supported");
+					return;
+				}
+				handle(ex, parseQuery(ex.getRequestURI().getRawQuery()));
+			} catch (IllegalArgumentException e) {  // Includes malformed numbers
+				sendError(ex, 400, e.getMessage());
+			} catch (IOException e) {
+				// Most likely the client went away; the headers may already be sent, so just drop the connection
+				System.out.println("Error serving " + ex.getRequestURI() + ": " + e.getMessage());
+			} catch (RuntimeException e) {
+				System.out.println("Error serving " + ex.getRequestURI() + ": " + e);
+				sendError(ex, 500, "Internal error");
+			} finally {
+				ex.close();
+			}
+		}
+	}
+
+	/**
+	 * Streams the raw logs of a range of dates
+	 */
+	private void transfer(HttpExchange ex, WTime from, WTime to) throws IOException {
+		ex.getResponseHeaders().set("Content-Type", TEXT);
+		ex.sendResponseHeaders(200, 0);  // Length 0 means chunked
+		OutputStream body = ex.getResponseBody();
+		engine.transferLogs(from, to, Channels.newChannel(body));
+		body.close();
+	}
+
+	/**
+	 * Sends the headers of a chunked text response
+	 * @return  a buffered writer for the body, to be closed when done
+	 */
+	private static Writer startText(HttpExchange ex) throws IOException {
+		ex.getResponseHeaders().set("Content-Type", TEXT);
+		ex.sendResponseHeaders(200, 0);
+		return new OutputStreamWriter(ex.getResponseBody(), StandardCharsets.UTF_8);
+	}
+
+	private static void sendError(HttpExchange ex, int code, String message) {
+		try {
+			byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+			ex.getResponseHeaders().set("Content-Type", TEXT);
+			ex.sendResponseHeaders(code, body.length);
+			ex.getResponseBody().write(body);
+		} catch (IOException e) {
+			// Headers were already sent, nothing more can be said to the client
+		}
+	}
+
+	private static String param(HashMap<String, String> params, String name) {
+		String value = params.get(name);
+		if (value == null)
+			throw new IllegalArgumentException("Missing parameter " + name);
+		return value;
+	}
+
+	/**
+	 * @param rawQuery  the query string of a URI, still URL-encoded (may be null)
+	 * @return  the decoded parameters by name
+	 */
+	private static HashMap<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+		HashMap<String, String> params = new HashMap<>();
+		if (rawQuery == null)
+			return params;
+		for (String pair : rawQuery.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0)
+				params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+		}
+		return params;
+	}
+
+	public void start() {
+		server.start();
+		System.out.println("Serving logs on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/");
+	}
+
+	/**
+	 * Stops accepting requests, waits up to the given time for running ones and stops the request threads
+	 * @param delaySeconds  seconds to wait for running requests
+	 */
+	public void stop(int delaySeconds) {
+		server.stop(delaySeconds);
+		pool.shutdownNow();
+	}
+
+	public InetSocketAddress getAddress() { return server.getAddress(); }
+}
@@ -0,0 +1,230 @@
+package wurmlogs;
+
+import java.awt.Color;
+import java.util.ArrayList;
+
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyleContext;
+import javax.swing.text.StyledDocument;
+
+/**
+ * @author Kevin Bechman
+ * Colors log text the way the game shows it: timestamps, player names, hits taken and dealt, skill gains and
+ * deaths each get their own style.
+ *
+ * A whole log is styled by build(), which works on a new document no view is attached to yet, so it may run on
+ * any thread.  The styled runs of every line are turned into ElementSpecs and loaded into the document in one
+ * bulk operation, instead of one insert and one attribute change per line (each of which would notify the
+ * document's listeners), so a styled day costs about the same to build as plain text does to insert.
+ * The document is then swapped into the text pane on the event dispatch thread with a single setDocument().
+ */
+public class LogStyler {
+	public static final SimpleAttributeSet PLAIN = style(null, false, false);
+	public static final SimpleAttributeSet TIME = style(Color.GRAY, false, false);  // "[12:34:56]"
+	public static final SimpleAttributeSet CHANNEL = style(Color.GRAY, true, false);  // "[Combat]" in the timeline
+	public static final SimpleAttributeSet SYSTEM = style(Color.GRAY, false, true);  // "Logging started 2012-01-01"
+	public static final SimpleAttributeSet PLAYER = style(new Color(0, 70, 170), true, false);  // "<Name>", a victim
+	public static final SimpleAttributeSet HIT_TAKEN = style(new Color(190, 0, 0), false, false);
+	public static final SimpleAttributeSet HIT_DEALT = style(new Color(170, 100, 0), false, false);
+	public static final SimpleAttributeSet SKILL = style(new Color(0, 130, 0), false, false);
+	public static final SimpleAttributeSet DEATH = style(new Color(130, 0, 0), true, false);
+
+	private static SimpleAttributeSet style(Color color, boolean bold, boolean italic) {
+		SimpleAttributeSet a = new SimpleAttributeSet();
+		if (color != null)
+			StyleConstants.setForeground(a, color);
+		if (bold)
+			StyleConstants.setBold(a, true);
+		if (italic)
+			StyleConstants.setItalic(a, true);
+		return a;
+	}
+
+	/**
+	 * A document that can be loaded from ElementSpecs in one operation
+	 */
+	private static class LogDocument extends DefaultStyledDocument {
+		private static final long serialVersionUID = -1862004317539683410L;
+
+		void load(ElementSpec[] specs) {
+			create(specs);
+		}
+	}
+
+	/**
+	 * Content of one run, pointing into the text of the whole log.  ElementSpec copies the array it is given,
+	 * which for a shared array would copy the whole log for every run.
+	 */
+	private static class Run extends DefaultStyledDocument.ElementSpec {
+		private final char[] text;
+		private final int offset;
+
+		Run(AttributeSet style, char[] text, int offset, int length) {
+			super(style, ContentType, length);
+			this.text = text;
+			this.offset = offset;
+		}
+
+		@Override
+		public char[] getArray() { return text; }
+		@Override
+		public int getOffset() { return offset; }
+	}
+
+	/**
+	 * Builds a styled document of a log.  May be called on any thread.
+	 * @param text  the log text
+	 * @return  a new document holding the styled text
+	 */
+	public static StyledDocument build(CharSequence text) {
+		LogDocument doc = new LogDocument();
+		int len = text.length();
+		if (len == 0)
+			return doc;
+		char[] chars = new char[len];
+		if (text instanceof String)
+			((String) text).getChars(0, len, chars, 0);
+		else if (text instanceof StringBuilder)
+			((StringBuilder) text).getChars(0, len, chars, 0);
+		else if (text instanceof MappedLogText)
+			((MappedLogText) text).getChars(0, len, chars, 0);
+		else
+			for (int i = 0; i < len; i++) {
+				chars[i] = text.charAt(i);
+			}
+
+		// Paragraphs resolve through the default style, as with insertString(), so the text pane's font applies
+		SimpleAttributeSet para = new SimpleAttributeSet();
+		para.setResolveParent(doc.getStyle(StyleContext.DEFAULT_STYLE));
+		ArrayList<DefaultStyledDocument.ElementSpec> specs = new ArrayList<>(len / 16);
+		specs.add(new DefaultStyledDocument.ElementSpec(null, DefaultStyledDocument.ElementSpec.StartTagType));  // The root
+		Runs runs = new Runs();
+		int lastLine = len;  // Start of a last line that has no newline; it is appended afterwards
+		while (lastLine > 0 && chars[lastLine - 1] != '\n') {
+			lastLine--;
+		}
+		int start = 0;
+		while (start < lastLine) {
+			int end = start;
+			while (end < len && chars[end] != '\n') {
+				end++;
+			}
+			int next = end + 1;  // The newline belongs to the last run of the line
+			runs.split(new String(chars, start, end - start));
+			specs.add(new DefaultStyledDocument.ElementSpec(para, DefaultStyledDocument.ElementSpec.StartTagType));
+			for (int r = 0; r < runs.count; r++) {
+				int from = start + runs.starts[r];
+				int to = (r + 1 < runs.count) ? start + runs.starts[r + 1] : next;
+				if (to > from)
+					specs.add(new Run(runs.styles[r], chars, from, to - from));
+			}
+			specs.add(new DefaultStyledDocument.ElementSpec(null, DefaultStyledDocument.ElementSpec.EndTagType));
+			start = next;
+		}
+		doc.load(specs.toArray(new DefaultStyledDocument.ElementSpec[specs.size()]));
+		if (lastLine < len) {
+			try {
+				append(doc, new String(chars, lastLine, len - lastLine));
+			} catch (BadLocationException e) {
+				System.out.println(e);
+			}
+		}
+		return doc;
+	}
+
+	/**
+	 * Appends styled lines to the end of a document, e.g. lines that were just written to the log.  Meant for a
+	 * few lines at a time; whole logs go through build().
+	 * @param doc  the document (on the event dispatch thread if it is shown)
+	 * @param text  the new lines
+	 */
+	public static void append(StyledDocument doc, String text) throws BadLocationException {
+		Runs runs = new Runs();
+		int start = 0;
+		while (start < text.length()) {
+			int end = text.indexOf('\n', start);
+			int next = (end < 0) ? text.length() : end + 1;
+			String line = text.substring(start, (end < 0) ? next : end);
+			runs.split(line);
+			for (int r = 0; r < runs.count; r++) {
+				int to = (r + 1 < runs.count) ? runs.starts[r + 1] : next - start;
+				if (to > runs.starts[r])
+					doc.insertString(doc.getLength(), text.substring(start + runs.starts[r], start + to), runs.styles[r]);
+			}
+			start = next;
+		}
+	}
+
+	/**
+	 * @param line  a log line
+	 * @return  the style of the body of the line (what follows the timestamp), for views that use one color per line
+	 */
+	public static AttributeSet lineStyle(String line) {
+		Runs runs = new Runs();
+		runs.split(line);
+		return runs.styles[runs.count - 1];
+	}
+
+	/**
+	 * The styled runs of one line
+	 */
+	private static class Runs {
+		int[] starts = new int[4];  // Start of each run in the line
+		AttributeSet[] styles = new AttributeSet[4];
+		int count;
+		final int[] key = new int[2];  // Scratch for CombatEvent.parse()
+
+		private void add(int start, AttributeSet style) {
+			starts[count] = start;
+			styles[count] = style;
+			count++;
+		}
+
+		/**
+		 * Splits a line into runs, e.g. "[12:00:00] [Combat] <Name> hello" into time, channel, player and plain
+		 * @param line  the line without its newline
+		 */
+		void split(String line) {
+			count = 0;
+			if (line.startsWith("Logging started")) {
+				add(0, SYSTEM);
+				return;
+			}
+			int pos = 0;
+			if (line.length() >= 10 && line.charAt(0) == '[' && line.charAt(9) == ']') {
+				add(0, TIME);
+				pos = 10;
+			}
+			if (line.startsWith(" [", pos)) {  // Channel tagged by Timeline.tag()
+				int close = line.indexOf(']', pos + 2);
+				if (close > 0) {
+					add(pos, CHANNEL);
+					pos = close + 1;
+				}
+			}
+			int body = (pos < line.length() && line.charAt(pos) == ' ') ? pos + 1 : pos;
+			int gt;
+			if (line.startsWith("<", body) && (gt = line.indexOf('>', body)) > 0) {  // Chat: "<Name> text"
+				add(pos, PLAYER);
+				add(gt + 1, PLAIN);
+				return;
+			}
+			int slain = line.indexOf(" slain by ", body);
+			if (slain > body) {  // "Name slain by Killer Killer"
+				add(pos, PLAYER);
+				add(slain, DEATH);
+				return;
+			}
+			if (line.indexOf(" increased ", body) > 0) {  // "Mining increased  to 9"
+				add(pos, SKILL);
+				return;
+			}
+			CombatEvent event = CombatEvent.parse(line, body, line.length(), key);
+			add(pos, (event == CombatEvent.HIT_TAKEN) ? HIT_TAKEN : (event == CombatEvent.HIT_DEALT) ? HIT_DEALT : PLAIN);
+		}
+	}
+}
@@ -0,0 +1,333 @@
+package wurmlogs;
+
+import java.awt.Component;
+import java.awt.Font;
+import java.util.Arrays;
+
+import javax.swing.AbstractListModel;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JComponent;
+import javax.swing.JList;
+import javax.swing.JScrollPane;
+import javax.swing.JTextPane;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+
+/**
+ * @author Kevin Bechman
+ * The view of one log on a tab of the GUI.  The components of a LogTab are made once and reused for every date
+ * it shows, and its text is only put into them when the tab is first selected (fill()), so the tabs of a date
+ * the user never opens cost nothing but a reference to the text the Engine decoded.
+ *
+ * Logs up to LARGE_TEXT chars are shown in a JTextPane, so any part of them can be selected and copied; their
+ * styled document is built off the event dispatch thread by LogStyler and swapped in when done.
+ * Larger logs, and any log the Engine mapped rather than decoded (MappedLogText), are shown in a JList over a
+ * LineModel, which only turns the lines in view into Strings; with a fixed cell size the list never measures the
+ * other lines, so a channel of millions of lines opens at once and Swing holds no copy of it.  A mapped log is
+ * never styled, since its document would copy the whole text onto the heap.
+ */
+public class LogTab {
+	static final int LARGE_TEXT = 1 << 17;  // Chars above which a log is shown one line per list cell (about 50 ms in a JTextPane)
+	private static final Font FONT = new Font(Font.SANS_SERIF, Font.PLAIN, 14);
+
+	private final JScrollPane scroll;
+	private JTextPane textPane;  // Made when first needed, as is lineList
+	private JList<String> lineList;
+	private LineModel lines;  // Model of lineList while it is in view
+
+	private CharSequence text;  // Text to show, until filled
+	private StringBuilder appended;  // Lines appended before the tab was filled
+	private boolean filled;
+	private SwingWorker<StyledDocument, Void> styling;  // Builds the styled document of the text pane, while it runs
+
+	public LogTab() {
+		scroll = new JScrollPane();
+	}
+
+	public JComponent getComponent() {
+		return scroll;
+	}
+
+	/**
+	 * Gives the tab a new log to show, and releases the text shown before.  The text is not put into the view
+	 * until fill() is called.
+	 * @param text  the log text
+	 */
+	public void setText(CharSequence text) {
+		this.text = text;
+		appended = null;
+		filled = false;
+		styling = null;  // A document still being styled for the old text is dropped when done
+		if (textPane != null && textPane.getDocument().getLength() > 0)
+			textPane.setDocument(new DefaultStyledDocument());  // Drop the old document rather than empty it
+		lines = null;
+		if (lineList != null)
+			lineList.setModel(new LineModel(""));
+		// The view stays in the scroll pane (emptied), since putting a view back in costs more than filling it
+	}
+
+	public boolean isFilled() {
+		return filled;
+	}
+
+	/**
+	 * Puts the text into the view, unless that was already done
+	 */
+	public void fill() {
+		if (filled)
+			return;
+		filled = true;
+		int length = text.length() + ((appended == null) ? 0 : appended.length());
+		if (length > LARGE_TEXT || text instanceof MappedLogText) {
+			if (lineList == null) {
+				lineList = new JList<>();
+				lineList.setFont(FONT);
+				lineList.setCellRenderer(new LineRenderer());
+			}
+			lines = new LineModel(text);  // Appended lines go in its own buffer, so the text is not copied
+			if (appended != null)
+				lines.append(appended.toString());
+			text = null;
+			appended = null;
+			lineList.setModel(lines);
+			lineList.setPrototypeCellValue(lines.getLongestLine());  // Fixes the cell size
+			if (scroll.getViewport().getView() != lineList)
+				scroll.setViewportView(lineList);
+		} else {
+			if (textPane == null) {
+				textPane = new JTextPane();
+				textPane.setEditable(false);
+				textPane.setFont(FONT);
+			}
+			if (scroll.getViewport().getView() != textPane)
+				scroll.setViewportView(textPane);
+			final CharSequence styled = (appended == null) ? text
+					: new StringBuilder(text.length() + appended.length()).append(text).append(appended);
+			text = null;
+			appended = null;
+			styling = new SwingWorker<StyledDocument, Void>() {
+				@Override
+				protected StyledDocument doInBackground() {
+					return LogStyler.build(styled);
+				}
+
+				@Override
+				protected void done() {
+					if (styling == this)
+						showDocument(this);
+				}
+			};
+			styling.execute();
+			return;
+		}
+		scrollToTop();
+	}
+
+	/**
+	 * Waits until a document being styled in the background is in the text pane (for benchmarks; must not be
+	 * called on the event dispatch thread)
+	 * @throws Exception  if waiting is interrupted or the styling failed
+	 */
+	void awaitStyled() throws Exception {
+		final SwingWorker<StyledDocument, Void> worker = styling;
+		if (worker == null)
+			return;
+		worker.get();
+		final boolean[] shown = new boolean[1];
+		while (!shown[0]) {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+					shown[0] = (styling != worker);  // done() is queued on the event thread after get() returns
+				}
+			});
+		}
+	}
+
+	/**
+	 * Swaps the document built in the background into the text pane, with the lines appended meanwhile
+	 */
+	private void showDocument(SwingWorker<StyledDocument, Void> worker) {
+		styling = null;
+		try {
+			StyledDocument doc = worker.get();
+			if (appended != null)
+				LogStyler.append(doc, appended.toString());
+			appended = null;
+			textPane.setDocument(doc);
+		} catch (Exception e) {
+			System.out.println("Error styling log: " + e);
+		}
+		scrollToTop();
+	}
+
+	private void scrollToTop() {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				scroll.getVerticalScrollBar().setValue(0);  // Once the new view has been laid out
+			}
+		});
+	}
+
+	/**
+	 * Adds lines that were just written to the log
+	 * @param s  the new lines
+	 */
+	public void append(String s) {
+		if (!filled || styling != null) {
+			if (appended == null)
+				appended = new StringBuilder();
+			appended.append(s);
+		} else if (lines != null) {
+			int longest = lines.getLongestLength();
+			lines.append(s);
+			if (lines.getLongestLength() > longest)
+				lineList.setPrototypeCellValue(lines.getLongestLine());
+		} else {
+			try {
+				LogStyler.append(textPane.getStyledDocument(), s);
+			} catch (Exception e) {
+				System.out.println(e);
+			}
+		}
+	}
+
+	/**
+	 * Colors each line of the list by the style LogStyler gives its body.  Only the lines in view are rendered, so
+	 * this runs for a screenful of lines at a time.
+	 */
+	private static class LineRenderer extends DefaultListCellRenderer {
+		private static final long serialVersionUID = -6722608440152225337L;
+
+		@Override
+		public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+				boolean cellHasFocus) {
+			super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+			if (!isSelected) {
+				AttributeSet style = LogStyler.lineStyle((String) value);
+				if (style.isDefined(StyleConstants.Foreground))
+					setForeground(StyleConstants.getForeground(style));
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * The lines of a log as a list model.  Only the start of each line is kept; a line is turned into a String
+	 * when the list asks for it.  Appended lines are kept in a separate buffer so the Engine's text is not copied.
+	 */
+	static class LineModel extends AbstractListModel<String> {
+		private static final long serialVersionUID = 4133127316482460937L;
+		private final CharSequence base;
+		private final StringBuilder tail = new StringBuilder();
+		private int[] starts = new int[16];  // Start of each line, and the end of the last one
+		private int count;  // Number of lines
+		private int longest;  // Index of the longest line
+		private int longestLength;
+
+		LineModel(CharSequence text) {
+			base = text;
+			if (text instanceof MappedLogText) {  // Its lines are already indexed
+				MappedLogText mapped = (MappedLogText) text;
+				for (int i = 0; i < mapped.lineCount(); i++) {
+					int end = (i + 1 < mapped.lineCount()) ? mapped.lineStart(i + 1) : mapped.length();
+					addLine(mapped.lineStart(i), end - 1);
+				}
+			} else {
+				addLines(0);
+			}
+		}
+
+		/**
+		 * Indexes the lines from a position to the end of the text
+		 */
+		private void addLines(int from) {
+			int len = length();
+			int start = from;
+			for (int i = from; i < len; i++) {
+				if (charAt(i) == '\n') {
+					addLine(start, i);
+					start = i + 1;
+				}
+			}
+			if (start < len)
+				addLine(start, len);  // Last line without a newline
+		}
+
+		private void addLine(int start, int end) {
+			if (count + 2 > starts.length)
+				starts = Arrays.copyOf(starts, starts.length * 2);
+			starts[count] = start;
+			starts[count + 1] = end;
+			int length = lineEnd(count) - start;
+			if (count == 0 || length > longestLength) {
+				longest = count;
+				longestLength = length;
+			}
+			count++;
+		}
+
+		/**
+		 * @return  end of a line, not counting its newline
+		 */
+		private int lineEnd(int i) {
+			int end = (i + 1 < count) ? starts[i + 1] - 1 : starts[i + 1];
+			return (end > starts[i] && charAt(end - 1) == '\r') ? end - 1 : end;
+		}
+
+		private int length() {
+			return base.length() + tail.length();
+		}
+
+		private char charAt(int i) {
+			return (i < base.length()) ? base.charAt(i) : tail.charAt(i - base.length());
+		}
+
+		/**
+		 * Appends lines to the end of the text
+		 * @param s  the new lines
+		 */
+		void append(String s) {
+			int len = length();
+			boolean continued = count > 0 && charAt(len - 1) != '\n';  // The last line goes on with the new text
+			if (continued) {
+				count--;
+				if (longest == count)
+					longestLength = 0;  // Measured again when the line is added back
+			}
+			int from = count;
+			tail.append(s);
+			addLines(continued ? starts[from] : len);
+			if (continued)
+				fireContentsChanged(this, from, from);
+			if (count > from + (continued ? 1 : 0))
+				fireIntervalAdded(this, from + (continued ? 1 : 0), count - 1);
+		}
+
+		int getLongestLength() {
+			return longestLength;
+		}
+
+		String getLongestLine() {
+			return (count == 0) ? "" : getElementAt(longest);
+		}
+
+		@Override
+		public int getSize() {
+			return count;
+		}
+
+		@Override
+		public String getElementAt(int index) {
+			int start = starts[index], end = lineEnd(index);
+			if (end <= base.length())
+				return base.subSequence(start, end).toString();
+			if (start >= base.length())
+				return tail.substring(start - base.length(), end - base.length());
+			return base.subSequence(start, base.length()).toString() + tail.substring(0, end - base.length());
+		}
+	}
+}
@@ -1,157 +1,442 @@
-package wurmlogs;
-
-import java.io.File;
-import java.io.RandomAccessFile;
-import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-
-/**
- * @author Kevin Bechman
- *
- */
-public class LogTracker implements Serializable {
-	private static final long serialVersionUID = 4575686813167177630L;
-	private HashMap<WTime, LogRefList> list;	// Hashmap with lists of LogRefLists as the value, WTime as key
-	private int numLogRefLists;
-	private int numLogRefs;
-	private ArrayList<WTime> allDates;	// All dates detected while indexing
-	
-	public LogTracker() {
-		list = new HashMap<>();
-		allDates = new ArrayList<WTime>();
-		numLogRefLists = numLogRefs = 0;
-	}
-	
-	/**
-	 * Gets the LogRefList assigned to the given date and returns a copy (with no references attached)
-	 * @param date the WTime class to be hashed
-	 * @return a copy of the LogRefList stored with this WTime object
-	 */
-	public LogRefList get(WTime date) {
-		WTime dateCopy = new WTime(date.year, date.month, date.day);
-		LogRefList lrl = list.get(date);
-		if (lrl == null)
-			return null;
-		LogRefList lrlCopy = new LogRefList(dateCopy);
-		for (int i=0; i<lrl.size(); i++) {
-			lrlCopy.add(lrl.get(i));
-		}
-		return lrlCopy;
-	}
-	
-	/**
-	 * Sets up the hashmap containing the lists of LogRef's
-	 * This allows a WTime date to be used as a key to return the list of log indexes and file locations for relevant logs
-	 * @param logFiles 
-	 * @throws Exception
-	 */
-	public void processDates(File[] logFiles) throws Exception {
-		System.out.println("Indexing log files...");
-		double startTime = System.nanoTime();
-		
-		// Loop through each file, opening a file reader
-		for (int i=0; i<logFiles.length; i++) {
-			//*** TEST TO SEE HOW LONG IT TAKES WHEN OMITTING EVENT/COMBAT/SKILLS ***//
-			/*String fName = logFiles[i].getName();
-			if (fName.substring(0, 4).equals("_Ski") || fName.substring(0, 4).equals("_Eve") ||
-					fName.substring(0, 4).equals("_Com")) {}*/
-			RandomAccessFile fileIn = new RandomAccessFile(logFiles[i], "r");
-			long pointerPos = 0;	// Beginning of file (file should always start with "Logging")
-			String line = fileIn.readLine();
-			
-			// For every line in the file, check if it is a Logging statement.
-			// If so, record the login date, find its spot in the hashmap, and add the LRL if it does not already exist.
-			// If the LRL does exist, add it (with the new LogRef)
-			while(line != null) {
-				if (line.length() >= 26 && line.substring(0, 7).equals("Logging")) {
-					// Create object representing this Logging date
-					WTime loginDate = new WTime(Integer.parseInt(line.substring(16, 20)), 
-											    Integer.parseInt(line.substring(21, 23)), 
-												Integer.parseInt(line.substring(24, 26)));
-					recordDate(loginDate);  // Record the date in convenience list of dates
-					LogRefList lrl = new LogRefList(loginDate);
-					LogRef ref = new LogRef(i, pointerPos);
-					LogRefList newLRL = list.get(loginDate);  // Index of LRL representing this given Logging date
-					if (newLRL != null) {	// If the LRL exists in the HashMap
-						lrl = newLRL;	// Assign to 'lrl' the LRL in the hashmap represented by this date
-						// If the LRL does not yet contain a LogRef of this specific file index, add the LogRef
-						if (!lrl.contains(ref)) {
-							//System.out.println("lrl "+lrl.date+" "+lrl.size());
-							lrl.add(ref);
-							numLogRefs++;
-						}
-					}
-					// If Date is not in the HashMap, begin the new LRL with the log reference and add the LRL to the hashmap
-					else {	
-						lrl.add(ref);
-						list.put(loginDate, lrl);
-						numLogRefs++;
-						numLogRefLists++;
-					}
-				}
-				pointerPos = fileIn.getFilePointer();
-				line = fileIn.readLine();
-			}
-			fileIn.close();
-		}
-		System.out.println("Indexing files took " + (System.nanoTime() - startTime)/1000000000 + " seconds.");
-	}
-	
-	/**
-	* Adds new date to list of all dates if it is not already there.
-	* If the date is already in the hashmap, it has already been added to the list
-	*/
-	public void recordDate(WTime date) {
-		if (list.get(date) == null) {
-			allDates.add(date);
-		}
-	}
-	
-	/**
-	 * Returns a list of all dates recorded from the logs processed
-	 * @return
-	 */
-	public String listDates() {
-		String ret = "";
-		for (WTime t : allDates) {
-			ret += t.toString() + "\n";
-		}
-		return ret;
-	}
-	
-	/**
-	* Orders the dates chronologically according to WTime's compareTo() method
-	*/
-	public void orderDates() {
-		// Convert ArrayList to array of WTime objects
-		WTime[] arr = new WTime[allDates.size()];
-		for (int i=0; i<allDates.size(); i++) {
-			arr[i] = allDates.get(i);
-		}
-		// Sort the array
-		Arrays.sort(arr);
-		// Convert the array back into an ArrayList
-		ArrayList<WTime> newList = new ArrayList<>();
-		for (int i=0; i<arr.length; i++) {
-			newList.add(arr[i]);
-		}
-		// Reassign ordered list to old object
-		allDates = newList;
-	}
-	
-	/**
-	 * Returns String with hashmap book-keeping
-	 * @return the String object
-	 */
-	public String getStats() {
-		return "LogRefLists: " + numLogRefLists + "\n" +
-			   "LogRefs: " + numLogRefs;
-	}
-	
-	@Override
-	public String toString() {
-		return list.toString();
-	}
-}
+package wurmlogs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * @author Kevin Bechman
+ * Keeps track of which files (and which parts of them) hold the logs of each date.
+ * The lookup structure is a DateIndex of sorted primitive arrays, which is built from the per-file indexes
+ * whenever files are indexed.  Files that grow while the game writes to them only update the end of their last
+ * segment in it, or add their new segments to its tail.  Each file also has a search index of the terms in its segments,
+ * with the terms numbered by one TermDictionary for the whole directory.
+ */
+public class LogTracker implements Serializable {
+	private static final long serialVersionUID = 4575686813167177630L;
+	private volatile DateIndex dateIndex;	// Sorted index of all dates and their LogRefs
+	private int parallelism;	// Number of threads used when indexing files
+	private transient ArrayList<FileIndex> fileIndexes;	// Per-file indexes, kept so files can be updated as they grow
+	private transient TermDictionary dictionary;	// Ids of the search terms of all files
+	private transient EngineStats stats;	// Receives indexing metrics (may be null)
+	
+	public LogTracker() {
+		dateIndex = DateIndex.EMPTY;
+		parallelism = Runtime.getRuntime().availableProcessors();
+		fileIndexes = new ArrayList<>();
+		dictionary = new TermDictionary();
+	}
+	
+	/**
+	 * Gets the LogRefList assigned to the given date.  The list is a read-only view of the current index.
+	 * @param date the date to look up
+	 * @return the LogRefList of this date, or null if there are no logs for it
+	 */
+	public LogRefList get(WTime date) {
+		DateIndex index = dateIndex;
+		int slot = index.find(date.toKey());
+		if (slot < 0)
+			return null;
+		return new LogRefList(date, index, slot);
+	}
+	
+	/**
+	 * Returns the current index.  It never changes, so callers can use it for a whole query without locking.
+	 * @return the current DateIndex
+	 */
+	public DateIndex getIndex() {
+		return dateIndex;
+	}
+	
+	/**
+	 * Background task that indexes a range of the log files, splitting the range in half until
+	 * only one file is left.  Each file's result goes into its own slot of the results array.
+	 */
+	private static class IndexTask extends RecursiveAction {
+		private static final long serialVersionUID = -2301817650212389264L;
+		private final File[] logFiles;
+		private final FileIndex[] results;
+		private final TermDictionary dict;
+		private final EngineStats stats;
+		private final int lo, hi;  // Range of file indexes handled by this task [lo, hi)
+		
+		IndexTask(File[] logFiles, FileIndex[] results, TermDictionary dict, EngineStats stats, int lo, int hi) {
+			this.logFiles = logFiles;
+			this.results = results;
+			this.dict = dict;
+			this.stats = stats;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		
+		@Override
+		protected void compute() {
+			if (hi - lo == 1) {
+				try {
+					long startTime = System.nanoTime();
+					long startLength = 0;
+					if (results[lo] == null) {
+						results[lo] = FileIndex.scan(logFiles[lo], lo, dict);
+					} else if (!results[lo].isFresh(logFiles[lo])) {  // Saved index of a file that has grown since
+						startLength = results[lo].getIndexedLength();
+						results[lo].update(logFiles[lo], -1, null);
+					} else {
+						return;
+					}
+					if (stats != null)
+						stats.fileIndexed(logFiles[lo].getName(), Math.max(0, results[lo].getIndexedLength() - startLength),
+								results[lo].getLinesRead(), System.nanoTime() - startTime);
+				} catch (IOException e) {
+					throw new UncheckedIOException("Error indexing " + logFiles[lo].getName(), e);
+				}
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new IndexTask(logFiles, results, dict, stats, lo, mid), new IndexTask(logFiles, results, dict, stats, mid, hi));
+		}
+	}
+	
+	/**
+	 * Sets up the date index containing the LogRefs of every date
+	 * This allows a WTime date to be used as a key to return the list of log indexes and file locations for relevant logs
+	 * Each file is indexed on its own in a fork/join pool, and the per-file results are then combined in file order.
+	 * @param logFiles 
+	 * @throws Exception
+	 */
+	public void processDates(File[] logFiles) throws Exception {
+		processDates(logFiles, null);
+	}
+	
+	/**
+	 * Same as processDates(File[]), but first loads the saved index and only re-indexes the files that are
+	 * new or have changed since it was written.  The index is saved again afterwards if anything changed.
+	 * @param logFiles 
+	 * @param store  the saved index to use, or null to index every file
+	 * @throws Exception
+	 */
+	public void processDates(File[] logFiles, IndexStore store) throws Exception {
+		System.out.println("Indexing log files...");
+		double startTime = System.nanoTime();
+		
+		FileIndex[] results = new FileIndex[logFiles.length];
+		int reused = 0;
+		TermDictionary dict = new TermDictionary();  // Starts over, so terms of files that are gone are dropped
+		HashMap<String, FileIndex> saved = (store == null) ? new HashMap<String, FileIndex>() : store.load(dict);
+		for (int i=0; i<logFiles.length; i++) {
+			FileIndex index = saved.get(logFiles[i].getName());
+			if (index != null) {
+				// Stale entries are kept too; the indexing task then only scans what was appended to the file
+				results[i] = index.withFileIndex(i);
+				if (index.isFresh(logFiles[i]))
+					reused++;
+			}
+		}
+		if (store != null)
+			System.out.println("Loaded " + reused + " of " + logFiles.length + " files from saved index.");
+		
+		if (reused < logFiles.length) {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				pool.invoke(new IndexTask(logFiles, results, dict, stats, 0, logFiles.length));
+			} finally {
+				pool.shutdown();
+			}
+		}
+		
+		// Build the date index from the per-file results, in file order
+		synchronized (this) {
+			fileIndexes = new ArrayList<>(Arrays.asList(results));
+			dictionary = dict;
+			dateIndex = DateIndex.build(fileIndexes);
+		}
+		
+		// Save again if any file was (re-)indexed or a file has disappeared since the last save
+		if (store != null && !store.isReadOnly() && (reused < logFiles.length || saved.size() != logFiles.length)) {
+			try {
+				store.save(logFiles, results, dict);
+			} catch (IOException e) {
+				System.out.println("Could not save index to " + store.getFile() + ": " + e.getMessage());
+			}
+		}
+		if (stats != null)
+			stats.indexingDone((long) (System.nanoTime() - startTime));
+		System.out.println("Indexing files took " + (System.nanoTime() - startTime)/1000000000 + " seconds.");
+	}
+	
+	/**
+	 * Brings the index of a file up to date after it has been appended to, and adds any new segments to the date index.
+	 * Only the appended part of the file is read.
+	 * @param fileIndex  index of the file in the main file list
+	 * @param file  the log file
+	 * @param watchDate  date whose appended lines should be collected, or null for none
+	 * @param appended  receives the appended lines that fall under watchDate (may be null)
+	 * @return  the number of new segments found in the file
+	 * @throws IOException
+	 */
+	public synchronized int updateFile(int fileIndex, File file, WTime watchDate, StringBuilder appended) throws IOException {
+		FileIndex index = fileIndexes.get(fileIndex);
+		int before = index.size();
+		int restarts = index.getRestarts();
+		long lastStart = (before > 0) ? index.startAt(before - 1) : -1;
+		long lastEnd = (before > 0) ? index.endAt(before - 1) : -1;
+		int added = index.update(file, watchDate == null ? -1 : watchDate.toKey(), appended);
+		if (index.getRestarts() != restarts) {
+			// The file was truncated or rewritten and indexed again, so the date index is rebuilt
+			dateIndex = DateIndex.build(fileIndexes);
+		} else if (index.size() > before) {
+			// New segments, which are usually of the last dates, so only the tail of the date index is copied
+			DateIndex grown = dateIndex.withSegments(index, before);
+			dateIndex = (grown != null) ? grown : DateIndex.build(fileIndexes);
+		} else if (before > 0 && index.endAt(before - 1) != lastEnd) {
+			// The last segment has only grown, which is seen by readers of the current date index right away
+			if (!dateIndex.growLast(fileIndex, lastStart, index.endAt(before - 1)))
+				dateIndex = DateIndex.build(fileIndexes);
+		}
+		return added;
+	}
+	
+	/**
+	 * Indexes a log file that was created after the main indexing was done and adds it to the end of the file list
+	 * @param file  the new log file
+	 * @return  the index given to the file in the main file list
+	 * @throws IOException
+	 */
+	public synchronized int addFile(File file) throws IOException {
+		int fileIndex = fileIndexes.size();
+		fileIndexes.add(FileIndex.empty(fileIndex, dictionary, file));
+		updateFile(fileIndex, file, null, null);
+		return fileIndex;
+	}
+	
+	/**
+	 * Finds the lines that contain every one of the given terms.  The result is only a set of candidates:
+	 * the terms may not be in the order of the query's phrases, so the lines still have to be checked.
+	 * @param terms  the (lowercase) terms to look for
+	 * @return  for each file (by file index), the locations of the matching lines in increasing order
+	 */
+	public synchronized long[][] findLines(List<String> terms) {
+		long[][] matches = new long[fileIndexes.size()][];
+		int[] ids = new int[terms.size()];
+		for (int i=0; i<ids.length; i++) {
+			ids[i] = dictionary.find(terms.get(i));
+		}
+		// Intersect the sorted postings lists of each file
+		for (int f=0; f<matches.length; f++) {
+			TermIndex termIndex = fileIndexes.get(f).getTerms();
+			if (termIndex == null || ids.length == 0 || ids[0] < 0) {  // A term that occurs nowhere matches nothing
+				matches[f] = new long[0];
+				continue;
+			}
+			long[] lines = termIndex.linesOf(ids[0]);
+			for (int i=1; i<ids.length && lines.length > 0; i++) {
+				lines = (ids[i] < 0) ? new long[0] : intersect(lines, termIndex.linesOf(ids[i]));
+			}
+			matches[f] = lines;
+		}
+		return matches;
+	}
+	
+	private static long[] intersect(long[] a, long[] b) {
+		long[] out = new long[Math.min(a.length, b.length)];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j])
+				i++;
+			else if (a[i] > b[j])
+				j++;
+			else {
+				out[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(out, n);
+	}
+	
+	/**
+	 * Gathers the recorded changes of a skill from every _Skills log, without reading any log text
+	 * @param skill  name of the skill, as written in the logs (e.g. "Firemaking")
+	 * @return  the changes of the skill in time order (empty if the skill never changed)
+	 */
+	public synchronized SkillHistory skillHistory(String skill) {
+		int id = dictionary.find(skill);
+		int count = 0;
+		for (FileIndex index : fileIndexes) {
+			SkillColumns skills = index.getSkills();
+			for (int i = 0; id >= 0 && skills != null && i < skills.size(); i++) {
+				if (skills.skillAt(i) == id)
+					count++;
+			}
+		}
+		// Sort by time; the position is kept in the low bits so changes with the same time stay in file order
+		long[] order = new long[count];
+		float[] found = new float[count];
+		int k = 0;
+		for (FileIndex index : fileIndexes) {
+			SkillColumns skills = index.getSkills();
+			for (int i = 0; id >= 0 && skills != null && i < skills.size(); i++) {
+				if (skills.skillAt(i) == id) {
+					order[k] = ((long) skills.timeAt(i) << 32) | k;
+					found[k] = skills.valueAt(i);
+					k++;
+				}
+			}
+		}
+		Arrays.sort(order);
+		int[] times = new int[count];
+		float[] values = new float[count];
+		for (int i=0; i<count; i++) {
+			times[i] = (int) (order[i] >> 32);
+			values[i] = found[(int) order[i]];
+		}
+		return new SkillHistory(skill, times, values);
+	}
+	
+	/**
+	 * @return  the names of all skills found in the _Skills logs, sorted
+	 */
+	public synchronized String[] skillNames() {
+		TreeSet<String> names = new TreeSet<>();
+		for (FileIndex index : fileIndexes) {
+			SkillColumns skills = index.getSkills();
+			for (int i = 0; skills != null && i < skills.size(); i++) {
+				names.add(dictionary.term(skills.skillAt(i)));
+			}
+		}
+		return names.toArray(new String[names.size()]);
+	}
+	
+	/**
+	 * Adds up the combat events of all _Combat logs over a range of dates, from the per-day rollups
+	 * @param from  first date
+	 * @param to  last date (inclusive)
+	 * @return  the total counts
+	 */
+	public synchronized CombatRollup combatTotals(WTime from, WTime to) {
+		CombatRollup total = new CombatRollup(dictionary);
+		for (FileIndex index : fileIndexes) {
+			if (index.getCombat() != null)
+				index.getCombat().addTo(from.toKey(), to.toKey(), total);
+		}
+		return total;
+	}
+	
+	/**
+	 * Gives the combat events of all _Combat logs for each date in a range, from the per-day rollups
+	 * @param from  first date
+	 * @param to  last date (inclusive)
+	 * @return  the counts of each date that has combat events, by packed date
+	 */
+	public synchronized TreeMap<Integer, CombatRollup> combatByDay(WTime from, WTime to) {
+		TreeMap<Integer, CombatRollup> days = new TreeMap<>();
+		for (FileIndex index : fileIndexes) {
+			if (index.getCombat() != null)
+				index.getCombat().addTo(from.toKey(), to.toKey(), days);
+		}
+		return days;
+	}
+	
+	/**
+	 * Narrows a LogRef down to the bytes that can hold the lines of a time window (see FileIndex.timeWindow())
+	 * @param ref  LogRef of a date
+	 * @param from  start of the window in seconds since midnight
+	 * @param to  end of the window (inclusive) in seconds since midnight
+	 * @return  the narrowed byte ranges, in file order
+	 */
+	public synchronized LogRef[] timeWindow(LogRef ref, int from, int to) {
+		return fileIndexes.get(ref.fileIndex).timeWindow(ref.loc, ref.end, from, to);
+	}
+	
+	/**
+	 * Checks whether a file has changed since it was last indexed
+	 * @param fileIndex  index of the file in the main file list
+	 * @param file  the log file
+	 * @return  true if the file is unchanged
+	 */
+	public synchronized boolean isFresh(int fileIndex, File file) {
+		return fileIndexes.get(fileIndex).isFresh(file);
+	}
+	
+	/**
+	 * Sets the number of threads used to index files
+	 * @param threads  number of worker threads (at least 1)
+	 */
+	public void setParallelism(int threads) {
+		parallelism = Math.max(1, threads);
+	}
+	
+	/**
+	 * Finds the closest recorded date before or after the given date
+	 * @param date  the date to start from (does not need to be recorded itself)
+	 * @param direction  1 for the next date, -1 for the previous date
+	 * @return  the adjacent date, or null if there is none in that direction
+	 */
+	public WTime adjacentDate(WTime date, int direction) {
+		DateIndex index = dateIndex;
+		int slot = index.adjacent(date.toKey(), direction);
+		return (slot < 0) ? null : WTime.fromKey(index.dateAt(slot));
+	}
+	
+	/**
+	 * Returns a list of all dates recorded from the logs processed, in chronological order
+	 * @return
+	 */
+	public String listDates() {
+		DateIndex index = dateIndex;
+		StringBuilder ret = new StringBuilder();
+		for (int i=0; i<index.dateCount(); i++) {
+			ret.append(WTime.fromKey(index.dateAt(i))).append("\n");
+		}
+		return ret.toString();
+	}
+	
+	/**
+	 * Sets where indexing metrics are recorded
+	 * @param stats  the metrics, or null to record none
+	 */
+	public void setStats(EngineStats stats) {
+		this.stats = stats;
+	}
+	
+	/**
+	 * @return  estimated heap size in bytes of the date index and all per-file indexes
+	 */
+	public synchronized long memoryBytes() {
+		long bytes = dateIndex.memoryBytes();
+		for (FileIndex index : fileIndexes) {
+			bytes += index.memoryBytes();
+		}
+		return bytes;
+	}
+	
+	/**
+	 * @return  the number of terms in the dictionary of the search index
+	 */
+	public synchronized int dictionarySize() {
+		return dictionary.size();
+	}
+	
+	/**
+	 * Returns String with index book-keeping
+	 * @return the String object
+	 */
+	public String getStats() {
+		DateIndex index = dateIndex;
+		return "LogRefLists: " + index.dateCount() + "\n" +
+			   "LogRefs: " + index.refCount();
+	}
+	
+	@Override
+	public String toString() {
+		return listDates();
+	}
+}
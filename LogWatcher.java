@@ -0,0 +1,92 @@
+package wurmlogs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Kevin Bechman
+ * Background thread that watches the main directory while the game is still writing to the logs.
+ * Changed and newly created files are handed to the Engine, which indexes only what was appended.
+ * Since some platforms deliver file events late (or not at all), every known file is also checked
+ * for changes whenever no event has come in for the poll interval.
+ */
+public class LogWatcher implements Runnable {
+	public static final long DEFAULT_POLL_SECONDS = 5;
+
+	private final Engine engine;
+	private final Path dir;
+	private final long pollSeconds;
+	private WatchService watchService;
+	private Thread thread;
+	private volatile boolean running;
+
+	public LogWatcher(Engine engine, File dir, long pollSeconds) {
+		this.engine = engine;
+		this.dir = dir.toPath();
+		this.pollSeconds = pollSeconds;
+		running = false;
+	}
+
+	/**
+	 * Registers the directory with the file system's watch service and starts the watcher thread
+	 * @throws IOException
+	 */
+	public void start() throws IOException {
+		watchService = dir.getFileSystem().newWatchService();
+		dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		running = true;
+		thread = new Thread(this, "LogWatcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the watcher thread
+	 */
+	public void stop() {
+		running = false;
+		try {
+			if (watchService != null)
+				watchService.close();  // Wakes the thread if it is waiting for an event
+		} catch (IOException e) {
+			System.out.println("Error closing watch service: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				WatchKey key = watchService.poll(pollSeconds, TimeUnit.SECONDS);
+				if (key == null) {
+					engine.checkForChanges(false);
+					continue;
+				}
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						engine.checkForChanges(true);  // Events were lost, so look at the whole directory
+						continue;
+					}
+					Path name = (Path) event.context();
+					engine.fileChanged(dir.resolve(name).toFile());
+				}
+				key.reset();
+			} catch (ClosedWatchServiceException | InterruptedException e) {
+				break;
+			} catch (Exception e) {
+				System.out.println("Error updating log files.");
+				e.printStackTrace();
+			}
+		}
+		running = false;
+	}
+
+	public boolean isRunning() { return running; }
+}
@@ -0,0 +1,239 @@
+package wurmlogs;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * @author Kevin Bechman
+ * Read-only text of a tab, backed by mapped regions of a log file instead of a copy on the heap.
+ * The regions are the byte ranges of the date's LogRefs; their text reads the same as RangeReader would decode it
+ * (UTF-8, line terminators converted to "\n", each region ending with a "\n").
+ *
+ * The start of every line is found once, when the text is made; after that the heap holds only the line index
+ * (two ints a line), however long the lines are.  Lines of plain ASCII, which is nearly all of a log, are read
+ * straight from the mapped bytes.  Other lines are decoded when they are read, and the last one decoded is kept
+ * for the next access.  Any number of threads may read the text at once.
+ */
+public class MappedLogText implements CharSequence {
+	private final ByteBuffer[] regions;  // Mapped byte ranges, read with absolute gets only
+	private final int[] regionFirstLine;  // Index of the first line of each region
+	private final int[] byteStarts;  // Start of each line in its region
+	private final int[] charStarts;  // Start of each line in the text, and the length of the text at the end
+	private final BitSet decoded;  // Lines that are not plain ASCII
+	private final int lineCount;
+	private volatile DecodedLine last;  // Last line that was decoded
+	// Line of the last char looked up, where reading in order finds the next one.  Threads share it without
+	// locking on purpose: an int is written whole, every value written is a valid line, and lineOf() checks the
+	// line before using it, so a hint left by another thread only costs a binary search.
+	private int hint;
+
+	/**
+	 * A decoded line, including its "\n"
+	 */
+	private static class DecodedLine {
+		final int line;
+		final char[] chars;
+
+		DecodedLine(int line, char[] chars) {
+			this.line = line;
+			this.chars = chars;
+		}
+	}
+
+	/**
+	 * Indexes the lines of the given regions
+	 * @param regions  the mapped byte ranges of the text, in order
+	 */
+	public MappedLogText(ByteBuffer[] regions) {
+		this.regions = regions;
+		regionFirstLine = new int[regions.length];
+		int[] bytes = new int[64];
+		int[] chars = new int[65];
+		BitSet nonAscii = new BitSet();
+		int n = 0;
+		int length = 0;
+		for (int g = 0; g < regions.length; g++) {
+			regionFirstLine[g] = n;
+			ByteBuffer region = regions[g];
+			int end = region.limit();
+			int start = 0;
+			while (start < end) {
+				int i = start;
+				boolean ascii = true;
+				byte b = 0;
+				while (i < end && (b = region.get(i)) != '\n' && b != '\r') {
+					if (b < 0)
+						ascii = false;
+					i++;
+				}
+				if (n + 1 >= bytes.length) {
+					bytes = Arrays.copyOf(bytes, bytes.length * 2);
+					chars = Arrays.copyOf(chars, chars.length * 2);
+				}
+				bytes[n] = start;
+				chars[n] = length;
+				if (ascii) {
+					length += i - start;
+				} else {
+					length += decode(region, start, i).length();
+					nonAscii.set(n);
+				}
+				length++;  // The "\n"
+				n++;
+				if (i < end && b == '\r' && i + 1 < end && region.get(i + 1) == '\n')
+					i++;
+				start = i + 1;
+			}
+		}
+		chars[n] = length;
+		lineCount = n;
+		byteStarts = Arrays.copyOf(bytes, n);
+		charStarts = Arrays.copyOf(chars, n + 1);
+		decoded = nonAscii;
+	}
+
+	private static String decode(ByteBuffer region, int start, int end) {
+		byte[] b = new byte[end - start];
+		ByteBuffer dup = region.duplicate();
+		dup.position(start);
+		dup.get(b);
+		return new String(b, StandardCharsets.UTF_8);  // Malformed bytes become U+FFFD, as in RangeReader
+	}
+
+	@Override
+	public int length() {
+		return charStarts[lineCount];
+	}
+
+	public int lineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * @param line  index of a line
+	 * @return  offset of the line in the text
+	 */
+	public int lineStart(int line) {
+		return charStarts[line];
+	}
+
+	/**
+	 * @return  the line holding the char at an offset of the text
+	 */
+	private int lineOf(int index) {
+		int line = hint;
+		if (index >= charStarts[line] && index < charStarts[line + 1])
+			return line;
+		line = Arrays.binarySearch(charStarts, 0, lineCount, index);
+		line = (line >= 0) ? line : -line - 2;
+		hint = line;
+		return line;
+	}
+
+	/**
+	 * @return  the region holding a line: the last region starting at or before it that is not empty
+	 */
+	private ByteBuffer regionOf(int line) {
+		int lo = 0;
+		int hi = regionFirstLine.length;
+		while (lo < hi) {  // Finds the first region starting after the line
+			int mid = (lo + hi) >>> 1;
+			if (regionFirstLine[mid] <= line)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		int g = lo - 1;
+		while (g > 0 && regionFirstLine[g] == ((g + 1 < regionFirstLine.length) ? regionFirstLine[g + 1] : lineCount)) {
+			g--;  // Skip empty regions
+		}
+		return regions[g];
+	}
+
+	/**
+	 * @return  a line that is not plain ASCII, decoded
+	 */
+	private char[] decodedLine(int line) {
+		DecodedLine d = last;
+		if (d != null && d.line == line)
+			return d.chars;
+		ByteBuffer region = regionOf(line);
+		int start = byteStarts[line];
+		int end = start;
+		byte b;
+		while (end < region.limit() && (b = region.get(end)) != '\n' && b != '\r') {
+			end++;
+		}
+		String s = decode(region, start, end);
+		char[] chars = new char[s.length() + 1];
+		s.getChars(0, s.length(), chars, 0);
+		chars[s.length()] = '\n';
+		last = new DecodedLine(line, chars);
+		return chars;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length())
+			throw new IndexOutOfBoundsException("index " + index + ", length " + length());
+		int line = lineOf(index);
+		int off = index - charStarts[line];
+		if (decoded.get(line))
+			return decodedLine(line)[off];
+		if (index == charStarts[line + 1] - 1)
+			return '\n';
+		return (char) regionOf(line).get(byteStarts[line] + off);
+	}
+
+	/**
+	 * Copies chars of the text to an array, a line at a time
+	 * @param srcBegin  offset of the first char to copy
+	 * @param srcEnd  offset just past the last char to copy
+	 * @param dst  the array to copy to
+	 * @param dstBegin  where in the array to put the first char
+	 */
+	public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+		if (srcBegin < 0 || srcEnd > length() || srcBegin > srcEnd)
+			throw new IndexOutOfBoundsException("begin " + srcBegin + ", end " + srcEnd + ", length " + length());
+		int pos = srcBegin;
+		int line = (pos < srcEnd) ? lineOf(pos) : 0;
+		while (pos < srcEnd) {
+			int lineStart = charStarts[line];
+			int lineEnd = Math.min(charStarts[line + 1], srcEnd);
+			if (decoded.get(line)) {
+				System.arraycopy(decodedLine(line), pos - lineStart, dst, dstBegin, lineEnd - pos);
+				dstBegin += lineEnd - pos;
+			} else {
+				ByteBuffer region = regionOf(line);
+				int textEnd = charStarts[line + 1] - 1;  // Where the "\n" is
+				int b = byteStarts[line] + (pos - lineStart);
+				for (int i = pos; i < lineEnd; i++) {
+					dst[dstBegin++] = (i == textEnd) ? '\n' : (char) region.get(b++);
+				}
+			}
+			pos = lineEnd;
+			line++;
+		}
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		char[] chars = new char[end - start];
+		getChars(start, end, chars, 0);
+		return new String(chars);
+	}
+
+	@Override
+	public String toString() {
+		return subSequence(0, length()).toString();
+	}
+
+	/**
+	 * @return  an estimate of the heap used by the text (the line index; the text itself is not on the heap)
+	 */
+	public long memoryBytes() {
+		return 8L * lineCount + lineCount / 8 + 16L * regions.length + 64;
+	}
+}
@@ -0,0 +1,53 @@
+package wurmlogs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @author Kevin Bechman
+ * LogInput over a plain text log, read through a FileChannel
+ */
+public class PlainLogInput implements LogInput {
+	private final FileChannel channel;
+
+	public PlainLogInput(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	}
+
+	@Override
+	public int read(ByteBuffer dst, long position) throws IOException {
+		return channel.read(dst, position);
+	}
+
+	@Override
+	public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+		long done = 0;
+		while (done < count) {
+			long n = channel.transferTo(position + done, count - done, target);
+			if (n <= 0)
+				break;
+			done += n;
+		}
+		return done;
+	}
+
+	@Override
+	public ByteBuffer map(long position, long count) throws IOException {
+		count = Math.max(0, Math.min(count, channel.size() - position));  // The file may be shorter than the index says
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, count);
+	}
+
+	@Override
+	public long size() throws IOException {
+		return channel.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
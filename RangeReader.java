@@ -0,0 +1,86 @@
+package wurmlogs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Kevin Bechman
+ * Decodes byte ranges of log files straight into a StringBuilder, through a fixed-size byte buffer and char buffer
+ * that are reused for every range.  No String is created for the text along the way, so the only full copy of a
+ * day's text is the builder itself.
+ * Line terminators are converted to "\n", and each range ends with a "\n".
+ */
+public class RangeReader {
+	public static final int CHUNK_SIZE = 1 << 16;
+
+	private final ByteBuffer bytes;
+	private final CharBuffer chars;
+	private final CharsetDecoder decoder;
+
+	public RangeReader() {
+		bytes = ByteBuffer.allocate(CHUNK_SIZE);
+		chars = CharBuffer.allocate(CHUNK_SIZE);
+		decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Reads the byte range [start, end) of a file and appends it to the builder, decoded as UTF-8
+	 * @param input  the open log file
+	 * @param start  first byte of the range
+	 * @param end  byte just past the end of the range
+	 * @param out  the builder to append to
+	 * @throws IOException
+	 */
+	public void append(LogInput input, long start, long end, StringBuilder out) throws IOException {
+		decoder.reset();
+		bytes.clear();
+		long pos = start;
+		boolean afterCR = false;  // Last char was a "\r", so a following "\n" is dropped
+		char last = '\n';
+		boolean eof = false;
+		while (!eof) {
+			int want = (int) Math.min(bytes.remaining(), end - pos);
+			int n = 0;
+			if (want > 0) {
+				int lim = bytes.limit();
+				bytes.limit(bytes.position() + want);
+				n = input.read(bytes, pos);
+				bytes.limit(lim);
+			}
+			if (n > 0)
+				pos += n;
+			eof = n <= 0 || pos >= end;  // Stops early if the file is shorter than the index says
+			bytes.flip();
+			decoder.decode(bytes, chars, eof);
+			if (eof)
+				decoder.flush(chars);
+			bytes.compact();
+
+			// Copy the decoded chars over, converting line terminators
+			chars.flip();
+			while (chars.hasRemaining()) {
+				char c = chars.get();
+				if (c == '\r') {
+					afterCR = true;
+					c = '\n';
+				} else if (c == '\n' && afterCR) {
+					afterCR = false;
+					continue;
+				} else {
+					afterCR = false;
+				}
+				out.append(c);
+				last = c;
+			}
+			chars.clear();
+		}
+		if (last != '\n')
+			out.append('\n');
+	}
+}
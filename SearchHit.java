@@ -0,0 +1,26 @@
+package wurmlogs;
+
+/**
+ * @author Kevin Bechman
+ * A single log line found by a search, with where it came from
+ */
+public class SearchHit {
+	public final WTime date;  // Logging date the line falls under
+	public final String channel;  // Tab name of the file (e.g. "Village")
+	public final int fileIndex;  // Index of file in main file list
+	public final long offset;  // Location of the start of the line in the file
+	public final String line;  // The line itself, without its terminator
+	
+	public SearchHit(WTime date, String channel, int fileIndex, long offset, String line) {
+		this.date = date;
+		this.channel = channel;
+		this.fileIndex = fileIndex;
+		this.offset = offset;
+		this.line = line;
+	}
+	
+	@Override
+	public String toString() {
+		return date + " [" + channel + "] " + line;
+	}
+}
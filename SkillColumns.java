@@ -0,0 +1,225 @@
+package wurmlogs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * @author Kevin Bechman
+ * Skill changes parsed out of a _Skills log file, e.g. "[14:41:25] Firemaking increased  to 9", kept in three
+ * parallel columns: the skill (as an id from the TermDictionary), the packed time of the change and the new value.
+ * The columns are filled while the file is indexed, so a skill's history can be answered without reading any text.
+ */
+public class SkillColumns {
+	public static final String FILE_PREFIX = "_Skills";
+	private static final long EPOCH_DAY = LocalDate.of(2000, 1, 1).toEpochDay();  // Packed times count from here
+	private static final byte[] CREASED = { 'c', 'r', 'e', 'a', 's', 'e', 'd' };
+
+	private final TermDictionary dict;
+	private int[] skills;  // Dictionary id of the skill of each change
+	private int[] times;  // Packed time of each change (see packTime())
+	private float[] values;  // Skill value after each change
+	private int size;
+
+	public SkillColumns(TermDictionary dict) {
+		this.dict = dict;
+		skills = new int[64];
+		times = new int[64];
+		values = new float[64];
+		size = 0;
+	}
+
+	/**
+	 * @param file  a log file
+	 * @return  true if the file is a _Skills log
+	 */
+	public static boolean isSkillsLog(File file) {
+		return file.getName().startsWith(FILE_PREFIX);
+	}
+
+	/**
+	 * Packs a date and time into seconds since 2000-01-01 (good until 2068)
+	 * @param dateKey  packed date (see WTime.toKey())
+	 * @param seconds  seconds since midnight of that date (may be more than a day)
+	 * @return  the packed time
+	 */
+	public static int packTime(int dateKey, int seconds) {
+		long day = LocalDate.of(dateKey / 10000, dateKey / 100 % 100, dateKey % 100).toEpochDay() - EPOCH_DAY;
+		return (int) (day * 86400 + seconds);
+	}
+
+	/**
+	 * @param packed  a packed time
+	 * @return  the date of the packed time
+	 */
+	public static WTime dateOf(int packed) {
+		LocalDate date = LocalDate.ofEpochDay(EPOCH_DAY + Math.floorDiv(packed, 86400));
+		return new WTime(date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+	}
+
+	/**
+	 * @param packed  a packed time
+	 * @return  the seconds since midnight of the packed time
+	 */
+	public static int secondsOf(int packed) {
+		return Math.floorMod(packed, 86400);
+	}
+
+	/**
+	 * Parses a line of the log and records it if it is a skill change.  Other lines are ignored.
+	 * @param buf  buffer holding the line
+	 * @param from  index of the first byte of the line
+	 * @param to  index just past the last byte of the line
+	 * @param dateKey  Logging date of the line
+	 * @param seconds  time of the line in seconds since midnight of dateKey
+	 */
+	public void addLine(byte[] buf, int from, int to, int dateKey, int seconds) {
+		int nameStart = from + 11;  // After "[HH:MM:SS] "
+		// Find " increased" or " decreased" (at is the index of its "creased")
+		int at = -1;
+		for (int i = nameStart + 1; i + CREASED.length <= to && at < 0; i++) {
+			if (buf[i] != 'c' || i - 3 <= nameStart || buf[i - 3] != ' ')
+				continue;
+			if (!(buf[i - 2] == 'i' && buf[i - 1] == 'n') && !(buf[i - 2] == 'd' && buf[i - 1] == 'e'))
+				continue;
+			int j = 0;
+			while (j < CREASED.length && buf[i + j] == CREASED[j])
+				j++;
+			if (j == CREASED.length)
+				at = i;
+		}
+		if (at < 0)
+			return;
+		int nameEnd = at - 3;
+		int i = at + CREASED.length;
+		while (i < to && buf[i] == ' ')
+			i++;
+		if (i + 2 >= to || buf[i] != 't' || buf[i + 1] != 'o' || buf[i + 2] != ' ')
+			return;
+		i += 3;
+		while (i < to && buf[i] == ' ')
+			i++;
+		// Parse the value, e.g. "9" or "23.0981"
+		double value = 0, scale = 0;
+		int digits = 0;
+		for (; i < to && buf[i] != ' ' && buf[i] != '\t'; i++) {
+			byte b = buf[i];
+			if (b == '.' && scale == 0) {
+				scale = 1;
+			} else if (b >= '0' && b <= '9') {
+				if (scale == 0) {
+					value = value * 10 + (b - '0');
+				} else {
+					scale /= 10;
+					value += (b - '0') * scale;
+				}
+				digits++;
+			} else {
+				return;  // Not a number, e.g. "to rank 1 affinity"
+			}
+		}
+		while (i < to && (buf[i] == ' ' || buf[i] == '\t'))
+			i++;
+		if (digits == 0 || i < to)
+			return;
+		add(dict.id(new String(buf, nameStart, nameEnd - nameStart, StandardCharsets.UTF_8)),
+				packTime(dateKey, seconds), (float) value);
+	}
+
+	private void add(int skill, int time, float value) {
+		if (size == skills.length) {
+			skills = Arrays.copyOf(skills, size * 2);
+			times = Arrays.copyOf(times, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		skills[size] = skill;
+		times[size] = time;
+		values[size] = value;
+		size++;
+	}
+
+	/**
+	 * Forgets all changes (the file is being indexed again from the start)
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * @return  a copy of this store that shares no mutable state with it
+	 */
+	public SkillColumns copy() {
+		SkillColumns copy = new SkillColumns(dict);
+		copy.skills = Arrays.copyOf(skills, Math.max(size, 1));
+		copy.times = Arrays.copyOf(times, Math.max(size, 1));
+		copy.values = Arrays.copyOf(values, Math.max(size, 1));
+		copy.size = size;
+		return copy;
+	}
+
+	/**
+	 * Writes the columns in the binary format used by IndexStore
+	 * @param out  the stream to write to
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(size);
+		for (int i=0; i<size; i++) {
+			out.writeInt(skills[i]);
+		}
+		for (int i=0; i<size; i++) {
+			out.writeInt(times[i]);
+		}
+		for (int i=0; i<size; i++) {
+			out.writeFloat(values[i]);
+		}
+	}
+
+	/**
+	 * Reads columns written with write(), translating the saved skill ids to the ids of the current dictionary
+	 * @param in  the stream to read from
+	 * @param dict  the current dictionary
+	 * @param savedTerms  the dictionary the columns were saved with
+	 * @return  the columns that were read
+	 * @throws IOException  if the data is malformed
+	 */
+	public static SkillColumns read(DataInput in, TermDictionary dict, String[] savedTerms) throws IOException {
+		int n = in.readInt();
+		if (n < 0)
+			throw new IOException("Bad skill count " + n);
+		SkillColumns columns = new SkillColumns(dict);
+		columns.skills = new int[Math.max(n, 1)];
+		columns.times = new int[Math.max(n, 1)];
+		columns.values = new float[Math.max(n, 1)];
+		for (int i=0; i<n; i++) {
+			int saved = in.readInt();
+			if (saved < 0 || saved >= savedTerms.length)
+				throw new IOException("Bad skill id " + saved);
+			columns.skills[i] = dict.id(savedTerms[saved]);
+		}
+		for (int i=0; i<n; i++) {
+			columns.times[i] = in.readInt();
+		}
+		for (int i=0; i<n; i++) {
+			columns.values[i] = in.readFloat();
+		}
+		columns.size = n;
+		return columns;
+	}
+
+	/**
+	 * @return  estimated heap size of the columns in bytes
+	 */
+	public long memoryBytes() {
+		return 4L * (skills.length + times.length + values.length) + 64;
+	}
+
+	public int size() { return size; }
+	public int skillAt(int i) { return skills[i]; }
+	public int timeAt(int i) { return times[i]; }
+	public float valueAt(int i) { return values[i]; }
+}
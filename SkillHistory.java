@@ -0,0 +1,67 @@
+package wurmlogs;
+
+/**
+ * @author Kevin Bechman
+ * Every recorded change of one skill, in time order.  Times are packed as in SkillColumns.
+ */
+public class SkillHistory {
+	private static final int WEEK_SECONDS = 7 * 24 * 60 * 60;
+
+	public final String skill;
+	private final int[] times;  // Packed time of each change
+	private final float[] values;  // Skill value after each change
+
+	public SkillHistory(String skill, int[] times, float[] values) {
+		this.skill = skill;
+		this.times = times;
+		this.values = values;
+	}
+
+	/**
+	 * Finds when the skill first reached a value
+	 * @param value  the value to look for
+	 * @return  the index of the first change to at least that value, or -1 if it was never reached
+	 */
+	public int firstReached(float value) {
+		for (int i=0; i<values.length; i++) {
+			if (values[i] >= value)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Gives the value the skill had at a given time
+	 * @param time  packed time
+	 * @return  the value after the last change at or before that time, or 0 if there was none yet
+	 */
+	public float valueAtTime(int time) {
+		int lo = 0, hi = times.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (times[mid] <= time)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return (lo == 0) ? 0 : values[lo - 1];
+	}
+
+	/**
+	 * Gives the average gain of the skill per week over a period
+	 * @param from  start of the period (packed time)
+	 * @param to  end of the period (packed time)
+	 * @return  the gain per week
+	 */
+	public float gainPerWeek(int from, int to) {
+		if (to <= from)
+			return 0;
+		return (valueAtTime(to) - valueAtTime(from)) * WEEK_SECONDS / (to - from);
+	}
+
+	public int size() { return times.length; }
+	public int timeAt(int i) { return times[i]; }
+	public WTime dateAt(int i) { return SkillColumns.dateOf(times[i]); }
+	public int secondsAt(int i) { return SkillColumns.secondsOf(times[i]); }
+	public float valueAt(int i) { return values[i]; }
+}
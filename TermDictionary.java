@@ -0,0 +1,53 @@
+package wurmlogs;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Kevin Bechman
+ * Gives every search term in the archive a number, so the per-file search indexes can store small ints
+ * instead of Strings.  Skill names of the _Skills logs are numbered here too.
+ * Shared by all files, and safe to use from the indexing threads at the same time.
+ */
+public class TermDictionary {
+	private final ConcurrentHashMap<String, Integer> ids;
+	private final ArrayList<String> terms;  // Term of each id
+
+	public TermDictionary() {
+		ids = new ConcurrentHashMap<>();
+		terms = new ArrayList<>();
+	}
+
+	/**
+	 * Gets the id of a term, giving it a new id if it has none yet
+	 * @param term  the (lowercase) term
+	 * @return  the term's id
+	 */
+	public int id(String term) {
+		Integer id = ids.get(term);
+		if (id != null)
+			return id;
+		synchronized (this) {
+			id = ids.get(term);
+			if (id == null) {
+				id = terms.size();
+				terms.add(term);
+				ids.put(term, id);
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * Looks up the id of a term without adding it
+	 * @param term  the (lowercase) term
+	 * @return  the term's id, or -1 if the term does not occur anywhere
+	 */
+	public int find(String term) {
+		Integer id = ids.get(term);
+		return id == null ? -1 : id;
+	}
+
+	public synchronized String term(int id) { return terms.get(id); }
+	public synchronized int size() { return terms.size(); }
+}
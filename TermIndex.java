@@ -0,0 +1,496 @@
+package wurmlogs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Kevin Bechman
+ * Search index of a single log file: for every term in the file, the locations of the lines that contain it.
+ * The lists are stored as delta-encoded varints in byte arrays (a line of a busy channel is usually only a
+ * byte or two after the last one with the same term), and terms are numbered through the shared TermDictionary.
+ * Postings are encoded a block of lines at a time, so only that many are buffered while a file is indexed and
+ * appending to a file encodes only the new lines (see addBlock()).
+ * Searching intersects these lists, which leaves only the lines that hold every term of the query, and reads
+ * just those lines to check the phrases (see LineMatcher).
+ *
+ * A term is a run of ASCII letters and digits (or non-ASCII characters), lowercased, of at least
+ * MIN_TOKEN and at most MAX_TOKEN bytes.  The "[HH:MM:SS]" timestamp at the start of a line is skipped.
+ */
+public class TermIndex {
+	public static final int MIN_TOKEN = 2;
+	public static final int MAX_TOKEN = 40;
+	private static final int FLUSH_POSTINGS = 1 << 16;  // Pending postings that are encoded into a block at once
+
+	private final TermDictionary dict;
+	private Block[] blocks;  // Encoded postings, oldest lines first
+
+	// Postings collected since the last flush, as (term id << 32 | position in pendingLines) pairs
+	private long[] pending;
+	private long[] pendingLines;  // Location of the line of each pending posting
+	private int pendingSize;
+	private TokenCache cache;  // Maps token bytes to term ids without creating Strings
+
+	/**
+	 * The postings of a run of lines, never changed once made.  Every line of a block comes after every line of
+	 * the blocks before it, so the postings of a term are those of each block in turn.
+	 */
+	private static final class Block {
+		final int[] terms;  // Sorted ids of the terms in the block
+		final int[] postStart;  // Postings of terms[i] are at blob[postStart[i], postStart[i + 1])
+		final long[] lastLine;  // Location of the last line in the postings of terms[i]
+		final byte[] blob;  // Varint-encoded gaps between line locations, the first one counted from -1
+
+		Block(int[] terms, int[] postStart, long[] lastLine, byte[] blob) {
+			this.terms = terms;
+			this.postStart = postStart;
+			this.lastLine = lastLine;
+			this.blob = blob;
+		}
+	}
+
+	public TermIndex(TermDictionary dict) {
+		this.dict = dict;
+		blocks = new Block[0];
+		pendingSize = 0;
+	}
+
+	/**
+	 * Records the terms of one line.  Lines must be added in file order.
+	 * @param buf  buffer holding the line
+	 * @param from  index of the first byte of the line
+	 * @param to  index just past the last byte of the line
+	 * @param line  location of the line in the file
+	 */
+	public void addLine(byte[] buf, int from, int to, long line) {
+		if (cache == null)
+			cache = new TokenCache(true);
+		if (pending == null) {
+			pending = new long[1024];
+			pendingLines = new long[1024];
+		} else if (pendingSize >= FLUSH_POSTINGS) {
+			addBlock();  // Between lines, so the postings of a line are all in one block
+		}
+		int i = skipTimestamp(buf, from, to);
+		while (i < to) {
+			while (i < to && !isTokenByte(buf[i]))
+				i++;
+			int start = i;
+			while (i < to && isTokenByte(buf[i]))
+				i++;
+			int len = i - start;
+			if (len < MIN_TOKEN || len > MAX_TOKEN)
+				continue;
+			int id = cache.id(buf, start, i, dict);
+			if (pendingSize == pending.length) {
+				pending = Arrays.copyOf(pending, pendingSize * 2);
+				pendingLines = Arrays.copyOf(pendingLines, pendingSize * 2);
+			}
+			pendingLines[pendingSize] = line;
+			pending[pendingSize] = ((long) id << 32) | pendingSize;  // A term twice on a line is dropped by addBlock()
+			pendingSize++;
+		}
+	}
+
+	/**
+	 * Encodes the postings recorded since the last flush, and lets go of the buffers that held them
+	 */
+	public void flush() {
+		addBlock();
+		pending = null;
+		pendingLines = null;
+	}
+
+	/**
+	 * Encodes the pending postings into a new block.  Only the new postings are written; the block is then
+	 * merged with the ones before it while it is at least half as big as the one before, so there are only
+	 * about log2(n) blocks and a line is copied about as many times, however often the file is appended to.
+	 */
+	private void addBlock() {
+		if (pendingSize == 0)
+			return;
+		long[] add = Arrays.copyOf(pending, pendingSize);
+		Arrays.sort(add);  // By term, then in the order the lines were added
+		pendingSize = 0;
+
+		int[] newTerms = new int[add.length];
+		int[] newStart = new int[add.length + 1];
+		long[] newLast = new long[add.length];
+		ByteArray out = new ByteArray(add.length * 2);
+		int n = 0;
+		int j = 0;
+		while (j < add.length) {
+			int term = (int) (add[j] >>> 32);
+			newTerms[n] = term;
+			newStart[n] = out.size;
+			long last = -1;
+			while (j < add.length && (int) (add[j] >>> 32) == term) {
+				long line = pendingLines[(int) add[j]];
+				if (line > last) {  // Skips the term's other occurrences on the same line
+					out.writeVarint(line - last);
+					last = line;
+				}
+				j++;
+			}
+			newLast[n] = last;
+			n++;
+		}
+		newStart[n] = out.size;
+		Block block = new Block(Arrays.copyOf(newTerms, n), Arrays.copyOf(newStart, n + 1),
+				Arrays.copyOf(newLast, n), Arrays.copyOf(out.data, out.size));
+
+		int count = blocks.length;
+		Block[] grown = Arrays.copyOf(blocks, count + 1);
+		grown[count++] = block;
+		while (count > 1 && 2L * grown[count - 1].blob.length >= grown[count - 2].blob.length) {
+			grown[count - 2] = merge(grown[count - 2], grown[count - 1]);
+			count--;
+		}
+		blocks = Arrays.copyOf(grown, count);  // A new array, so copies sharing the old one are not changed
+	}
+
+	/**
+	 * Joins two blocks into one
+	 * @param a  the older block
+	 * @param b  the newer block, whose lines all come after those of a
+	 * @return  the joined block
+	 */
+	private static Block merge(Block a, Block b) {
+		int[] newTerms = new int[a.terms.length + b.terms.length];
+		int[] newStart = new int[newTerms.length + 1];
+		long[] newLast = new long[newTerms.length];
+		ByteArray out = new ByteArray(a.blob.length + b.blob.length + 16);
+		int n = 0;
+		int i = 0, j = 0;
+		while (i < a.terms.length || j < b.terms.length) {
+			int term;
+			if (j >= b.terms.length || (i < a.terms.length && a.terms[i] <= b.terms[j]))
+				term = a.terms[i];
+			else
+				term = b.terms[j];
+			newTerms[n] = term;
+			newStart[n] = out.size;
+			long last = -1;
+			if (i < a.terms.length && a.terms[i] == term) {
+				out.write(a.blob, a.postStart[i], a.postStart[i + 1] - a.postStart[i]);
+				last = a.lastLine[i];
+				i++;
+			}
+			if (j < b.terms.length && b.terms[j] == term) {
+				// Only the first gap of b changes, since it was counted from -1 rather than from the last line of a
+				int p = b.postStart[j];
+				long first = -1;
+				int shift = 0;
+				byte x;
+				do {
+					x = b.blob[p++];
+					first += (long) (x & 0x7F) << shift;
+					shift += 7;
+				} while (x < 0);
+				out.writeVarint(first - last);
+				out.write(b.blob, p, b.postStart[j + 1] - p);
+				last = b.lastLine[j];
+				j++;
+			}
+			newLast[n] = last;
+			n++;
+		}
+		newStart[n] = out.size;
+		return new Block(Arrays.copyOf(newTerms, n), Arrays.copyOf(newStart, n + 1), Arrays.copyOf(newLast, n),
+				Arrays.copyOf(out.data, out.size));
+	}
+
+	/**
+	 * Gives the lines of this file that contain a term
+	 * @param termId  id of the term
+	 * @return  the locations of the lines in increasing order (empty if the term does not occur in this file)
+	 */
+	public long[] linesOf(int termId) {
+		Block[] blocks = this.blocks;
+		int bytes = 0;
+		for (Block block : blocks) {
+			int i = Arrays.binarySearch(block.terms, termId);
+			if (i >= 0)
+				bytes += block.postStart[i + 1] - block.postStart[i];
+		}
+		long[] lines = new long[bytes];  // Never more lines than bytes
+		int n = 0;
+		for (Block block : blocks) {
+			int i = Arrays.binarySearch(block.terms, termId);
+			if (i < 0)
+				continue;
+			int p = block.postStart[i];
+			long last = -1;
+			while (p < block.postStart[i + 1]) {
+				long gap = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = block.blob[p++];
+					gap |= (long) (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				last += gap;
+				lines[n++] = last;
+			}
+		}
+		return Arrays.copyOf(lines, n);
+	}
+
+	/**
+	 * Forgets all postings (the file is being indexed again from the start)
+	 */
+	public void clear() {
+		blocks = new Block[0];
+		pendingSize = 0;
+	}
+
+	/**
+	 * @return  a copy of this index (the blocks are shared, since they are never changed)
+	 */
+	public TermIndex copy() {
+		TermIndex copy = new TermIndex(dict);
+		copy.blocks = blocks;
+		return copy;
+	}
+
+	/**
+	 * Writes the encoded postings, joined into one block (the index must have been flushed)
+	 * @param out  the stream to write to
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		Block all = new Block(new int[0], new int[1], new long[0], new byte[0]);
+		for (Block block : blocks) {
+			all = merge(all, block);
+		}
+		out.writeInt(all.terms.length);
+		for (int i=0; i<all.terms.length; i++) {
+			out.writeInt(all.terms[i]);
+			out.writeInt(all.postStart[i + 1] - all.postStart[i]);
+			out.writeLong(all.lastLine[i]);
+		}
+		out.writeInt(all.blob.length);
+		out.write(all.blob);
+	}
+
+	/**
+	 * Reads postings written with write(), translating the saved term ids to the ids of the current dictionary
+	 * @param in  the stream to read from
+	 * @param dict  the current dictionary
+	 * @param savedTerms  the dictionary the index was saved with
+	 * @return  the index that was read
+	 * @throws IOException  if the data is malformed
+	 */
+	public static TermIndex read(DataInput in, TermDictionary dict, String[] savedTerms) throws IOException {
+		int n = in.readInt();
+		if (n < 0)
+			throw new IOException("Bad term count " + n);
+		long[] order = new long[n];  // (current id << 32 | position in saved order)
+		int[] lengths = new int[n];
+		long[] lasts = new long[n];
+		for (int i=0; i<n; i++) {
+			int saved = in.readInt();
+			lengths[i] = in.readInt();
+			lasts[i] = in.readLong();
+			if (saved < 0 || saved >= savedTerms.length || lengths[i] < 0 || lasts[i] < 0)
+				throw new IOException("Bad term entry");
+			order[i] = ((long) dict.id(savedTerms[saved]) << 32) | i;
+		}
+		int blobLength = in.readInt();
+		if (blobLength < 0)
+			throw new IOException("Bad postings length " + blobLength);
+		byte[] saved = new byte[blobLength];
+		in.readFully(saved);
+		int[] savedStart = new int[n + 1];
+		for (int i=0; i<n; i++) {
+			savedStart[i + 1] = savedStart[i] + lengths[i];
+		}
+		if (savedStart[n] != blobLength)
+			throw new IOException("Postings do not add up");
+
+		// Ids may differ from when the index was saved, so the terms are put back in id order
+		Arrays.sort(order);
+		int[] terms = new int[n];
+		int[] postStart = new int[n + 1];
+		long[] lastLine = new long[n];
+		byte[] blob = new byte[blobLength];
+		int p = 0;
+		for (int i=0; i<n; i++) {
+			int s = (int) order[i];
+			terms[i] = (int) (order[i] >>> 32);
+			postStart[i] = p;
+			lastLine[i] = lasts[s];
+			System.arraycopy(saved, savedStart[s], blob, p, lengths[s]);
+			p += lengths[s];
+		}
+		postStart[n] = p;
+		TermIndex index = new TermIndex(dict);
+		if (n > 0)
+			index.blocks = new Block[] { new Block(terms, postStart, lastLine, blob) };
+		return index;
+	}
+
+	/**
+	 * @return  estimated heap size of the encoded postings in bytes
+	 */
+	public long memoryBytes() {
+		long bytes = 64;
+		for (Block block : blocks) {
+			bytes += 4L * (block.terms.length + block.postStart.length) + 8L * block.lastLine.length
+					+ block.blob.length + 48;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Splits text into lowercase terms, the same way lines are split when they are indexed
+	 * @param text  the text to split
+	 * @return  the terms, in order
+	 */
+	public static List<String> tokens(String text) {
+		byte[] buf = text.getBytes(StandardCharsets.UTF_8);
+		List<String> tokens = new ArrayList<>();
+		int i = skipTimestamp(buf, 0, buf.length);
+		while (i < buf.length) {
+			while (i < buf.length && !isTokenByte(buf[i]))
+				i++;
+			int start = i;
+			while (i < buf.length && isTokenByte(buf[i]))
+				i++;
+			if (i - start >= MIN_TOKEN && i - start <= MAX_TOKEN)
+				tokens.add(new String(lower(buf, start, i), StandardCharsets.UTF_8));
+		}
+		return tokens;
+	}
+
+	/**
+	 * Checks lines for the phrases of a query on their bytes, split into terms the same way they are indexed,
+	 * so no String is made for a line that does not match.  One matcher is reused for all lines of a search.
+	 */
+	public static class LineMatcher {
+		private final byte[][][] phrases;  // Lowercase UTF-8 bytes of each term of each phrase
+		private int[] bounds = new int[64];  // Start and end of each term of the current line
+
+		/**
+		 * @param phrases  the phrases to look for, each a list of terms as given by tokens()
+		 */
+		public LineMatcher(List<List<String>> phrases) {
+			this.phrases = new byte[phrases.size()][][];
+			for (int i = 0; i < this.phrases.length; i++) {
+				List<String> phrase = phrases.get(i);
+				this.phrases[i] = new byte[phrase.size()][];
+				for (int j = 0; j < phrase.size(); j++) {
+					this.phrases[i][j] = phrase.get(j).getBytes(StandardCharsets.UTF_8);
+				}
+			}
+		}
+
+		/**
+		 * Checks whether the terms of a line contain every phrase as a run of consecutive terms
+		 * @param buf  buffer holding the line
+		 * @param from  index of the first byte of the line
+		 * @param to  index just past the last byte of the line
+		 * @return  true if the line matches
+		 */
+		public boolean matches(byte[] buf, int from, int to) {
+			int n = 0;
+			int i = skipTimestamp(buf, from, to);
+			while (i < to) {
+				while (i < to && !isTokenByte(buf[i]))
+					i++;
+				int start = i;
+				while (i < to && isTokenByte(buf[i]))
+					i++;
+				if (i - start < MIN_TOKEN || i - start > MAX_TOKEN)
+					continue;
+				if (2 * n + 2 > bounds.length)
+					bounds = Arrays.copyOf(bounds, bounds.length * 2);
+				bounds[2 * n] = start;
+				bounds[2 * n + 1] = i;
+				n++;
+			}
+			for (byte[][] phrase : phrases) {
+				if (!contains(buf, n, phrase))
+					return false;
+			}
+			return true;
+		}
+
+		private boolean contains(byte[] buf, int n, byte[][] phrase) {
+			for (int t = 0; t + phrase.length <= n; t++) {
+				int k = 0;
+				while (k < phrase.length && equal(buf, bounds[2 * (t + k)], bounds[2 * (t + k) + 1], phrase[k]))
+					k++;
+				if (k == phrase.length)
+					return true;
+			}
+			return false;
+		}
+
+		private static boolean equal(byte[] buf, int from, int to, byte[] term) {
+			if (to - from != term.length)
+				return false;
+			for (int i = 0; i < term.length; i++) {
+				if (lower(buf[from + i]) != term[i])
+					return false;
+			}
+			return true;
+		}
+	}
+
+	private static int skipTimestamp(byte[] buf, int from, int to) {
+		if (to - from >= 10 && buf[from] == '[' && buf[from + 9] == ']')
+			return from + 10;
+		return from;
+	}
+
+	private static boolean isTokenByte(byte b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b < 0;
+	}
+
+	static byte lower(byte b) {
+		return (b >= 'A' && b <= 'Z') ? (byte) (b + ('a' - 'A')) : b;
+	}
+
+	private static byte[] lower(byte[] buf, int from, int to) {
+		byte[] key = new byte[to - from];
+		for (int i = from; i < to; i++)
+			key[i - from] = lower(buf[i]);
+		return key;
+	}
+
+	/**
+	 * Growable byte array used while encoding postings
+	 */
+	private static class ByteArray {
+		byte[] data;
+		int size;
+
+		ByteArray(int capacity) {
+			data = new byte[Math.max(16, capacity)];
+			size = 0;
+		}
+
+		void writeVarint(long v) {
+			if (size + 10 > data.length)
+				data = Arrays.copyOf(data, data.length * 2);
+			while ((v & ~0x7FL) != 0) {
+				data[size++] = (byte) ((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			data[size++] = (byte) v;
+		}
+
+		void write(byte[] b, int off, int len) {
+			if (size + len > data.length)
+				data = Arrays.copyOf(data, Math.max(data.length * 2, size + len));
+			System.arraycopy(b, off, data, size, len);
+			size += len;
+		}
+	}
+}
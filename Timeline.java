@@ -0,0 +1,158 @@
+package wurmlogs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * @author Kevin Bechman
+ * Merges the logs of several channels for one date into a single timeline, ordered by the "[HH:MM:SS]" time
+ * of each line and tagged with the channel the line came from, e.g. "[21:40:02] [Combat] You hit ...".
+ *
+ * Each channel is read through its own cursor, and the cursors wait in a heap ordered by the time of their
+ * current line.  The line of the earliest cursor is written out, and the cursor moves to its next line, so
+ * only one line per channel is held at a time and each line costs one heap operation.
+ * Lines without a timestamp stay right after the line before them.
+ */
+public class Timeline {
+	public static final int CURSOR_BUFFER = 1 << 14;  // Initial read buffer of each cursor
+	public static final String TAB_TITLE = "Timeline";
+	private static final int DAY_SECONDS = 24 * 60 * 60;
+
+	/**
+	 * Reads the lines of one channel's byte ranges in order
+	 */
+	private static class Cursor {
+		final String channel;
+		final int order;  // Order in which the channel was added, for lines with the same time
+		final File file;
+		final LogRef[] ranges;
+		int range;  // Range being read
+		LogScanner scanner;
+		int time;  // Time of the current line in seconds (counts past 24:00 when a session runs past midnight)
+		int lastTime;  // Latest time seen in the current range (-1 if none yet)
+
+		Cursor(String channel, int order, File file, LogRef[] ranges) {
+			this.channel = channel;
+			this.order = order;
+			this.file = file;
+			this.ranges = ranges;
+			range = -1;
+			time = -1;
+			lastTime = -1;
+		}
+
+		/**
+		 * Moves to the next line, skipping Logging headers
+		 * @return  false if every range has been read
+		 */
+		boolean next() throws IOException {
+			while (true) {
+				if (scanner != null && scanner.nextLine() && scanner.lineStart() < ranges[range].end) {
+					if (scanner.loggingDate() >= 0)
+						continue;
+					int t = scanner.lineTime();
+					if (t >= 0) {
+						if (lastTime >= 0) {
+							t += lastTime / DAY_SECONDS * DAY_SECONDS;
+							if (t < lastTime - DAY_SECONDS / 2)  // Went past midnight
+								t += DAY_SECONDS;
+						}
+						lastTime = Math.max(lastTime, t);
+						time = t;
+					}
+					return true;
+				}
+				if (scanner != null) {
+					scanner.close();
+					scanner = null;
+				}
+				if (++range >= ranges.length)
+					return false;
+				scanner = new LogScanner(file, ranges[range].loc, CURSOR_BUFFER);
+				lastTime = -1;
+			}
+		}
+
+		void close() throws IOException {
+			if (scanner != null) {
+				scanner.close();
+				scanner = null;
+			}
+		}
+	}
+
+	private final ArrayList<Cursor> cursors;
+
+	public Timeline() {
+		cursors = new ArrayList<>();
+	}
+
+	/**
+	 * Adds a channel to the timeline
+	 * @param channel  name of the channel, used to tag its lines
+	 * @param file  the channel's log file
+	 * @param ranges  byte ranges of the file to read, in file order
+	 */
+	public void addChannel(String channel, File file, LogRef[] ranges) {
+		cursors.add(new Cursor(channel, cursors.size(), file, ranges));
+	}
+
+	/**
+	 * Merges the lines of all channels and writes them out in time order
+	 * @param out  receives the tagged lines, each ending with "\n"
+	 * @return  the number of lines written
+	 * @throws IOException
+	 */
+	public long writeTo(Appendable out) throws IOException {
+		PriorityQueue<Cursor> heap = new PriorityQueue<>(Math.max(1, cursors.size()), new Comparator<Cursor>() {
+			@Override
+			public int compare(Cursor a, Cursor b) {
+				if (a.time != b.time)
+					return Integer.compare(a.time, b.time);
+				return Integer.compare(a.order, b.order);
+			}
+		});
+		StringBuilder line = new StringBuilder();
+		long lines = 0;
+		try {
+			for (Cursor c : cursors) {
+				if (c.next())
+					heap.add(c);
+			}
+			while (!heap.isEmpty()) {
+				Cursor c = heap.poll();
+				// Write this line and any lines without a timestamp that follow it
+				boolean more;
+				do {
+					line.setLength(0);
+					c.scanner.appendLine(line);
+					tag(line, c.channel);
+					line.append('\n');
+					out.append(line);
+					lines++;
+					more = c.next();
+				} while (more && c.scanner.lineTime() < 0);
+				if (more)
+					heap.add(c);
+			}
+		} finally {
+			for (Cursor c : cursors) {
+				c.close();
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Tags a log line with its channel, after the timestamp if it has one
+	 * @param line  the line (changed in place)
+	 * @param channel  name of the channel
+	 */
+	public static void tag(StringBuilder line, String channel) {
+		boolean timed = line.length() >= 10 && line.charAt(0) == '[' && line.charAt(9) == ']';
+		line.insert(timed ? 10 : 0, timed ? " [" + channel + "]" : "[" + channel + "] ");
+	}
+}
@@ -0,0 +1,90 @@
+package wurmlogs;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Kevin Bechman
+ * Maps tokens read from a log file to their ids in the TermDictionary, straight from the bytes of the line.
+ * Tokens are compared byte by byte against the tokens seen before in the file, so a String is only created the
+ * first time a token shows up.  Used for the terms of the search index (lowercased) and the creatures and
+ * weapons of combat events (as written).
+ */
+class TokenCache {
+	private final boolean lowercase;  // Whether ASCII letters are lowercased before the lookup
+	private byte[][] keys = new byte[1024][];
+	private int[] ids = new int[1024];
+	private int size = 0;
+
+	/**
+	 * @param lowercase  true to lowercase the ASCII letters of tokens, so tokens that differ only in case share an id
+	 */
+	TokenCache(boolean lowercase) {
+		this.lowercase = lowercase;
+	}
+
+	/**
+	 * Gets the id of a token, adding the token to the dictionary if it is new
+	 * @param buf  buffer holding the token
+	 * @param from  index of the first byte of the token
+	 * @param to  index just past the last byte of the token
+	 * @param dict  the dictionary
+	 * @return  the token's id
+	 */
+	int id(byte[] buf, int from, int to, TermDictionary dict) {
+		if (size * 2 >= keys.length)
+			grow();
+		int mask = keys.length - 1;
+		int i = hash(buf, from, to) & mask;
+		while (keys[i] != null) {
+			if (matches(keys[i], buf, from, to))
+				return ids[i];
+			i = (i + 1) & mask;
+		}
+		byte[] key = new byte[to - from];
+		for (int k = from; k < to; k++) {
+			key[k - from] = fold(buf[k]);
+		}
+		keys[i] = key;
+		ids[i] = dict.id(new String(key, StandardCharsets.UTF_8));
+		size++;
+		return ids[i];
+	}
+
+	private byte fold(byte b) {
+		return lowercase ? TermIndex.lower(b) : b;
+	}
+
+	private int hash(byte[] buf, int from, int to) {
+		int h = 0;
+		for (int i = from; i < to; i++)
+			h = h * 31 + fold(buf[i]);
+		return (h * 0x9E3779B9) >>> 1;
+	}
+
+	private boolean matches(byte[] key, byte[] buf, int from, int to) {
+		if (key.length != to - from)
+			return false;
+		for (int i = 0; i < key.length; i++) {
+			if (key[i] != fold(buf[from + i]))
+				return false;
+		}
+		return true;
+	}
+
+	private void grow() {
+		byte[][] oldKeys = keys;
+		int[] oldIds = ids;
+		keys = new byte[oldKeys.length * 2][];
+		ids = new int[oldKeys.length * 2];
+		int mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] == null)
+				continue;
+			int i = hash(oldKeys[j], 0, oldKeys[j].length) & mask;
+			while (keys[i] != null)
+				i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			ids[i] = oldIds[j];
+		}
+	}
+}
@@ -1,58 +1,73 @@
-package wurmlogs;
-
-/**
- * @author Kevin Bechman
- * Represents a given date in the log files
- */
-public class WTime implements Comparable<WTime> {
-	public final int year, month, day;
-	public WTime (int ye, int mo, int da) {
-		year = ye;
-		month = mo;
-		day = da;
-	}
-	
-	@Override
-	public int hashCode() {
-		int h = day * month * year;
-		return h;
-	}
-	
-	@Override
-	public String toString() {
-		return ""+year+"-"+month+"-"+day+"";
-	}
-	
-	@Override
-	public boolean equals(Object o) {
-		if (o == this)
-			return true;
-		if (o == null)
-			return false;
-		if (!this.getClass().equals(o.getClass()))
-			return false;
-		WTime wt = (WTime) o;
-		if (this.compareTo(wt) == 0)
-			return true;
-		return false;
-	}
-	
-	@Override
-	public int compareTo(WTime wt) {
-		if (wt == null)
-			return 1;
-		if (this.year > wt.year)
-			return 1;
-		else if (this.year < wt.year)
-			return -1;
-		else if (this.month > wt.month)
-			return 1;
-		else if (this.month < wt.month)
-			return -1;
-		else if (this.day > wt.day)
-			return 1;
-		else if (this.day < wt.day)
-			return -1;
-		else return 0;
-	}
-}
+package wurmlogs;
+
+/**
+ * @author Kevin Bechman
+ * Represents a given date in the log files
+ */
+public class WTime implements Comparable<WTime> {
+	public final int year, month, day;
+	public WTime (int ye, int mo, int da) {
+		year = ye;
+		month = mo;
+		day = da;
+	}
+	
+	/**
+	 * Creates a WTime from a date packed as yyyymmdd
+	 * @param key  the packed date (e.g. 20120131)
+	 * @return  the WTime object for that date
+	 */
+	public static WTime fromKey(int key) {
+		return new WTime(key / 10000, (key / 100) % 100, key % 100);
+	}
+	
+	/**
+	 * @return  this date packed into an int as yyyymmdd
+	 */
+	public int toKey() {
+		return year * 10000 + month * 100 + day;
+	}
+	
+	@Override
+	public int hashCode() {
+		return toKey();  // yyyymmdd is unique for every date
+	}
+	
+	@Override
+	public String toString() {
+		return ""+year+"-"+month+"-"+day+"";
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (o == this)
+			return true;
+		if (o == null)
+			return false;
+		if (!this.getClass().equals(o.getClass()))
+			return false;
+		WTime wt = (WTime) o;
+		if (this.compareTo(wt) == 0)
+			return true;
+		return false;
+	}
+	
+	@Override
+	public int compareTo(WTime wt) {
+		if (wt == null)
+			return 1;
+		if (this.year > wt.year)
+			return 1;
+		else if (this.year < wt.year)
+			return -1;
+		else if (this.month > wt.month)
+			return 1;
+		else if (this.month < wt.month)
+			return -1;
+		else if (this.day > wt.day)
+			return 1;
+		else if (this.day < wt.day)
+			return -1;
+		else return 0;
+	}
+}
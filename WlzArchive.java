@@ -0,0 +1,382 @@
+package wurmlogs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * @author Kevin Bechman
+ * Compressed log archive (.wlz) that can be read from any position without decompressing the whole file.
+ * The text is cut into blocks of a fixed size, and each block is deflated on its own, so reading a range of
+ * the text only inflates the blocks it covers (a day of a monthly log is usually one or two blocks).
+ *
+ * Layout (all numbers big-endian):
+ *   header   int MAGIC, int VERSION, int block size
+ *   blocks   each block of the text, deflated separately
+ *   table    (block count + 1) longs: file offset of each block and of the end of the last one
+ *   trailer  long table offset, long text length, int block count, int MAGIC
+ * The trailer is at a fixed distance from the end, so the text length is found with one small read.
+ *
+ * An archive keeps the name of its log with ".wlz" in place of ".txt" (e.g. "_Combat.2012-01.wlz").
+ * Run this class to convert the logs of past months: WlzArchive [--delete] <log file or directory>...
+ */
+public class WlzArchive implements LogInput {
+	public static final String EXTENSION = ".wlz";
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+	public static final int MAX_BLOCK_SIZE = 1 << 24;  // Larger sizes in a header are taken as damage
+	private static final int MAGIC = 0x574C5A31;  // "WLZ1"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 12;
+	private static final int TRAILER_SIZE = 24;
+
+	private final FileChannel channel;
+	private final int blockSize;
+	private final long length;  // Length of the uncompressed text
+	private final long[] offsets;  // File offset of each block, and of the end of the last one
+	private final Inflater inflater;
+	private byte[] compressed;  // Reusable buffer for the compressed bytes of a block
+	private final byte[] block;  // The last block that was inflated
+	private int blockIndex;  // Index of the block held in block (-1 if none)
+	private int blockLength;  // Number of valid bytes in block
+
+	private WlzArchive(FileChannel channel, int blockSize, long length, long[] offsets) {
+		this.channel = channel;
+		this.blockSize = blockSize;
+		this.length = length;
+		this.offsets = offsets;
+		inflater = new Inflater();
+		compressed = new byte[blockSize / 2];
+		block = new byte[blockSize];
+		blockIndex = -1;
+	}
+
+	/**
+	 * @param file  a file
+	 * @return  true if the file has the name of an archive
+	 */
+	public static boolean isArchive(File file) {
+		return file.getName().endsWith(EXTENSION);
+	}
+
+	/**
+	 * Opens an archive and reads its block table
+	 * @param file  the archive
+	 * @return  the archive, ready for reading
+	 * @throws IOException  if the file is not a valid archive
+	 */
+	public static WlzArchive open(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long fileSize = channel.size();
+			if (fileSize < HEADER_SIZE + TRAILER_SIZE + 8)
+				throw new IOException("Not an archive: " + file.getName());
+			ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION)
+				throw new IOException("Not an archive (or a newer version): " + file.getName());
+			int blockSize = header.getInt();
+			ByteBuffer trailer = readFully(channel, fileSize - TRAILER_SIZE, TRAILER_SIZE);
+			long tableOffset = trailer.getLong();
+			long length = trailer.getLong();
+			int blocks = trailer.getInt();
+			if (trailer.getInt() != MAGIC || blockSize <= 0 || blockSize > MAX_BLOCK_SIZE || blocks < 0 || length < 0
+					|| (length + blockSize - 1) / blockSize != blocks
+					|| tableOffset + 8L * (blocks + 1) != fileSize - TRAILER_SIZE)
+				throw new IOException("Damaged archive: " + file.getName());
+			ByteBuffer table = readFully(channel, tableOffset, 8 * (blocks + 1));
+			long maxPacked = blockSize + (blockSize >> 8) + 1024;  // Deflate never grows a block by more
+			long[] offsets = new long[blocks + 1];
+			for (int i = 0; i <= blocks; i++) {
+				offsets[i] = table.getLong();
+				if (offsets[i] < HEADER_SIZE || offsets[i] > tableOffset
+						|| (i > 0 && (offsets[i] < offsets[i - 1] || offsets[i] - offsets[i - 1] > maxPacked)))
+					throw new IOException("Damaged archive: " + file.getName());
+			}
+			return new WlzArchive(channel, blockSize, length, offsets);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the text length from the trailer of an archive
+	 * @param file  the archive
+	 * @return  the length of the uncompressed text, or 0 if the file is not a valid archive
+	 */
+	public static long contentLength(File file) {
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			long fileSize = in.length();
+			if (fileSize < HEADER_SIZE + TRAILER_SIZE)
+				return 0;
+			in.seek(fileSize - TRAILER_SIZE + 8);
+			long length = in.readLong();
+			in.readInt();
+			return (in.readInt() == MAGIC) ? length : 0;
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, long position, int size) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(size);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position()) < 0)
+				throw new IOException("Unexpected end of archive");
+		}
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * Makes the given block the current one, inflating it unless it already is
+	 * @param b  index of the block
+	 * @throws IOException  if the block is damaged
+	 */
+	private void load(int b) throws IOException {
+		if (b == blockIndex)
+			return;
+		blockIndex = -1;
+		int size = (int) (offsets[b + 1] - offsets[b]);
+		if (compressed.length < size)
+			compressed = new byte[size];
+		ByteBuffer in = ByteBuffer.wrap(compressed, 0, size);
+		while (in.hasRemaining()) {
+			if (channel.read(in, offsets[b] + in.position()) < 0)
+				throw new IOException("Unexpected end of archive");
+		}
+		int expected = (int) Math.min(blockSize, length - (long) b * blockSize);
+		inflater.reset();
+		inflater.setInput(compressed, 0, size);
+		int n = 0;
+		try {
+			while (n < expected && !inflater.finished()) {
+				int got = inflater.inflate(block, n, expected - n);
+				if (got == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				n += got;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Damaged block " + b + " in archive", e);
+		}
+		if (n != expected)
+			throw new IOException("Damaged block " + b + " in archive");
+		blockIndex = b;
+		blockLength = n;
+	}
+
+	@Override
+	public int read(ByteBuffer dst, long position) throws IOException {
+		if (position >= length)
+			return -1;
+		int total = 0;
+		while (dst.hasRemaining() && position < length) {
+			load((int) (position / blockSize));
+			int off = (int) (position - (long) blockIndex * blockSize);
+			int n = Math.min(dst.remaining(), blockLength - off);
+			dst.put(block, off, n);
+			position += n;
+			total += n;
+		}
+		return total;
+	}
+
+	@Override
+	public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+		long end = Math.min(length, position + count);
+		long done = 0;
+		while (position < end) {
+			load((int) (position / blockSize));
+			int off = (int) (position - (long) blockIndex * blockSize);
+			int n = (int) Math.min(end - position, blockLength - off);
+			ByteBuffer buf = ByteBuffer.wrap(block, off, n);
+			while (buf.hasRemaining())
+				target.write(buf);
+			position += n;
+			done += n;
+		}
+		return done;
+	}
+
+	@Override
+	public long size() {
+		return length;
+	}
+
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		channel.close();
+	}
+
+	/**
+	 * Compresses a plain log into an archive.  The archive is written under a temporary name and renamed
+	 * when complete, and gets the modification time of the log.
+	 * @param source  the plain log
+	 * @param target  the archive to write
+	 * @param blockSize  length of text in each block (1 to MAX_BLOCK_SIZE)
+	 * @return  the CRC-32 of the text, to check the archive against
+	 * @throws IOException
+	 */
+	public static long compress(File source, File target, int blockSize) throws IOException {
+		if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE)
+			throw new IllegalArgumentException("Block size " + blockSize + " is not between 1 and " + MAX_BLOCK_SIZE);
+		File temp = new File(target.getPath() + ".tmp");
+		CRC32 crc = new CRC32();
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try (InputStream in = new FileInputStream(source);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(blockSize);
+			byte[] text = new byte[blockSize];
+			byte[] packed = new byte[blockSize + 1024];
+			ArrayList<Long> offsets = new ArrayList<>();
+			long offset = HEADER_SIZE, length = 0;
+			while (true) {
+				int n = 0;
+				for (int r; n < blockSize && (r = in.read(text, n, blockSize - n)) > 0; n += r);
+				if (n == 0)
+					break;
+				crc.update(text, 0, n);
+				length += n;
+				offsets.add(offset);
+				deflater.reset();
+				deflater.setInput(text, 0, n);
+				deflater.finish();
+				while (!deflater.finished()) {
+					int size = deflater.deflate(packed);
+					out.write(packed, 0, size);
+					offset += size;
+				}
+			}
+			offsets.add(offset);
+			for (long o : offsets) {
+				out.writeLong(o);
+			}
+			out.writeLong(offset);  // The table starts where the blocks end
+			out.writeLong(length);
+			out.writeInt(offsets.size() - 1);
+			out.writeInt(MAGIC);
+		} finally {
+			deflater.end();
+		}
+		if (target.exists() && !target.delete())
+			throw new IOException("Cannot replace " + target);
+		if (!temp.renameTo(target))
+			throw new IOException("Cannot rename " + temp + " to " + target);
+		target.setLastModified(source.lastModified());
+		return crc.getValue();
+	}
+
+	/**
+	 * @param file  a log or archive
+	 * @return  the CRC-32 of its text
+	 * @throws IOException
+	 */
+	private static long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		ByteBuffer buf = ByteBuffer.allocate(DEFAULT_BLOCK_SIZE);
+		try (LogInput in = LogInput.open(file)) {
+			long pos = 0;
+			int n;
+			while ((n = in.read(buf, pos)) > 0) {
+				crc.update(buf.array(), 0, n);
+				pos += n;
+				buf.clear();
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * @param log  a plain log
+	 * @return  the name of its archive, next to it
+	 */
+	public static File archiveFor(File log) {
+		String name = log.getName();
+		if (name.endsWith(".txt"))
+			name = name.substring(0, name.length() - 4);
+		return new File(log.getParentFile(), name + EXTENSION);
+	}
+
+	/**
+	 * @param log  a plain log
+	 * @return  true if the name of the log says it is of a month before the current one, e.g. "_Combat.2012-01.txt"
+	 */
+	private static boolean isPastMonth(File log) {
+		String name = log.getName();
+		if (!name.endsWith(".txt") || name.length() < 12)
+			return false;
+		try {
+			return YearMonth.parse(name.substring(name.length() - 11, name.length() - 4)).isBefore(YearMonth.now());
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Converts logs to archives.  Files given by name are always converted; of a directory, only the logs of past
+	 * months are converted, since the current month's logs are still being written to.  Each archive is read back
+	 * and checked against its log before the log is deleted (with --delete).
+	 * @param args  [--delete] log files or directories
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean delete = false;
+		ArrayList<File> logs = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.equals("--delete")) {
+				delete = true;
+				continue;
+			}
+			File f = new File(arg);
+			if (f.isDirectory()) {
+				File[] files = f.listFiles();
+				for (File log : files) {
+					if (isPastMonth(log))
+						logs.add(log);
+				}
+			} else {
+				logs.add(f);
+			}
+		}
+		if (logs.isEmpty()) {
+			System.out.println("Usage: WlzArchive [--delete] <log file or directory>...");
+			return;
+		}
+		long before = 0, after = 0;
+		for (File log : logs) {
+			if (!log.isFile() || isArchive(log)) {
+				System.out.println("Skipping " + log);
+				continue;
+			}
+			File archive = archiveFor(log);
+			long crc = compress(log, archive, DEFAULT_BLOCK_SIZE);
+			if (checksum(archive) != crc) {
+				System.out.println("Archive of " + log + " does not match the log, removing it.");
+				archive.delete();
+				continue;
+			}
+			before += log.length();
+			after += archive.length();
+			System.out.println(log.getName() + ": " + log.length() + " -> " + archive.length() + " bytes");
+			if (delete && !log.delete())
+				System.out.println("Could not delete " + log);
+		}
+		System.out.println("Compressed " + (before >> 10) + " KB of logs into " + (after >> 10) + " KB.");
+	}
+}
@@ -0,0 +1,400 @@
+package wurmlogs;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * @author Kevin Bechman
+ * Command line (headless) front end to the Engine, for exports and cron jobs.  No Swing frame is created.
+ * The logs are written to stdout (or a file) as they are read, one day at a time, so any range can be exported
+ * in constant memory.  The Engine's progress messages go to stderr, so they never mix with the output.
+ *
+ * Usage: WurmLogsCli <log directory> <command> [arguments] [options]
+ * The log directory may also be the directories of several characters, as name=dir,name=dir (see LogLibrary);
+ * every command but timeline and serve then covers all of them, and the output is tagged with the name.
+ *   index                      index the directory (updating the saved index) and print the metrics
+ *   dates                      list every date that has logs
+ *   day <date>                 write the logs of a date, tab by tab
+ *   range <from> <to>          write the logs of every date in a range, tab by tab
+ *   timeline <from> <to>       write the logs of every date in a range, merged into one timeline per date
+ *   search <query> [max hits]  write the lines matching a query (words, or "phrases" in quotes)
+ *   serve [port]               serve the logs over HTTP (see LogServer) until stopped, watching for new lines
+ * Options:
+ *   -o <file>                  write to a file instead of stdout
+ *   --threads <n>              number of indexing threads
+ *   --no-saved-index           index every file instead of using (and updating) the saved index
+ *   --bind <address>           address the server listens on (default: localhost only)
+ *   --http-threads <n>         number of server request threads
+ * Dates are given as YYYY-MM-DD.  The exit code is 0 on success, 1 on errors and 2 on bad arguments.
+ */
+public class WurmLogsCli {
+	public static final int DEFAULT_MAX_HITS = 1000;
+	private static final int OUTPUT_BUFFER = 1 << 16;
+
+	private final Engine engine;
+	private final Writer out;
+	private final String namespace;  // Character the output is tagged with (null for a single directory)
+
+	public WurmLogsCli(Engine engine, Writer out) {
+		this(engine, out, null);
+	}
+
+	/**
+	 * @param engine  the Engine to query
+	 * @param out  receives the output
+	 * @param namespace  name of the character to tag the output with, or null for none
+	 */
+	public WurmLogsCli(Engine engine, Writer out, String namespace) {
+		this.engine = engine;
+		this.out = out;
+		this.namespace = namespace;
+	}
+
+	/**
+	 * Writes every date that has logs, one per line
+	 * @throws IOException
+	 */
+	public void writeDates() throws IOException {
+		for (WTime date : engine.getDates()) {
+			out.write(format(date));
+			out.write('\n');
+		}
+	}
+
+	/**
+	 * Writes the logs of one date
+	 * @param date  the date
+	 * @throws IOException
+	 */
+	public void writeDay(WTime date) throws IOException {
+		writeLogs(date, engine.getLogsForDate(date));
+	}
+
+	/**
+	 * Writes the logs of every date in a range, each day as soon as it has been read
+	 * @param from  first date of the range
+	 * @param to  last date of the range (inclusive)
+	 * @throws IOException
+	 */
+	public void writeRange(WTime from, WTime to) throws IOException {
+		try {
+			engine.getLogsForRange(from, to, new DayConsumer() {
+				public void dayLoaded(WTime date, LogPackage logs) {
+					try {
+						writeLogs(date, logs);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Writes the logs of every date in a range as merged timelines
+	 * @param from  first date of the range
+	 * @param to  last date of the range (inclusive)
+	 * @throws IOException
+	 */
+	public void writeTimeline(WTime from, WTime to) throws IOException {
+		engine.writeTimeline(from, to, out);
+	}
+
+	/**
+	 * Writes the lines matching a search query, each as "date [tab] line"
+	 * @param query  the query
+	 * @param maxHits  the most lines to write
+	 * @throws IOException
+	 */
+	public void writeSearch(String query, int maxHits) throws IOException {
+		writeHits(engine.search(query, maxHits));
+	}
+
+	/**
+	 * Writes search results, each as "date [tab] line"
+	 */
+	private void writeHits(List<SearchHit> hits) throws IOException {
+		for (SearchHit hit : hits) {
+			if (namespace != null)
+				out.write(namespace + " ");
+			out.write(format(hit.date));
+			out.write(" [" + hit.channel + "] ");
+			out.write(hit.line);
+			out.write('\n');
+		}
+	}
+
+	/**
+	 * Writes the tabs of one date, each under a "=== date title ===" heading (or "=== namespace date title ==="),
+	 * and flushes them
+	 */
+	private void writeLogs(WTime date, LogPackage logs) throws IOException {
+		for (int i = 0; i < logs.logTitles.length; i++) {
+			out.write("=== " + (namespace == null ? "" : namespace + " ") + format(date) + " " + logs.logTitles[i] + " ===\n");
+			writeText(logs.logTexts[i]);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes the text of a tab; mapped text is copied a chunk at a time rather than made into one String
+	 */
+	private void writeText(CharSequence text) throws IOException {
+		if (!(text instanceof MappedLogText)) {
+			out.append(text);
+			return;
+		}
+		MappedLogText mapped = (MappedLogText) text;
+		char[] buf = new char[Math.min(OUTPUT_BUFFER, mapped.length())];
+		for (int off = 0; off < mapped.length(); off += buf.length) {
+			int n = Math.min(buf.length, mapped.length() - off);
+			mapped.getChars(off, off + n, buf, 0);
+			out.write(buf, 0, n);
+		}
+	}
+
+	private static String format(WTime date) {
+		return String.format("%04d-%02d-%02d", date.year, date.month, date.day);
+	}
+
+	/**
+	 * @param s  a date as YYYY-MM-DD
+	 * @return  the date
+	 * @throws IllegalArgumentException  if the date is malformed
+	 */
+	static WTime parseDate(String s) {
+		if (!s.matches("\\d{4}-\\d{2}-\\d{2}"))
+			throw new IllegalArgumentException("Bad date " + s + ", expected YYYY-MM-DD");
+		return new WTime(Integer.parseInt(s.substring(0, 4)), Integer.parseInt(s.substring(5, 7)),
+				Integer.parseInt(s.substring(8, 10)));
+	}
+
+	private static int usage(String error) {
+		System.err.println(error);
+		System.err.println("Usage: WurmLogsCli <log directory> <command> [arguments] [-o <file>] [--threads <n>] [--no-saved-index]"
+				+ " [--bind <address>] [--http-threads <n>]");
+		System.err.println("Commands: index | dates | day <date> | range <from> <to> | timeline <from> <to> | search <query> [max hits]"
+				+ " | serve [port]");
+		return 2;
+	}
+
+	/**
+	 * Runs one command
+	 * @param args  command line arguments
+	 * @return  the exit code
+	 */
+	public static int run(String[] args) throws Exception {
+		String outFile = null;
+		int threads = 0;
+		boolean useSavedIndex = true;
+		String bind = null;
+		int httpThreads = LogServer.DEFAULT_THREADS;
+		List<String> positional = new ArrayList<>();
+		for (int a = 0; a < args.length; a++) {
+			if (!args[a].startsWith("-") || args[a].length() == 1)
+				positional.add(args[a]);
+			else if (args[a].equals("-o") && a + 1 < args.length)
+				outFile = args[++a];
+			else if (args[a].equals("--threads") && a + 1 < args.length && args[a + 1].matches("\\d+"))
+				threads = Integer.parseInt(args[++a]);
+			else if (args[a].equals("--no-saved-index"))
+				useSavedIndex = false;
+			else if (args[a].equals("--bind") && a + 1 < args.length)
+				bind = args[++a];
+			else if (args[a].equals("--http-threads") && a + 1 < args.length && args[a + 1].matches("\\d+"))
+				httpThreads = Math.max(1, Integer.parseInt(args[++a]));
+			else
+				return usage("Unknown option " + args[a]);
+		}
+		if (positional.size() < 2)
+			return usage("Missing log directory or command");
+		File dir = new File(positional.get(0));
+		String command = positional.get(1);
+		List<String> rest = positional.subList(2, positional.size());
+		boolean library = positional.get(0).contains("=");  // Several characters, as name=dir,name=dir
+		if (!library && !dir.isDirectory())
+			return usage("No such directory: " + dir);
+
+		// Check the arguments before spending time on indexing
+		WTime from = null, to = null;
+		int maxHits = DEFAULT_MAX_HITS;
+		int port = LogServer.DEFAULT_PORT;
+		try {
+			switch (command) {
+				case "index":
+				case "dates":
+					if (!rest.isEmpty())
+						return usage("Too many arguments for " + command);
+					break;
+				case "day":
+					if (rest.size() != 1)
+						return usage("day needs a date");
+					from = parseDate(rest.get(0));
+					break;
+				case "range":
+				case "timeline":
+					if (rest.size() != 2)
+						return usage(command + " needs two dates");
+					from = parseDate(rest.get(0));
+					to = parseDate(rest.get(1));
+					break;
+				case "search":
+					if (rest.isEmpty() || rest.size() > 2)
+						return usage("search needs a query");
+					if (rest.size() == 2)
+						maxHits = Integer.parseInt(rest.get(1));
+					break;
+				case "serve":
+					if (rest.size() > 1)
+						return usage("serve takes only a port");
+					if (rest.size() == 1)
+						port = Integer.parseInt(rest.get(0));
+					break;
+				default:
+					return usage("Unknown command " + command);
+			}
+		} catch (IllegalArgumentException e) {
+			return usage(e.getMessage());
+		}
+		if (library)
+			return runLibrary(positional.get(0), command, from, to, rest, maxHits, threads, useSavedIndex, outFile);
+
+		final Engine engine = new Engine(null);
+		engine.setLiveUpdates(false);
+		engine.setCacheBudget(0);  // Every day is read once (and the server streams from the files), so nothing is cached
+		if (threads > 0)
+			engine.setIndexingThreads(threads);
+		if (from != null)
+			engine.setMonthWindow(from, (to == null) ? from : to);  // Only the months asked for are indexed
+		engine.setMainDir(dir.getPath());
+		try {
+			engine.indexNow(useSavedIndex);
+
+			if (command.equals("serve")) {
+				engine.startWatching();
+				InetSocketAddress address = (bind == null)
+						? new InetSocketAddress(InetAddress.getLoopbackAddress(), port) : new InetSocketAddress(bind, port);
+				final LogServer server = new LogServer(engine, address, httpThreads);
+				Runtime.getRuntime().addShutdownHook(new Thread() {
+					public void run() {
+						server.stop(1);
+						engine.close();
+					}
+				});
+				server.start();
+				new CountDownLatch(1).await();  // Runs until the process is stopped
+			}
+
+			Writer out = openOutput(outFile);
+			try {
+				WurmLogsCli cli = new WurmLogsCli(engine, out);
+				switch (command) {
+					case "index": out.write(engine.getStats().report()); break;
+					case "dates": cli.writeDates(); break;
+					case "day": cli.writeDay(from); break;
+					case "range": cli.writeRange(from, to); break;
+					case "timeline": cli.writeTimeline(from, to); break;
+					case "search": cli.writeSearch(rest.get(0), maxHits); break;
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			engine.close();  // serve runs until the process is stopped, so its shutdown hook closes the Engine
+		}
+		return 0;
+	}
+
+	/**
+	 * Runs a command over the directories of several characters
+	 * @param spec  the characters and their directories, as name=dir,name=dir
+	 * @return  the exit code
+	 */
+	private static int runLibrary(String spec, String command, WTime from, WTime to, List<String> rest, int maxHits,
+			int threads, boolean useSavedIndex, String outFile) throws Exception {
+		if (command.equals("timeline") || command.equals("serve"))
+			return usage(command + " works on one directory only");
+		LogLibrary lib = new LogLibrary(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+		try {
+			for (String entry : spec.split(",")) {
+				int eq = entry.indexOf('=');
+				if (eq <= 0 || eq == entry.length() - 1)
+					return usage("Bad character entry " + entry + ", expected name=directory");
+				lib.register(entry.substring(0, eq), new File(entry.substring(eq + 1)));
+			}
+		} catch (IllegalArgumentException e) {
+			return usage(e.getMessage());
+		}
+		if (from != null)
+			lib.setMonthWindow(from, (to == null) ? from : to);
+		lib.indexAll(useSavedIndex);
+
+		Writer out = openOutput(outFile);
+		try {
+			switch (command) {
+				case "index":
+					for (String name : lib.getNamespaces()) {
+						out.write("=== " + name + " ===\n" + lib.getEngine(name).getStats().report());
+					}
+					break;
+				case "dates":
+					for (WTime date : lib.getDates()) {
+						out.write(format(date) + "\n");
+					}
+					break;
+				case "day":
+					for (Map.Entry<String, LogPackage> e : lib.getLogsForDate(from).entrySet()) {
+						new WurmLogsCli(lib.getEngine(e.getKey()), out, e.getKey()).writeLogs(from, e.getValue());
+					}
+					break;
+				case "range":
+					for (String name : lib.getNamespaces()) {
+						new WurmLogsCli(lib.getEngine(name), out, name).writeRange(from, to);
+					}
+					break;
+				case "search":
+					for (Map.Entry<String, List<SearchHit>> e : lib.search(rest.get(0), maxHits).entrySet()) {
+						new WurmLogsCli(lib.getEngine(e.getKey()), out, e.getKey()).writeHits(e.getValue());
+					}
+					break;
+			}
+		} finally {
+			out.close();
+			lib.shutdown();
+		}
+		return 0;
+	}
+
+	private static Writer openOutput(String outFile) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(outFile == null ? new FileOutputStream(FileDescriptor.out)
+				: new FileOutputStream(outFile), StandardCharsets.UTF_8), OUTPUT_BUFFER);
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		System.setOut(System.err);  // Progress messages of the Engine go to stderr; the output has its own stream
+		int code;
+		try {
+			code = run(args);
+		} catch (Exception e) {
+			System.err.println("Error: " + e);
+			code = 1;
+		}
+		System.exit(code);
+	}
+}
@@ -1,241 +1,378 @@
-package wurmlogs;
-
-import java.awt.Container;
-import java.awt.Dimension;
-import java.awt.FlowLayout;
-import java.awt.Font;
-import java.awt.GridBagConstraints;
-import java.awt.GridBagLayout;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
-import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-
-import javax.swing.JButton;
-import javax.swing.JFormattedTextField;
-import javax.swing.JFrame;
-import javax.swing.JPanel;
-import javax.swing.JScrollPane;
-import javax.swing.JTabbedPane;
-import javax.swing.JTextField;
-import javax.swing.JTextPane;
-import javax.swing.SwingUtilities;
-import javax.swing.text.MaskFormatter;
-import javax.swing.text.StyledDocument;
-
-/**
- * @author Kevin Bechman
- * Application for use with text file logs from the MMORPG Wurm Online.
- * This program indexes the entire directory of log files, then allows the user to enter a given date.
- * The logs from that date are then displayed on separate tabs for the user to peruse.
- */
-public class WurmLogsMain extends JFrame {
-	private static final long serialVersionUID = -5452465131304495441L;
-	//private File[] logFiles; // File objects pointing to the log files
-	//private File[] currDateFiles; // File objects pointing to log files with text falling under current search
-									// date
-	//private String[] currDateLogs; // Strings containing logs to be displayed falling under the current search date
-	//private Logger logger;
-
-	private JPanel topPanel;
-	private JTabbedPane tabbedPane;
-	private JScrollPane[] scrollTabs;
-	private JTextPane[] textTabs;
-	private JButton refreshButton;
-	private GridBagConstraints gbc;
-
-	// Date variables
-	private JFormattedTextField dateField;
-	private SimpleDateFormat dateFormat;
-	private String searchDateStr;
-	
-	// Directory pathname
-	private JTextField dirField;
-	private JButton dirButton;
-	
-	private Engine engine;
-
-	/**
-	 * Sets up the UI for the application
-	 * @throws Exception
-	 */
-	public WurmLogsMain() throws Exception {
-		// Create Logger to display command-prompt information for errors
-		//logger = Logger.getLogger("WurmLogs.Logger");
-		
-		engine = new Engine(this);
-		
-		/** UI Setup **/
-
-		Container cp = getContentPane();
-		cp.setLayout(new GridBagLayout());
-
-		// Setting up default date selection (today's date) and formatter
-		dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-		Date today = new Date();
-		searchDateStr = dateFormat.format(today); // default date to be searched is today's date
-
-		// Setting up string input format and text field
-		MaskFormatter mask = new MaskFormatter("####-##-##");
-		mask.setAllowsInvalid(false);
-
-		dateField = new JFormattedTextField(mask);
-		dateField.setValue(new String());
-		dateField.setText(searchDateStr);
-		dateField.setColumns(10);
-		dateField.setFont(new Font("SANS_SERIF", Font.PLAIN, 16));
-		
-		// Refresh
-		refreshButton = new JButton("Refresh");
-		refreshButton.setEnabled(false);
-		refreshButton.addActionListener(new ActionListener() {
-			@Override
-			public void actionPerformed(ActionEvent e) {
-				try {
-					refreshDate();
-				} catch (IOException ioe) {
-					ioe.printStackTrace();
-				}
-			}
-		});
-		
-		// ***** Directory Path Components *****
-		dirField = new JTextField();
-		dirField.setText("No directory pathname selected.");
-		dirField.setFont(new Font("SANS_SERIF", Font.PLAIN, 16));
-		
-		
-		dirButton = new JButton("Search this directory");
-		dirButton.addActionListener(new ActionListener() {
-			@Override
-			public void actionPerformed(ActionEvent e) {
-				indexDirectory();
-			}
-		});
-		
-		topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
-		gbc = new GridBagConstraints();
-		gbc.weightx = 1.0;
-		gbc.fill = GridBagConstraints.HORIZONTAL;
-		gbc.gridx = 0;
-		gbc.gridy = 0;
-		cp.add(topPanel, gbc);
-		
-		// Add top panel components
-		topPanel.add(dateField);
-		topPanel.add(refreshButton);
-		topPanel.add(dirField);
-		topPanel.add(dirButton);
-
-		// Tabbed Pane setup
-		tabbedPane = new JTabbedPane(JTabbedPane.TOP);
-		tabbedPane.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 16));
-
-		gbc = new GridBagConstraints();
-		gbc.fill = GridBagConstraints.HORIZONTAL;
-		gbc.gridx = 0;
-		gbc.gridy = 1;
-		gbc.weighty = 2.0;
-		gbc.gridwidth = 1;
-		gbc.fill = GridBagConstraints.BOTH;
-		cp.add(tabbedPane, gbc);
-
-		// Additional window/frame setup
-		setPreferredSize(new Dimension(800, 450));
-		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		setVisible(true);
-		pack();
-	}
-	
-	public void indexDirectory() {
-		refreshButton.setEnabled(false);
-		dirButton.setEnabled(false);
-		engine.setMainDir(dirField.getText());
-		engine.startIndexing();
-	}
-	
-	public void readyForViewing() {
-		refreshButton.setEnabled(true);
-		dirButton.setEnabled(true);
-		System.out.println("Ready for viewing!");
-	}
-
-	/**
-	 * Reloads the view with the current date given by the user in the "searchDate" field
-	 * @throws IOException
-	 */
-	public void refreshDate() throws IOException {
-		engine.setSearchDate((String) dateField.getValue());
-		System.out.println("Current date: " + searchDateStr);
-		LogPackage p = engine.getLogsForDate();
-		refreshTabs(p);
-	}
-
-	/**
-	 * Empties and then re-adds tabs to the tabbedPane which are included in the
-	 * currDateLogs array of log text
-	 */
-	public void refreshTabs(LogPackage p) {
-		tabbedPane.removeAll();
-
-		// Add tabs corresponding to the log files
-		scrollTabs = new JScrollPane[p.logTexts.length];
-		textTabs = new JTextPane[p.logTexts.length];
-
-		// Add tabs with text based on the currDateFiles and currDateLogs arrays
-		for (int i = 0; i < p.logTexts.length; i++) {
-			textTabs[i] = new JTextPane();
-			scrollTabs[i] = new JScrollPane(textTabs[i]);
-			scrollTabs[i].setMaximumSize(new Dimension(100, 100));
-			textTabs[i].setMaximumSize(new Dimension(100, 100));
-			textTabs[i].setEditable(false);
-			textTabs[i].setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 14));
-
-			// Set text from logfile as a string on the textpane
-			StyledDocument doc = textTabs[i].getStyledDocument();
-			try {
-				doc.insertString(0, p.logTexts[i], null);
-			} catch (Exception e) {
-				System.out.println(e);
-			}
-			textTabs[i].setDocument(doc);
-
-			// Convert file name to tab name:
-			String tabName = p.logTitles[i];
-			tabbedPane.addTab(tabName, scrollTabs[i]);
-			scrollToTop(scrollTabs[i]);
-		}
-	}
-
-	/**
-	 * Scrolls a given JScrollPane view to the top of its window
-	 * @param scrollPane the JScrollPane to be scrolled up
-	 */
-	public void scrollToTop(JScrollPane scrollPane) {
-		SwingUtilities.invokeLater(new Runnable() {
-			public void run() {
-				scrollPane.getVerticalScrollBar().setValue(0);
-			}
-		});
-	}
-
-	/**
-	 * Houses the main Thread execution of the Swing UI for this application
-	 * @param args directory to be designated as the home directory
-	 */
-	public static void main(String args[]) throws Exception {
-		// Schedule a job for the event-dispatching thread:
-		// creating and showing this application's GUI.
-		SwingUtilities.invokeLater(new Runnable() {
-			public void run() {
-				try {
-					new WurmLogsMain();
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-			}
-		});
-	}
-
-}
+package wurmlogs;
+
+import java.awt.Container;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JFormattedTextField;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTabbedPane;
+import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.text.MaskFormatter;
+
+/**
+ * @author Kevin Bechman
+ * Application for use with text file logs from the MMORPG Wurm Online.
+ * This program indexes the entire directory of log files, then allows the user to enter a given date.
+ * The logs from that date are then displayed on separate tabs for the user to peruse.
+ */
+public class WurmLogsMain extends JFrame implements EngineListener {
+	private static final long serialVersionUID = -5452465131304495441L;
+	//private File[] logFiles; // File objects pointing to the log files
+	//private File[] currDateFiles; // File objects pointing to log files with text falling under current search
+									// date
+	//private String[] currDateLogs; // Strings containing logs to be displayed falling under the current search date
+	//private Logger logger;
+
+	private JPanel topPanel;
+	private JTabbedPane tabbedPane;
+	private ArrayList<LogTab> logTabs;  // Views of the tabs, reused from date to date; some may not be in the pane
+	private int shownTabs = -1;  // Number of logTabs in use for the current date, -1 before any date is shown
+	private JButton refreshButton;
+	private JButton prevButton, nextButton;
+	private JCheckBox timelineBox;  // Shows all channels merged into one tab when checked
+	private GridBagConstraints gbc;
+
+	// Date variables
+	private JFormattedTextField dateField;
+	private SimpleDateFormat dateFormat;
+	private String searchDateStr;
+	
+	// Directory pathname
+	private JTextField dirField;
+	private JButton dirButton;
+	
+	private Engine engine;
+
+	/**
+	 * Sets up the UI for the application
+	 * @throws Exception
+	 */
+	public WurmLogsMain() throws Exception {
+		// Create Logger to display command-prompt information for errors
+		//logger = Logger.getLogger("WurmLogs.Logger");
+		
+		engine = new Engine(this);
+		// Metrics are always available through JMX; -Dwurmlogs.metricsFile=<file> also appends them to a file
+		String metricsFile = System.getProperty("wurmlogs.metricsFile");
+		if (metricsFile != null)
+			engine.startMetricsDump(new File(metricsFile), Long.getLong("wurmlogs.metricsPeriod", 60));
+		
+		/** UI Setup **/
+
+		Container cp = getContentPane();
+		cp.setLayout(new GridBagLayout());
+
+		// Setting up default date selection (today's date) and formatter
+		dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		Date today = new Date();
+		searchDateStr = dateFormat.format(today); // default date to be searched is today's date
+
+		// Setting up string input format and text field
+		MaskFormatter mask = new MaskFormatter("####-##-##");
+		mask.setAllowsInvalid(false);
+
+		dateField = new JFormattedTextField(mask);
+		dateField.setValue(new String());
+		dateField.setText(searchDateStr);
+		dateField.setColumns(10);
+		dateField.setFont(new Font("SANS_SERIF", Font.PLAIN, 16));
+		
+		// Refresh
+		refreshButton = new JButton("Refresh");
+		refreshButton.setEnabled(false);
+		refreshButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				refreshDate();
+			}
+		});
+		
+		// Previous/next day, moving between dates that have logs
+		prevButton = new JButton("< Prev");
+		prevButton.setEnabled(false);
+		prevButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				moveDate(-1);
+			}
+		});
+		nextButton = new JButton("Next >");
+		nextButton.setEnabled(false);
+		nextButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				moveDate(1);
+			}
+		});
+		
+		// Merged timeline of all channels instead of one tab per channel
+		timelineBox = new JCheckBox("Timeline");
+		timelineBox.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (refreshButton.isEnabled())
+					refreshDate();
+			}
+		});
+		
+		// ***** Directory Path Components *****
+		dirField = new JTextField();
+		dirField.setText("No directory pathname selected.");
+		dirField.setFont(new Font("SANS_SERIF", Font.PLAIN, 16));
+		
+		
+		dirButton = new JButton("Search this directory");
+		dirButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				indexDirectory();
+			}
+		});
+		
+		topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		gbc = new GridBagConstraints();
+		gbc.weightx = 1.0;
+		gbc.fill = GridBagConstraints.HORIZONTAL;
+		gbc.gridx = 0;
+		gbc.gridy = 0;
+		cp.add(topPanel, gbc);
+		
+		// Add top panel components
+		topPanel.add(prevButton);
+		topPanel.add(dateField);
+		topPanel.add(nextButton);
+		topPanel.add(refreshButton);
+		topPanel.add(timelineBox);
+		topPanel.add(dirField);
+		topPanel.add(dirButton);
+
+		// Tabbed Pane setup
+		tabbedPane = new JTabbedPane(JTabbedPane.TOP);
+		tabbedPane.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 16));
+		tabbedPane.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				fillSelectedTab();
+			}
+		});
+		logTabs = new ArrayList<>();
+
+		gbc = new GridBagConstraints();
+		gbc.fill = GridBagConstraints.HORIZONTAL;
+		gbc.gridx = 0;
+		gbc.gridy = 1;
+		gbc.weighty = 2.0;
+		gbc.gridwidth = 1;
+		gbc.fill = GridBagConstraints.BOTH;
+		cp.add(tabbedPane, gbc);
+
+		// Additional window/frame setup
+		setPreferredSize(new Dimension(800, 450));
+		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		setVisible(true);
+		pack();
+	}
+	
+	public void indexDirectory() {
+		refreshButton.setEnabled(false);
+		prevButton.setEnabled(false);
+		nextButton.setEnabled(false);
+		dirButton.setEnabled(false);
+		engine.setMainDir(dirField.getText());
+		engine.startIndexing();
+	}
+	
+	@Override
+	public void readyForViewing() {
+		refreshButton.setEnabled(true);
+		prevButton.setEnabled(true);
+		nextButton.setEnabled(true);
+		dirButton.setEnabled(true);
+		System.out.println("Ready for viewing!");
+	}
+
+	/**
+	 * Reloads the view with the current date given by the user in the "searchDate" field.
+	 * The logs are read in the background, and each tab is added as soon as its log has been read.
+	 */
+	public void refreshDate() {
+		engine.setSearchDate((String) dateField.getValue());
+		if (engine.getSearchDate() == null)
+			return;
+		System.out.println("Current date: " + engine.getSearchDate());
+		clearTabs();
+		LogQueryListener listener = new LogQueryListener() {
+			@Override
+			public void tabLoaded(String title, CharSequence text) {
+				addLogTab(title, text);
+			}
+			
+			@Override
+			public void queryDone(LogPackage p) {
+				removeUnusedTabs();
+				System.out.println("Loaded " + p.logTitles.length + " tab(s).");
+			}
+		};
+		if (timelineBox.isSelected())
+			engine.queryTimelineForDate(engine.getSearchDate(), listener);
+		else
+			engine.queryLogsForDate(engine.getSearchDate(), listener);
+	}
+	
+	/**
+	 * Moves to the previous or next date that has logs and displays it
+	 * @param direction  -1 for the previous date, 1 for the next date
+	 */
+	public void moveDate(int direction) {
+		engine.setSearchDate((String) dateField.getValue());
+		if (engine.getSearchDate() == null)
+			return;
+		WTime date = engine.adjacentDate(engine.getSearchDate(), direction);
+		if (date == null) {
+			System.out.println("No logs " + (direction < 0 ? "before " : "after ") + engine.getSearchDate());
+			return;
+		}
+		dateField.setValue(String.format("%04d-%02d-%02d", date.year, date.month, date.day));
+		refreshDate();
+	}
+	
+	/**
+	 * Starts showing a new date.  The tabs of the last date stay in the pane until the new date has been read,
+	 * so they can be reused, but their texts are released.
+	 */
+	private void clearTabs() {
+		for (int i = 0; i < shownTabs; i++) {
+			logTabs.get(i).setText("");
+		}
+		shownTabs = 0;
+	}
+	
+	/**
+	 * Removes the tabs that the current date does not use from the pane (they are kept for later dates)
+	 */
+	private void removeUnusedTabs() {
+		while (tabbedPane.getTabCount() > shownTabs) {
+			tabbedPane.removeTabAt(tabbedPane.getTabCount() - 1);
+		}
+	}
+	
+	/**
+	 * Shows a log on the next tab, reusing the tab of the last date at that position if there is one.
+	 * The text is only put into the tab once it is selected.
+	 * @param tabName  title of the tab
+	 * @param text  log text to be displayed
+	 */
+	private void addLogTab(String tabName, CharSequence text) {
+		int i = shownTabs++;
+		if (i == logTabs.size())
+			logTabs.add(new LogTab());
+		LogTab tab = logTabs.get(i);
+		tab.setText(text);
+		if (i < tabbedPane.getTabCount())
+			tabbedPane.setTitleAt(i, tabName);
+		else
+			tabbedPane.addTab(tabName, tab.getComponent());  // Selects it (and so fills it) if it is the first
+		if (tabbedPane.getSelectedIndex() == i)
+			tab.fill();
+	}
+
+	/**
+	 * Empties and then re-adds tabs to the tabbedPane which are included in the
+	 * currDateLogs array of log text
+	 */
+	public void refreshTabs(LogPackage p) {
+		clearTabs();
+
+		// Add tabs with text based on the currDateFiles and currDateLogs arrays
+		for (int i = 0; i < p.logTexts.length; i++) {
+			addLogTab(p.logTitles[i], p.logTexts[i]);
+		}
+		removeUnusedTabs();
+	}
+	
+	/**
+	 * Puts the text of the selected tab into its view, the first time it is selected for a date
+	 */
+	private void fillSelectedTab() {
+		int i = tabbedPane.getSelectedIndex();
+		if (i >= 0 && i < shownTabs)
+			logTabs.get(i).fill();
+	}
+	
+	/**
+	 * Adds lines that were just written to a log file (live updates) to the end of that log's tab.
+	 * If the date being displayed has no tab for that log yet, a new tab is added.
+	 * In timeline mode, the lines are tagged with the log's name and added to the timeline tab.
+	 * @param tabName  title of the tab the lines belong to
+	 * @param text  the new lines
+	 */
+	@Override
+	public void appendLogs(String tabName, String text) {
+		if (shownTabs < 0)
+			return;  // Nothing is being displayed yet
+		if (timelineBox.isSelected()) {
+			StringBuilder tagged = new StringBuilder();
+			for (String line : text.split("\n")) {
+				StringBuilder sb = new StringBuilder(line);
+				Timeline.tag(sb, tabName);
+				tagged.append(sb).append('\n');
+			}
+			text = tagged.toString();
+			tabName = Timeline.TAB_TITLE;
+		}
+		int i = tabbedPane.indexOfTab(tabName);
+		if (i < 0 || i >= shownTabs) {
+			addLogTab(tabName, text);
+			return;
+		}
+		logTabs.get(i).append(text);
+	}
+
+	/**
+	 * Scrolls a given JScrollPane view to the top of its window
+	 * @param scrollPane the JScrollPane to be scrolled up
+	 */
+	public void scrollToTop(JScrollPane scrollPane) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				scrollPane.getVerticalScrollBar().setValue(0);
+			}
+		});
+	}
+
+	/**
+	 * Houses the main Thread execution of the Swing UI for this application
+	 * @param args directory to be designated as the home directory
+	 */
+	public static void main(String args[]) throws Exception {
+		// Schedule a job for the event-dispatching thread:
+		// creating and showing this application's GUI.
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				try {
+					new WurmLogsMain();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+}
@@ -0,0 +1,205 @@
+package wurmlogs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyledDocument;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * @author Kevin Bechman
+ * JMH benchmarks of the main operations of the Engine: indexing, reading a single day, reading a range of days
+ * and rendering a day's tabs (plain, styled, and only the selected one as the GUI does).  The logs are made by
+ * LogGenerator in a temporary directory, once per fork.
+ *
+ * Build and run with allocation reported per operation:
+ *   mvn -Pjmh package
+ *   java -jar target/benchmarks.jar -prof gc
+ * Add e.g. "-p megabytes=200" for a bigger archive.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EngineBenchmark {
+	private static final int INSERT_CHUNK = 1 << 16;  // Max characters inserted into a document at once
+
+	/**
+	 * A generated log directory, indexed by an Engine that reads the files for every query
+	 */
+	@State(Scope.Benchmark)
+	public static class Logs {
+		@Param({ "20" })
+		public int megabytes;  // Size of the generated archive
+
+		File dir;
+		File[] files;
+		Engine engine;
+		List<WTime> dates;
+		LogPackage biggest;  // The biggest day, where the GUI is slowest
+		LogTab[] tabs;  // One per tab of the biggest day
+		private int next;  // Used to pick a different day for each operation
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			dir = Files.createTempDirectory("wurmlogs-jmh").toFile();
+			new LogGenerator(dir, 1).generate((long) megabytes << 20);
+			files = dir.listFiles();
+			engine = new Engine(null);
+			engine.setMainDir(dir.getPath());
+			engine.setCacheBudget(0);  // Every query reads the files
+			engine.setLiveUpdates(false);
+			engine.indexNow(false);
+			dates = engine.getDates();
+			if (dates.isEmpty())
+				throw new IllegalStateException("No dates in " + dir);
+			long most = -1;
+			for (WTime d : dates) {
+				LogPackage p = engine.getLogsForDate(d);
+				if (chars(p) > most) {
+					biggest = p;
+					most = chars(p);
+				}
+			}
+			tabs = new LogTab[biggest.logTexts.length];
+			for (int i = 0; i < tabs.length; i++) {
+				tabs[i] = new LogTab();
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			engine.close();
+			for (File f : dir.listFiles()) {
+				f.delete();
+			}
+			dir.delete();
+		}
+
+		WTime nextDate() {
+			next = (next + 7919) % dates.size();
+			return dates.get(next);
+		}
+	}
+
+	@Benchmark
+	public void indexParallel(Logs logs) throws Exception {
+		logs.engine.indexNow(false);
+	}
+
+	@Benchmark
+	public void indexSingleThread(Logs logs, Blackhole bh) throws Exception {
+		TermDictionary dict = new TermDictionary();
+		for (int f = 0; f < logs.files.length; f++) {
+			bh.consume(FileIndex.scan(logs.files[f], f, dict));
+		}
+	}
+
+	@Benchmark
+	public LogPackage singleDay(Logs logs) throws IOException {
+		return logs.engine.getLogsForDate(logs.nextDate());
+	}
+
+	@Benchmark
+	public long range31(Logs logs) throws IOException {
+		final long[] count = new long[1];
+		WTime last = logs.dates.get(Math.min(logs.dates.size(), 31) - 1);
+		logs.engine.getLogsForRange(logs.dates.get(0), last, new DayConsumer() {
+			public void dayLoaded(WTime date, LogPackage day) {
+				count[0] += chars(day);
+			}
+		});
+		return count[0];
+	}
+
+	/**
+	 * The biggest day inserted as plain text into documents, the baseline for styleBiggestDay
+	 */
+	@Benchmark
+	public void renderBiggestDay(Logs logs, Blackhole bh) throws Exception {
+		for (CharSequence text : logs.biggest.logTexts) {
+			DefaultStyledDocument doc = new DefaultStyledDocument();
+			insertChunked(doc, text);
+			bh.consume(doc);
+		}
+	}
+
+	/**
+	 * The biggest day with the styles of the in-game display, as the GUI builds its documents
+	 */
+	@Benchmark
+	public void styleBiggestDay(Logs logs, Blackhole bh) {
+		for (CharSequence text : logs.biggest.logTexts) {
+			bh.consume(LogStyler.build(text));
+		}
+	}
+
+	/**
+	 * What the GUI does when the date is shown: every tab gets its text, only the selected one is filled (its
+	 * document is styled in the background, which is waited for, so each operation is a complete date switch).
+	 * Reported as date switches per second.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void showBiggestDayInTabs(Logs logs) throws Exception {
+		LogTab[] tabs = logs.tabs;
+		for (int t = 0; t < tabs.length; t++) {
+			tabs[t].setText(logs.biggest.logTexts[t]);
+		}
+		if (tabs.length > 0) {
+			tabs[0].fill();
+			tabs[0].awaitStyled();
+		}
+	}
+
+	/**
+	 * Appends text to the end of a document in chunks of at most INSERT_CHUNK characters, as the GUI did before
+	 * its logs were styled
+	 * @param doc  the document to add to
+	 * @param text  the text to add
+	 * @throws BadLocationException
+	 */
+	static void insertChunked(StyledDocument doc, CharSequence text) throws BadLocationException {
+		int len = text.length();
+		int off = 0;
+		while (off < len) {
+			int end = Math.min(len, off + INSERT_CHUNK);
+			if (end < len && Character.isHighSurrogate(text.charAt(end - 1)))
+				end--;  // Keep surrogate pairs together
+			doc.insertString(doc.getLength(), text.subSequence(off, end).toString(), null);
+			off = end;
+		}
+	}
+
+	/**
+	 * @return  the total number of chars in all tabs of a LogPackage
+	 */
+	static long chars(LogPackage logs) {
+		long n = 0;
+		for (CharSequence text : logs.logTexts) {
+			n += text.length();
+		}
+		return n;
+	}
+}
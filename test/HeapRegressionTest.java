@@ -0,0 +1,154 @@
+package wurmlogs;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Kevin Bechman
+ * Opens the biggest day of a generated archive over and over, as a user paging back and forth would, and fails if
+ * the heap left after the days are released grows, or if an open day with its big tabs mapped holds its text on
+ * the heap.  The days are opened in rounds of ten held at once, so the heap they hold stands out from the noise of
+ * the collector.
+ *
+ * The archive is made by LogGenerator; its size in MB is set with -Dwurmlogs.heapTest.megabytes (20 by default).
+ */
+public class HeapRegressionTest {
+	private static final int ROUNDS = 6;
+	private static final int BATCH = 10;  // Days held at once
+	private static final long MAX_GROWTH = 1 << 20;  // Growth of the heap left after all rounds that counts as a leak
+
+	@ClassRule
+	public static TemporaryFolder folder = new TemporaryFolder();
+
+	private static Engine engine;
+	private static WTime biggestDate;
+	private static long biggestChars;
+	private static PrintStream console;
+	private static LogPackage[] heldDays;  // Days held while they are measured
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		console = System.out;
+		System.setOut(new PrintStream(new OutputStream() {  // The Engine reports every file it reads
+			@Override
+			public void write(int b) {
+			}
+		}));
+		File dir = folder.newFolder("logs");
+		long megabytes = Long.getLong("wurmlogs.heapTest.megabytes", 20);
+		new LogGenerator(dir, 1).generate(megabytes << 20);
+		engine = new Engine(null);
+		engine.setMainDir(dir.getPath());
+		engine.setCacheBudget(0);  // Every open reads the files
+		engine.setLiveUpdates(false);
+		engine.indexNow(false);
+		biggestChars = -1;
+		for (WTime d : engine.getDates()) {
+			long n = chars(engine.getLogsForDate(d));
+			if (n > biggestChars) {
+				biggestChars = n;
+				biggestDate = d;
+			}
+		}
+		assertTrue("No dates in " + dir, biggestDate != null);
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		engine.close();
+		System.setOut(console);
+	}
+
+	@Test
+	public void mappedDayDoesNotLeak() throws Exception {
+		engine.setMapThreshold(Engine.DEFAULT_MAP_THRESHOLD);
+		long held = checkGrowth("mapped");
+		assertTrue("An open day of " + biggestChars + " chars holds " + held + " bytes with its big tabs mapped",
+				held < biggestChars / 2);
+	}
+
+	@Test
+	public void decodedDayDoesNotLeak() throws Exception {
+		engine.setMapThreshold(Long.MAX_VALUE);
+		try {
+			checkGrowth("decoded");
+		} finally {
+			engine.setMapThreshold(Engine.DEFAULT_MAP_THRESHOLD);
+		}
+	}
+
+	/**
+	 * Opens the biggest day in rounds, and fails if the heap in use between rounds grows
+	 * @param name  name of the check, for the failure message
+	 * @return  the heap held by one open day, on average
+	 */
+	private static long checkGrowth(String name) throws Exception {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long held = 0;
+		long[] base = new long[ROUNDS];  // Heap in use before each round
+		for (int i = 0; i < ROUNDS; i++) {
+			base[i] = usedHeap(memory);
+			held += heldByDays(memory);
+		}
+		// A leak raises the lowest reading too, while a collection that happens to leave garbage only raises one
+		long firstHalf = Long.MAX_VALUE, secondHalf = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++) {
+			if (i < ROUNDS / 2)
+				firstHalf = Math.min(firstHalf, base[i]);
+			else
+				secondHalf = Math.min(secondHalf, base[i]);
+		}
+		long growth = secondHalf - firstHalf;
+		assertTrue("Heap grew " + (growth >> 10) + " KB over " + ROUNDS * BATCH + " opens (" + name + ")",
+				growth < MAX_GROWTH);
+		return held / ROUNDS / BATCH;
+	}
+
+	/**
+	 * Opens the biggest day BATCH times, holding every copy
+	 * @return  the heap the copies hold
+	 */
+	private static long heldByDays(MemoryMXBean memory) throws Exception {
+		long before = usedHeap(memory);
+		heldDays = new LogPackage[BATCH];
+		for (int k = 0; k < BATCH; k++) {
+			heldDays[k] = engine.getLogsForDate(biggestDate);
+		}
+		long after = usedHeap(memory);
+		heldDays = null;
+		return after - before;
+	}
+
+	/**
+	 * @return  the heap in use after a full collection
+	 */
+	private static long usedHeap(MemoryMXBean memory) throws InterruptedException {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * @return  the total number of chars in all tabs of a LogPackage
+	 */
+	private static long chars(LogPackage logs) {
+		long n = 0;
+		for (CharSequence text : logs.logTexts) {
+			n += text.length();
+		}
+		return n;
+	}
+}
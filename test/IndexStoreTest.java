@@ -0,0 +1,169 @@
+package wurmlogs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Kevin Bechman
+ * Saves the indexes of a small log directory and loads them back, and checks that a saved index that was
+ * truncated or damaged is thrown away and rebuilt rather than used.
+ */
+public class IndexStoreTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File dir;
+	private File[] files;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = folder.newFolder("logs");
+		files = new File[] {
+			writeLog("Village.2012-01.txt",
+					"Logging started 2012-01-05",
+					"[10:00:00] <Anna> the market opens at noon",
+					"[10:05:12] <Bert> Noon it is, see you at the market",
+					"Logging started 2012-01-07",
+					"[21:13:40] <Anna> anyone selling iron lumps?"),
+			writeLog("_Combat.2012-01.txt",
+					"Logging started 2012-01-05",
+					"[10:01:00] Young large rat moves in to attack you.",
+					"[10:01:03] You pierce Young large rat hard in the calf of the left foreleg and hurt it.",
+					"Logging started 2012-01-06",
+					"[08:30:00] You hit the troll hard in the face and harm it.")
+		};
+	}
+
+	private File writeLog(String name, String... lines) throws IOException {
+		StringBuilder text = new StringBuilder();
+		for (String line : lines) {
+			text.append(line).append("\r\n");
+		}
+		File file = new File(dir, name);
+		Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private FileIndex[] scanAll(TermDictionary dict) throws IOException {
+		FileIndex[] indexes = new FileIndex[files.length];
+		for (int f = 0; f < files.length; f++) {
+			indexes[f] = FileIndex.scan(files[f], f, dict);
+		}
+		return indexes;
+	}
+
+	private File saveAll() throws IOException {
+		TermDictionary dict = new TermDictionary();
+		File saved = new File(folder.getRoot(), "saved" + IndexStore.EXTENSION);
+		new IndexStore(saved).save(files, scanAll(dict), dict);
+		return saved;
+	}
+
+	@Test
+	public void loadGivesBackWhatWasSaved() throws IOException {
+		TermDictionary dict = new TermDictionary();
+		FileIndex[] indexes = scanAll(dict);
+		File saved = new File(folder.getRoot(), "saved" + IndexStore.EXTENSION);
+		new IndexStore(saved).save(files, indexes, dict);
+
+		TermDictionary loadedDict = new TermDictionary();
+		HashMap<String, FileIndex> loaded = new IndexStore(saved).load(loadedDict);
+		assertEquals(files.length, loaded.size());
+		for (int f = 0; f < files.length; f++) {
+			FileIndex expected = indexes[f];
+			FileIndex actual = loaded.get(files[f].getName());
+			assertEquals(expected.size(), actual.size());
+			assertEquals(expected.getIndexedLength(), actual.getIndexedLength());
+			assertTrue(actual.isFresh(files[f]));
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.dateAt(i), actual.dateAt(i));
+				assertEquals(expected.startAt(i), actual.startAt(i));
+				assertEquals(expected.endAt(i), actual.endAt(i));
+			}
+			for (int id = 0; id < dict.size(); id++) {
+				String term = dict.term(id);
+				assertArrayEquals(term, expected.getTerms().linesOf(id),
+						actual.getTerms().linesOf(loadedDict.find(term)));
+			}
+		}
+	}
+
+	@Test
+	public void truncatedIndexIsNotUsed() throws IOException {
+		File saved = saveAll();
+		for (long length : new long[] { saved.length() - 1, saved.length() / 2, 10, 0 }) {
+			try (RandomAccessFile out = new RandomAccessFile(saved, "rw")) {
+				out.setLength(length);
+			}
+			assertTrue("Truncated to " + length, new IndexStore(saved).load(new TermDictionary()).isEmpty());
+		}
+	}
+
+	@Test
+	public void damagedIndexIsNotUsed() throws IOException {
+		File saved = saveAll();
+		byte[] good = Files.readAllBytes(saved.toPath());
+		for (int at : new int[] { 9, 14, good.length / 2, good.length - 12, good.length - 1 }) {
+			byte[] bad = good.clone();
+			bad[at] ^= 0x40;
+			Files.write(saved.toPath(), bad);
+			assertTrue("Byte " + at + " changed", new IndexStore(saved).load(new TermDictionary()).isEmpty());
+		}
+		Files.write(saved.toPath(), good);
+		assertEquals(files.length, new IndexStore(saved).load(new TermDictionary()).size());
+	}
+
+	@Test
+	public void damagedIndexIsRebuilt() throws Exception {
+		List<String> expected = searchAll();
+		File saved = IndexStore.indexFileFor(dir);
+		assertTrue(saved.isFile());
+		byte[] bad = Files.readAllBytes(saved.toPath());
+		bad[bad.length / 2] ^= 0x40;
+		Files.write(saved.toPath(), bad);
+
+		assertEquals(expected, searchAll());
+		assertEquals(files.length, new IndexStore(saved).load(new TermDictionary()).size());  // Saved again
+	}
+
+	/**
+	 * Indexes the directory with its saved index, as the program does when it opens
+	 * @return  the dates found, then the lines found by a few searches
+	 */
+	private List<String> searchAll() throws Exception {
+		Engine engine = new Engine(null);
+		try {
+			engine.setMainDir(dir.getPath());
+			engine.setLiveUpdates(false);
+			engine.indexNow(true);
+			List<String> found = new ArrayList<>();
+			for (WTime date : engine.getDates()) {
+				found.add(date.toString());
+			}
+			for (String query : new String[] { "market", "\"large rat\"", "iron lumps", "troll" }) {
+				for (SearchHit hit : engine.search(query, 100)) {
+					found.add(query + ": " + hit.fileIndex + " " + hit.offset + " " + hit.line);
+				}
+			}
+			assertEquals(3 + 2 + 2 + 1 + 1, found.size());  // Dates, then the hits of each query
+			return found;
+		} finally {
+			engine.close();
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package wurmlogs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author Kevin Bechman
+ * Looks up terms in TermIndexes built from known lines: how lines are split into terms, lines added over many
+ * flushes as a live log grows, copies, and the saved form.
+ */
+public class TermIndexTest {
+	private final TermDictionary dict = new TermDictionary();
+
+	/**
+	 * Adds lines at locations 100 apart, starting at a location
+	 */
+	private static void add(TermIndex index, long first, String... lines) {
+		for (int i = 0; i < lines.length; i++) {
+			byte[] buf = lines[i].getBytes(StandardCharsets.UTF_8);
+			index.addLine(buf, 0, buf.length, first + 100L * i);
+		}
+	}
+
+	private long[] lines(TermIndex index, String term) {
+		int id = dict.find(term);
+		return (id < 0) ? new long[0] : index.linesOf(id);
+	}
+
+	@Test
+	public void findsTermsOfLines() {
+		TermIndex index = new TermIndex(dict);
+		add(index, 0,
+				"[10:00:00] <Anna> The market opens at noon",
+				"[10:00:05] <Bert> noon noon NOON, see you at the Market",
+				"[10:00:09] <Anna> a b c",
+				"[10:00:12] You hit Schönheit hard");
+		index.flush();
+		assertArrayEquals(new long[] { 0, 100 }, lines(index, "market"));  // Case is ignored
+		assertArrayEquals(new long[] { 0, 100 }, lines(index, "noon"));  // Once for a line that has it three times
+		assertArrayEquals(new long[] { 0, 200 }, lines(index, "anna"));
+		assertArrayEquals(new long[] { 300 }, lines(index, "schönheit"));
+		assertArrayEquals(new long[0], lines(index, "10"));  // The timestamp is not indexed
+		assertArrayEquals(new long[0], lines(index, "a"));  // Shorter than MIN_TOKEN
+		assertArrayEquals(new long[0], lines(index, "nothing"));
+		assertEquals(Arrays.asList("you", "hit", "schönheit", "hard"),
+				TermIndex.tokens("[10:00:12] You hit Schönheit hard"));  // Split the same way for queries
+	}
+
+	@Test
+	public void findsLinesAddedOverManyFlushes() {
+		TermIndex index = new TermIndex(dict);
+		List<Long> even = new ArrayList<>();
+		List<Long> all = new ArrayList<>();
+		long location = 0;
+		for (int batch = 0; batch < 300; batch++) {
+			int count = (batch % 100 == 0) ? 20000 : 1 + batch % 7;  // A few batches that fill several blocks
+			for (int i = 0; i < count; i++) {
+				String line = "[12:00:00] line number " + location + ((location % 2 == 0) ? " even" : " odd");
+				add(index, location, line);
+				all.add(location);
+				if (location % 2 == 0)
+					even.add(location);
+				location += 1 + location % 3;
+			}
+			index.flush();
+		}
+		assertArrayEquals(toArray(all), lines(index, "line"));
+		assertArrayEquals(toArray(even), lines(index, "even"));
+		assertArrayEquals(new long[] { 12345 }, lines(index, "12345"));
+	}
+
+	@Test
+	public void copyIsNotChangedByLaterLines() {
+		TermIndex index = new TermIndex(dict);
+		add(index, 0, "[10:00:00] first troll", "[10:00:01] second troll");
+		index.flush();
+		TermIndex copy = index.copy();
+		add(index, 200, "[10:00:02] third troll");
+		index.flush();
+		assertArrayEquals(new long[] { 0, 100 }, lines(copy, "troll"));
+		assertArrayEquals(new long[] { 0, 100, 200 }, lines(index, "troll"));
+		index.clear();
+		assertArrayEquals(new long[0], lines(index, "troll"));
+		assertArrayEquals(new long[] { 0, 100 }, lines(copy, "troll"));
+	}
+
+	@Test
+	public void savedIndexFindsTheSameLines() throws IOException {
+		TermIndex index = new TermIndex(dict);
+		add(index, 0, "[10:00:00] the troll hits you", "[10:00:01] you hit the troll");
+		index.flush();
+		add(index, 1000, "[10:00:02] the troll dies");
+		index.flush();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		index.write(new DataOutputStream(bytes));
+
+		String[] savedTerms = new String[dict.size()];
+		for (int i = 0; i < savedTerms.length; i++) {
+			savedTerms[i] = dict.term(i);
+		}
+		TermDictionary loadedDict = new TermDictionary();
+		for (int i = savedTerms.length - 1; i >= 0; i--) {
+			loadedDict.id(savedTerms[i]);  // Terms get other ids when loaded into another dictionary
+		}
+		TermIndex loaded = TermIndex.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+				loadedDict, savedTerms);
+		for (String term : savedTerms) {
+			assertArrayEquals(term, lines(index, term), loaded.linesOf(loadedDict.find(term)));
+		}
+		assertArrayEquals(new long[] { 0, 100, 1000 }, loaded.linesOf(loadedDict.find("troll")));
+	}
+
+	@Test
+	public void matcherChecksPhrases() {
+		List<List<String>> phrases = new ArrayList<>();
+		phrases.add(TermIndex.tokens("large rat"));
+		phrases.add(TermIndex.tokens("attack"));
+		TermIndex.LineMatcher matcher = new TermIndex.LineMatcher(phrases);
+		assertTrue(matches(matcher, "[13:39:47] Young Large Rat moves in to attack you."));
+		assertFalse(matches(matcher, "[13:39:47] The rat is large and moves in to attack you."));
+		assertFalse(matches(matcher, "[13:39:47] Young large rat claws you."));
+	}
+
+	private static boolean matches(TermIndex.LineMatcher matcher, String line) {
+		byte[] buf = line.getBytes(StandardCharsets.UTF_8);
+		return matcher.matches(buf, 0, buf.length);
+	}
+
+	private static long[] toArray(List<Long> list) {
+		long[] a = new long[list.size()];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = list.get(i);
+		}
+		return a;
+	}
+}
@@ -0,0 +1,105 @@
+package wurmlogs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Kevin Bechman
+ * Compresses texts whose lengths fall on, just before and just after the block boundaries, and checks that every
+ * range read back (inside a block, across a boundary, up to the end) is the original text.
+ */
+public class WlzArchiveTest {
+	private static final int BLOCK = 64;  // Small, so the texts have many boundaries
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static byte[] text(int length, long seed) {
+		Random random = new Random(seed);
+		byte[] text = new byte[length];
+		for (int i = 0; i < length; i++) {
+			text[i] = (random.nextInt(8) == 0) ? (byte) '\n' : (byte) ('a' + random.nextInt(26));
+		}
+		return text;
+	}
+
+	private File compress(byte[] text) throws IOException {
+		File log = folder.newFile();
+		Files.write(log.toPath(), text);
+		File archive = new File(log.getPath() + WlzArchive.EXTENSION);
+		long crc = WlzArchive.compress(log, archive, BLOCK);
+		CRC32 expected = new CRC32();
+		expected.update(text);
+		assertEquals(expected.getValue(), crc);
+		return archive;
+	}
+
+	@Test
+	public void readsAcrossBlockBoundaries() throws IOException {
+		for (int length : new int[] { 0, 1, BLOCK - 1, BLOCK, BLOCK + 1, 3 * BLOCK, 3 * BLOCK + 1, 5 * BLOCK - 1 }) {
+			byte[] text = text(length, length);
+			File archive = compress(text);
+			assertEquals(length, WlzArchive.contentLength(archive));
+			try (WlzArchive in = WlzArchive.open(archive)) {
+				assertEquals(length, in.size());
+				int[] points = { 0, 1, BLOCK - 1, BLOCK, BLOCK + 1, 2 * BLOCK - 1, 2 * BLOCK, length - 1, length };
+				for (int from : points) {
+					for (int to : points) {
+						if (from < 0 || to > length || from >= to)
+							continue;
+						ByteBuffer buf = ByteBuffer.allocate(to - from);
+						assertEquals(to - from, in.read(buf, from));
+						assertArrayEquals("Length " + length + ", " + from + " to " + to,
+								Arrays.copyOfRange(text, from, to), buf.array());
+					}
+				}
+				assertEquals(-1, in.read(ByteBuffer.allocate(1), length));
+			}
+		}
+	}
+
+	@Test
+	public void transfersAcrossBlockBoundaries() throws IOException {
+		byte[] text = text(4 * BLOCK + 7, 1);
+		try (WlzArchive in = WlzArchive.open(compress(text))) {
+			for (int from = 0; from <= text.length; from += BLOCK / 2 - 1) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				long n = in.transferTo(from, 2 * BLOCK, Channels.newChannel(out));
+				int to = Math.min(text.length, from + 2 * BLOCK);
+				assertEquals(to - from, n);
+				assertArrayEquals(Arrays.copyOfRange(text, from, to), out.toByteArray());
+			}
+		}
+	}
+
+	@Test
+	public void hugeBlockSizeIsDamage() throws IOException {
+		File archive = compress(text(3 * BLOCK, 2));
+		try (RandomAccessFile out = new RandomAccessFile(archive, "rw")) {
+			out.seek(8);  // Block size, after the magic and version
+			out.writeInt(WlzArchive.MAX_BLOCK_SIZE + 1);
+		}
+		try {
+			WlzArchive.open(archive).close();
+			fail("Opened an archive with blocks of " + (WlzArchive.MAX_BLOCK_SIZE + 1) + " bytes");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+}